@@ -1,6 +1,8 @@
 import java.util.ArrayList;
 
 import bot.Coordinator;
+import bot.MatchRecorder;
+import bot.Warmup;
 import lux.*;
 
 public class Bot {
@@ -9,6 +11,10 @@ public class Bot {
     Coordinator coordinator = new Coordinator();
     // initialize
     agent.initialize();
+    if (Warmup.BUDGET_MS > 0)
+      Warmup.run(agent.gameState.map.width, agent.gameState.map.height, Warmup.BUDGET_MS);
+    Warmup.LatencyReport latency = new Warmup.LatencyReport(Warmup.BUDGET_MS);
+    MatchRecorder recorder = MatchRecorder.open(agent.gameState);
     while (true) {
       /** Do not edit! **/
       // wait for updates
@@ -16,7 +22,9 @@ public class Bot {
 
       GameState gameState = agent.gameState;
 
+      long start = System.nanoTime();
       ArrayList<String> actions  = coordinator.generateTurnActions(gameState);
+      latency.record(gameState.turn, System.nanoTime() - start);
 
       /** Do not edit! **/
       StringBuilder commandBuilder = new StringBuilder("");
@@ -29,6 +37,10 @@ public class Bot {
       System.out.println(commandBuilder.toString());
       // end turn
       agent.endTurn();
+      if (recorder != null && !recorder.record(gameState, actions))
+        recorder = null;
+      // plan ahead while the engine plays the turn out
+      coordinator.speculate(gameState, actions);
 
     }
   }
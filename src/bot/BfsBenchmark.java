@@ -0,0 +1,104 @@
+package bot;
+
+import java.util.*;
+
+/**
+ * Times BfsKernel against the ArrayDeque-of-coordinates BFS the Surveyor and Navigator used to run, on random maps
+ * with a few sources and roughly one cell in eight blocked, and checks that all of them agree on every distance.
+ *
+ * Run with: java -cp out bot.BfsBenchmark [iterations]
+ */
+public class BfsBenchmark {
+  private final static int[] dx = {-1, 0, 1, 0}, dy = {0, -1, 0, 1};
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    // the first pass only warms up the JIT, otherwise the first map size looks slow for every variant
+    for (int pass = 0; pass < 2; pass++) {
+      run(iterations, pass == 1);
+    }
+  }
+
+  private static void run(int iterations, boolean print) {
+    Random random = new Random(42);
+    if (print)
+      System.out.printf("%-8s %12s %12s %12s %14s%n", "map", "queue ns", "scalar ns", "kernel ns", "components ns");
+    for (int size : new int[]{12, 16, 24, 32, 64, 96}) {
+      Bitboard starts = new Bitboard(size, size), blocked = new Bitboard(size, size);
+      for (int cellId = 0; cellId < size * size; cellId++) {
+        if (random.nextInt(8) == 0) blocked.set(cellId);
+      }
+      for (int i = 0; i < 3; i++) starts.set(random.nextInt(size * size));
+
+      int[] expected = queueBfs(starts, blocked);
+      int[] dist = new int[size * size];
+      Arrays.fill(dist, BfsKernel.UNREACHABLE);
+      BfsKernel.scalarDistances(starts, blocked, dist, null, BfsKernel.UNREACHABLE);
+      check("scalar", size, expected, dist);
+      BfsKernel.distances(starts, blocked, dist, null);
+      check("kernel", size, expected, dist);
+
+      long queue = time(iterations, () -> queueBfs(starts, blocked));
+      long scalar = time(iterations, () -> {
+        Arrays.fill(dist, BfsKernel.UNREACHABLE);
+        BfsKernel.scalarDistances(starts, blocked, dist, null, BfsKernel.UNREACHABLE);
+      });
+      long kernel = time(iterations, () -> BfsKernel.distances(starts, blocked, dist, null));
+      int[] label = new int[size * size];
+      long components = time(iterations, () -> BfsKernel.components(blocked, label));
+
+      if (print)
+        System.out.printf("%-8s %12d %12d %12d %14d%n", size + "x" + size, queue, scalar, kernel, components);
+    }
+  }
+
+  private static void check(String name, int size, int[] expected, int[] actual) {
+    for (int cellId = 0; cellId < expected.length; cellId++) {
+      if (expected[cellId] != actual[cellId])
+        throw new IllegalStateException(name + " disagrees on " + size + "x" + size + " at cell " + cellId);
+    }
+  }
+
+  // Average nanoseconds per run, after a warm-up of the same length
+  private static long time(int iterations, Runnable run) {
+    for (int i = 0; i < iterations; i++) run.run();
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) run.run();
+    return (System.nanoTime() - start) / iterations;
+  }
+
+  // The BFS as it was written before BfsKernel: boxed x/y pairs in an ArrayDeque
+  private static int[] queueBfs(Bitboard starts, Bitboard blocked) {
+    int width = starts.width, height = starts.height;
+    int[][] dist = new int[width][height];
+    for (int i = 0; i < dist.length; i++) Arrays.fill(dist[i], BfsKernel.UNREACHABLE);
+
+    ArrayDeque<Integer> q = new ArrayDeque<>();
+    for (int cellId = starts.next(0); cellId != -1; cellId = starts.next(cellId + 1)) {
+      dist[cellId % width][cellId / width] = 0;
+      q.add(cellId % width);
+      q.add(cellId / width);
+    }
+    while (!q.isEmpty()) {
+      int x = q.poll(), y = q.poll();
+      for (int k = 0; k < 4; k++) {
+        int xx = x + dx[k], yy = y + dy[k];
+        if (xx < 0 || xx >= width || yy < 0 || yy >= height)
+          continue;
+        if (dist[xx][yy] != BfsKernel.UNREACHABLE || blocked.get(xx, yy))
+          continue;
+        dist[xx][yy] = dist[x][y] + 1;
+        q.add(xx);
+        q.add(yy);
+      }
+    }
+
+    int[] flat = new int[width * height];
+    for (int x = 0; x < width; x++) {
+      for (int y = 0; y < height; y++) {
+        flat[y * width + x] = dist[x][y];
+      }
+    }
+    return flat;
+  }
+}
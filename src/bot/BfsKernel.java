@@ -0,0 +1,187 @@
+package bot;
+
+import java.util.Arrays;
+
+/**
+ * Breadth first search for distance fields and connected components without a queue of boxed coordinates.
+ *
+ * Maps up to 64 cells wide (every Lux map is) are handled one long per row: a whole frontier moves a step with a
+ * couple of shifts and ors per row, gets masked by the open cells and whatever was already visited, and each
+ * distance layer is read off with numberOfTrailingZeros. Wider maps take the scalar path, a plain int[] queue.
+ * Cells are y * width + x, as everywhere else.
+ */
+public final class BfsKernel {
+  public final static int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+  private BfsKernel() {
+  }
+
+  /**
+   * Fills dist with the distance from the closest start, UNREACHABLE where there is no way. Starts may be blocked
+   * themselves; no other blocked cell is ever entered. If order is not null it receives the reached cells layer by
+   * layer. Returns the number of cells reached.
+   */
+  public static int distances(Bitboard starts, Bitboard blocked, int[] dist, int[] order) {
+    return distances(starts, blocked, dist, order, UNREACHABLE);
+  }
+
+  /**
+   * Same, but the search stops at maxDistance: cells any further away are left UNREACHABLE, so the work is bounded by
+   * the neighbourhood of the starts rather than by the map.
+   */
+  public static int distances(Bitboard starts, Bitboard blocked, int[] dist, int[] order, int maxDistance) {
+    Arrays.fill(dist, 0, starts.width * starts.height, UNREACHABLE);
+    if (starts.width <= 64)
+      return rowDistances(starts, blocked, dist, order, maxDistance);
+    return scalarDistances(starts, blocked, dist, order, maxDistance);
+  }
+
+  /**
+   * Labels the 4-connected components of cells with 1, 2, ... in order of their lowest cell id (0 for cells not in
+   * the set) and returns how many there are.
+   */
+  public static int components(Bitboard cells, int[] label) {
+    Arrays.fill(label, 0, cells.width * cells.height, 0);
+    if (cells.width <= 64)
+      return rowComponents(cells, label);
+    return scalarComponents(cells, label);
+  }
+
+  private static long fullRow(int width) {
+    return width == 64 ? -1L : (1L << width) - 1;
+  }
+
+  static int rowDistances(Bitboard starts, Bitboard blocked, int[] dist, int[] order, int maxDistance) {
+    int width = starts.width, height = starts.height;
+    long full = fullRow(width);
+    long[] open = new long[height], frontier = new long[height], next = new long[height], visited = new long[height];
+    boolean any = false;
+    for (int y = 0; y < height; y++) {
+      open[y] = ~blocked.row(y) & full;
+      frontier[y] = visited[y] = starts.row(y);
+      any |= frontier[y] != 0;
+    }
+
+    int reached = 0;
+    for (int d = 0; any; d++) {
+      any = false;
+      for (int y = 0; y < height; y++) {
+        for (long bits = frontier[y]; bits != 0; bits &= bits - 1) {
+          int cellId = y * width + Long.numberOfTrailingZeros(bits);
+          dist[cellId] = d;
+          if (order != null) order[reached] = cellId;
+          reached++;
+        }
+      }
+      if (d == maxDistance)
+        break;
+      for (int y = 0; y < height; y++) {
+        long grown = frontier[y] << 1 | frontier[y] >>> 1;
+        if (y > 0) grown |= frontier[y - 1];
+        if (y + 1 < height) grown |= frontier[y + 1];
+        next[y] = grown & open[y] & ~visited[y];
+        any |= next[y] != 0;
+      }
+      for (int y = 0; y < height; y++) {
+        visited[y] |= next[y];
+      }
+      long[] tmp = frontier;
+      frontier = next;
+      next = tmp;
+    }
+    return reached;
+  }
+
+  static int scalarDistances(Bitboard starts, Bitboard blocked, int[] dist, int[] order, int maxDistance) {
+    int width = starts.width, height = starts.height;
+    int[] queue = order != null ? order : new int[width * height];
+    int head = 0, tail = 0;
+    for (int cellId = starts.next(0); cellId != -1; cellId = starts.next(cellId + 1)) {
+      dist[cellId] = 0;
+      queue[tail++] = cellId;
+    }
+    while (head < tail) {
+      int cellId = queue[head++];
+      if (dist[cellId] == maxDistance)
+        continue;
+      int x = cellId % width, y = cellId / width;
+      if (x > 0) tail = visit(cellId - 1, dist[cellId] + 1, blocked, dist, queue, tail);
+      if (x + 1 < width) tail = visit(cellId + 1, dist[cellId] + 1, blocked, dist, queue, tail);
+      if (y > 0) tail = visit(cellId - width, dist[cellId] + 1, blocked, dist, queue, tail);
+      if (y + 1 < height) tail = visit(cellId + width, dist[cellId] + 1, blocked, dist, queue, tail);
+    }
+    return tail;
+  }
+
+  private static int visit(int cellId, int d, Bitboard blocked, int[] dist, int[] queue, int tail) {
+    if (dist[cellId] != UNREACHABLE || blocked.get(cellId))
+      return tail;
+    dist[cellId] = d;
+    queue[tail] = cellId;
+    return tail + 1;
+  }
+
+  private static int rowComponents(Bitboard cells, int[] label) {
+    int width = cells.width, height = cells.height;
+    long[] remaining = new long[height], component = new long[height];
+    for (int y = 0; y < height; y++) remaining[y] = cells.row(y);
+
+    int count = 0;
+    for (int seedRow = 0; seedRow < height; seedRow++) {
+      while (remaining[seedRow] != 0) {
+        Arrays.fill(component, 0);
+        component[seedRow] = Long.lowestOneBit(remaining[seedRow]);
+        // flood the whole component at once, until a step adds nothing
+        boolean changed = true;
+        while (changed) {
+          changed = false;
+          for (int y = 0; y < height; y++) {
+            long grown = component[y] << 1 | component[y] >>> 1 | component[y];
+            if (y > 0) grown |= component[y - 1];
+            if (y + 1 < height) grown |= component[y + 1];
+            grown &= remaining[y];
+            if (grown != component[y]) {
+              component[y] = grown;
+              changed = true;
+            }
+          }
+        }
+        count++;
+        for (int y = 0; y < height; y++) {
+          remaining[y] &= ~component[y];
+          for (long bits = component[y]; bits != 0; bits &= bits - 1) {
+            label[y * width + Long.numberOfTrailingZeros(bits)] = count;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  private static int scalarComponents(Bitboard cells, int[] label) {
+    int width = cells.width, height = cells.height;
+    int[] queue = new int[width * height];
+    int count = 0;
+    for (int seed = cells.next(0); seed != -1; seed = cells.next(seed + 1)) {
+      if (label[seed] != 0)
+        continue;
+      count++;
+      int head = 0, tail = 0;
+      label[seed] = count;
+      queue[tail++] = seed;
+      while (head < tail) {
+        int cellId = queue[head++];
+        int x = cellId % width, y = cellId / width;
+        int[] neighbors = {x > 0 ? cellId - 1 : -1, x + 1 < width ? cellId + 1 : -1,
+            y > 0 ? cellId - width : -1, y + 1 < height ? cellId + width : -1};
+        for (int n : neighbors) {
+          if (n == -1 || label[n] != 0 || !cells.get(n))
+            continue;
+          label[n] = count;
+          queue[tail++] = n;
+        }
+      }
+    }
+    return count;
+  }
+}
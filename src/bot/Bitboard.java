@@ -0,0 +1,200 @@
+package bot;
+
+import java.util.Arrays;
+
+/**
+ * A set of map cells stored one bit per cell in a long[], bit index being the cell id y * width + x. A 32x32 map is 16
+ * words, so copying, combining and testing masks is cheap, and moving every cell of a mask one step in some direction
+ * is a word shift rather than a loop over cells.
+ */
+public class Bitboard {
+  public final int width, height;
+  final long[] words;
+  // Cells of the first and last column, used to stop horizontal shifts from wrapping into the next row
+  private final long[] firstColumn, lastColumn;
+
+  public Bitboard(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.words = new long[(width * height + 63) >>> 6];
+    this.firstColumn = new long[words.length];
+    this.lastColumn = new long[words.length];
+    for (int y = 0; y < height; y++) {
+      setBit(firstColumn, y * width);
+      setBit(lastColumn, y * width + width - 1);
+    }
+  }
+
+  public Bitboard(Bitboard other) {
+    this.width = other.width;
+    this.height = other.height;
+    this.words = other.words.clone();
+    // never written, so they can be shared
+    this.firstColumn = other.firstColumn;
+    this.lastColumn = other.lastColumn;
+  }
+
+  private static void setBit(long[] words, int bit) {
+    words[bit >>> 6] |= 1L << bit;
+  }
+
+  public boolean get(int cellId) {
+    return (words[cellId >>> 6] & 1L << cellId) != 0;
+  }
+
+  public boolean get(int x, int y) {
+    return get(y * width + x);
+  }
+
+  public void set(int cellId) {
+    words[cellId >>> 6] |= 1L << cellId;
+  }
+
+  public void set(int x, int y) {
+    set(y * width + x);
+  }
+
+  public void clear(int cellId) {
+    words[cellId >>> 6] &= ~(1L << cellId);
+  }
+
+  public void clear() {
+    Arrays.fill(words, 0);
+  }
+
+  /**
+   * The cells of row y as the low width bits of a long, bit x being column x. Only meaningful for width <= 64.
+   */
+  public long row(int y) {
+    int offset = y * width;
+    int i = offset >>> 6, bit = offset & 63;
+    long word = words[i] >>> bit;
+    if (bit != 0 && i + 1 < words.length)
+      word |= words[i + 1] << (64 - bit);
+    return width == 64 ? word : word & (1L << width) - 1;
+  }
+
+  public Bitboard copy() {
+    return new Bitboard(this);
+  }
+
+  public void copyFrom(Bitboard other) {
+    System.arraycopy(other.words, 0, words, 0, words.length);
+  }
+
+  public Bitboard or(Bitboard other) {
+    for (int i = 0; i < words.length; i++) words[i] |= other.words[i];
+    return this;
+  }
+
+  public Bitboard and(Bitboard other) {
+    for (int i = 0; i < words.length; i++) words[i] &= other.words[i];
+    return this;
+  }
+
+  public Bitboard andNot(Bitboard other) {
+    for (int i = 0; i < words.length; i++) words[i] &= ~other.words[i];
+    return this;
+  }
+
+  public boolean isEmpty() {
+    for (long word : words) {
+      if (word != 0) return false;
+    }
+    return true;
+  }
+
+  public int cardinality() {
+    int count = 0;
+    for (long word : words) count += Long.bitCount(word);
+    return count;
+  }
+
+  /**
+   * First cell id at or after from that is in the set, -1 if there is none. Iterate with
+   * {@code for (int c = b.next(0); c != -1; c = b.next(c + 1))}.
+   */
+  public int next(int from) {
+    int cellCount = width * height;
+    if (from >= cellCount)
+      return -1;
+    int i = from >>> 6;
+    long word = words[i] & -1L << from;
+    while (true) {
+      if (word != 0) {
+        int cellId = (i << 6) + Long.numberOfTrailingZeros(word);
+        return cellId < cellCount ? cellId : -1;
+      }
+      if (++i == words.length)
+        return -1;
+      word = words[i];
+    }
+  }
+
+  /**
+   * Moves every bit n places toward higher cell ids (negative n: toward lower ones), dropping what falls off either
+   * end. Shifting by width moves a mask one row down, by one a column right (see expand for edge handling).
+   */
+  public Bitboard shift(int n) {
+    shift(words, words, n);
+    return this;
+  }
+
+  private void shift(long[] from, long[] to, int n) {
+    int cellCount = width * height;
+    if (n >= 0) {
+      int wordShift = n >>> 6, bitShift = n & 63;
+      for (int i = to.length - 1; i >= 0; i--) {
+        int j = i - wordShift;
+        long word = j >= 0 ? from[j] << bitShift : 0;
+        if (bitShift != 0 && j - 1 >= 0) word |= from[j - 1] >>> (64 - bitShift);
+        to[i] = word;
+      }
+      // bits beyond the last cell are never set
+      int tail = cellCount & 63;
+      if (tail != 0) to[to.length - 1] &= (1L << tail) - 1;
+    } else {
+      n = -n;
+      int wordShift = n >>> 6, bitShift = n & 63;
+      for (int i = 0; i < to.length; i++) {
+        int j = i + wordShift;
+        long word = j < from.length ? from[j] >>> bitShift : 0;
+        if (bitShift != 0 && j + 1 < from.length) word |= from[j + 1] << (64 - bitShift);
+        to[i] = word;
+      }
+    }
+  }
+
+  /**
+   * Grows the set by one step in the four directions, without wrapping around the map's edges. This is one BFS
+   * frontier step for every cell at once; mask out obstacles and visited cells afterwards.
+   */
+  public Bitboard expand() {
+    long[] original = words.clone();
+    long[] tmp = new long[words.length];
+
+    // left and right neighbours: cells of the last column can't move right, of the first column can't move left
+    for (int i = 0; i < tmp.length; i++) tmp[i] = original[i] & ~lastColumn[i];
+    shift(tmp, tmp, 1);
+    for (int i = 0; i < words.length; i++) words[i] |= tmp[i];
+    for (int i = 0; i < tmp.length; i++) tmp[i] = original[i] & ~firstColumn[i];
+    shift(tmp, tmp, -1);
+    for (int i = 0; i < words.length; i++) words[i] |= tmp[i];
+
+    shift(original, tmp, width);
+    for (int i = 0; i < words.length; i++) words[i] |= tmp[i];
+    shift(original, tmp, -width);
+    for (int i = 0; i < words.length; i++) words[i] |= tmp[i];
+    return this;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof Bitboard && Arrays.equals(words, ((Bitboard) o).words);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(words);
+  }
+}
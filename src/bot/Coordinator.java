@@ -11,12 +11,56 @@ public class Coordinator {
 
   private Player player;
   private GameMap gameMap;
+  private Grid grid;
 
-  private HashSet<Unit> colonizers = new HashSet<>();
+  // Missions and targets of our units, kept across turns so only units whose mission broke get re-planned
+  private final MatchMemory memory = new MatchMemory();
 
   private ArrayList<Cell> resourceTiles;
 
+  // Tunable constants, including the time the PlanEvaluator and MacroSearch get each turn
+  private final Params params;
+
+  // Kept across turns so only sectors whose city tiles changed get recomputed
+  private SectorMap sectorMap;
+  // Kept across turns for its preallocated buffers
+  private OpponentModel opponentModel;
+  // Kept across turns, it learns drain rates from consecutive observations
+  private ResourceForecast resourceForecast;
+  // Kept across turns, its prices and slots warm start the next auction
+  private HarvestAuction harvestAuction;
+  // Null unless -Dspeculate=true, plans ahead while the engine plays out the turn we sent
+  private final Speculator speculator = Speculator.ENABLED ? new Speculator() : null;
+
   public Coordinator() {
+    this(Params.fromSystemProperties());
+  }
+
+  public Coordinator(Params params) {
+    this.params = params;
+  }
+
+  /**
+   * City tiles of either team are what long distance paths have to go around: enemy ones can't be entered and
+   * walking through our own would drop a colonist's cargo.
+   */
+  private void updateSectorMap() {
+    if (sectorMap == null) {
+      sectorMap = new SectorMap(gameMap.width, gameMap.height);
+    }
+    boolean[] blocked = new boolean[gameMap.width * gameMap.height];
+    for (int y = 0; y < gameMap.height; y++) {
+      for (int x = 0; x < gameMap.width; x++) {
+        blocked[y * gameMap.width + x] = gameMap.getCell(x, y).hasCityTile();
+      }
+    }
+    sectorMap.update(blocked);
+  }
+
+  // Walking distance around city tiles where the map is small enough for an exact table, a straight line otherwise
+  private int distance(Position from, Position to) {
+    DistanceOracle oracle = sectorMap.oracle();
+    return oracle == null ? from.distanceTo(to) : oracle.distance(grid.cell(from), grid.cell(to));
   }
 
   /**
@@ -35,16 +79,19 @@ public class Coordinator {
   }
 
   private ArrayList<String> generateAvailableUnitMovementActions(Navigator navigator, ArrayList<Unit> availableUnits) {
+    if (harvestAuction == null) {
+      harvestAuction = new HarvestAuction(gameMap.width, gameMap.height);
+    }
     return navigator.generateRoutesToResources(availableUnits,
         (ArrayList<Cell>) resourceTiles.stream().filter(cell ->
             cell.resource.type.equals(GameConstants.RESOURCE_TYPES.WOOD) ||
                 cell.resource.type.equals(GameConstants.RESOURCE_TYPES.COAL) && player.researchedCoal() ||
                 cell.resource.type.equals(GameConstants.RESOURCE_TYPES.URANIUM) && player.researchedUranium()
-        ).collect(Collectors.toList()));
+        ).collect(Collectors.toList()), harvestAuction, resourceForecast);
   }
 
   // TODO: Most of this logic should be moved to the Surveyor
-  private ArrayList<String> generateCityActions() {
+  private ArrayList<String> generateCityActions(MacroSearch.TileAction tileAction) {
     ArrayList<String> actions = new ArrayList<>();
 
     /**
@@ -57,7 +104,7 @@ public class Coordinator {
       for (Cell resource : resourceTiles) {
         int minDist = Integer.MAX_VALUE;
         for (CityTile tile : city.citytiles) {
-          minDist = Math.min(minDist, (int) tile.pos.distanceTo(resource.pos));
+          minDist = Math.min(minDist, distance(tile.pos, resource.pos));
         }
 
         // calculates potential fuel available from the current resource
@@ -68,7 +115,7 @@ public class Coordinator {
           fuel *= GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.URANIUM;
 
         // Reduce potential fuel-gain based on distance
-        score += fuel * Math.pow(.9, minDist);
+        score += fuel * Math.pow(params.cityScoreDecay, minDist);
       }
 
       cityScore.put(city, score);
@@ -82,7 +129,8 @@ public class Coordinator {
     for (City city : cities) {
       for (CityTile tile : city.citytiles) {
         if (!tile.canAct()) continue;
-        if (player.cityTileCount > player.units.size() + workersMade) {
+        boolean canBuild = player.cityTileCount > player.units.size() + workersMade;
+        if ((tileAction != MacroSearch.TileAction.RESEARCH || player.researchedUranium()) && canBuild) {
           actions.add(tile.buildWorker());
           workersMade++;
         } else if (!player.researchedUranium()) {
@@ -97,27 +145,37 @@ public class Coordinator {
   public ArrayList<String> generateTurnActions(GameState gameState) {
 
     ArrayList<String> actions = new ArrayList<>();
+    if (speculator != null)
+      speculator.collect(gameState.turn);
 
     // store some important game state variables
     player = gameState.players[gameState.id];
     gameMap = gameState.map;
+    grid = Grid.of(gameMap.width, gameMap.height);
 
     // get the resource tiles
     getResourceTiles();
+    updateSectorMap();
+    if (opponentModel == null) {
+      opponentModel = new OpponentModel(gameMap.width, gameMap.height);
+    }
+    opponentModel.update(gameState);
+    if (resourceForecast == null) {
+      resourceForecast = new ResourceForecast(gameMap.width, gameMap.height);
+    }
+    resourceForecast.update(gameState.turn, resourceTiles);
 
-    int minCoalForRefuel = 25, minUraniumForRefuel = 10;
+    int minCoalForRefuel = params.minCoalForRefuel, minUraniumForRefuel = params.minUraniumForRefuel;
+
+    memory.beginTurn(gameState.turn, player);
+    invalidateMissions();
 
     // just gets a list of usable units. assumes all units are workers for now
     ArrayList<Unit> availableUnits =
         (ArrayList<Unit>) player.units
             .stream()
-            .filter(unit -> unit.canAct() && unit.getCargoSpaceLeft() > 0 && unit.cargo.uranium < minUraniumForRefuel && unit.cargo.coal < minCoalForRefuel)
-            .collect(Collectors.toList());
-
-    ArrayList<Unit> fullUnits =
-        (ArrayList<Unit>) player.units
-            .stream()
-            .filter(unit -> unit.getCargoSpaceLeft() == 0)
+            .filter(unit -> unit.canAct() && unit.getCargoSpaceLeft() > 0 &&
+                memory.mission(unit) != MatchMemory.Mission.COLONIZE && unit.cargo.uranium < minUraniumForRefuel && unit.cargo.coal < minCoalForRefuel)
             .collect(Collectors.toList());
 
     /** Units which can act, and have enough resources for a refuel mission. Not previously assigned as colonizer.**/
@@ -125,41 +183,102 @@ public class Coordinator {
         (ArrayList<Unit>) player.units
             .stream()
             .filter(unit ->
-                !colonizers.contains(unit) &&
+                memory.mission(unit) != MatchMemory.Mission.COLONIZE &&
                     (unit.getCargoSpaceLeft() == 0 ||
                         unit.cargo.uranium >= minUraniumForRefuel ||
                         unit.cargo.coal >= minCoalForRefuel)
             )
             .collect(Collectors.toList());
 
-    Navigator towardResourceNavigator = new Navigator(gameState);
+    Navigator towardResourceNavigator = new Navigator(gameState, sectorMap, opponentModel, memory);
     ArrayList<String> towardResourceMovements =
         generateAvailableUnitMovementActions(towardResourceNavigator, availableUnits);
 
-    Surveyor surveyor = new Surveyor(gameState);
-    HashMap<Unit, String> assignments = surveyor.calculateResourceToCityAssignment(refuelUnits);
+    // Units still on their way to a city keep it, the Surveyor only assigns the rest
+    HashMap<Unit, String> committed = new HashMap<>();
+    for (Unit unit : refuelUnits) {
+      if (memory.mission(unit) == MatchMemory.Mission.REFUEL) {
+        committed.put(unit, memory.targetCity(unit));
+      }
+    }
+    Surveyor surveyor = new Surveyor(gameState, resourceForecast, params);
+    if (speculator != null)
+      speculator.reuseDistances(surveyor);
+    HashMap<Unit, String> assignments = surveyor.calculateResourceToCityAssignment(refuelUnits, committed);
+    for (Unit unit : assignments.keySet()) {
+      memory.refuel(unit, assignments.get(unit));
+    }
 
-    Navigator towardCitiesNavigator = new Navigator(gameState);
+    Navigator towardCitiesNavigator = new Navigator(gameState, sectorMap, opponentModel, memory);
     ArrayList<String> towardCityMovements = towardCitiesNavigator.generateRoutesToCities(assignments,
         towardResourceNavigator);
 
-    /** Get all full units which weren't assigned a city **/
-    ArrayList<Unit> possibleColonizers = (ArrayList<Unit>) fullUnits.stream().filter(unit ->
-        !assignments.containsKey(unit)
+    /** Get all full units which weren't assigned a city, and colonizers that are still on their way **/
+    ArrayList<Unit> possibleColonizers = (ArrayList<Unit>) player.units.stream().filter(unit ->
+        !assignments.containsKey(unit) &&
+            (unit.getCargoSpaceLeft() == 0 || memory.mission(unit) == MatchMemory.Mission.COLONIZE)
     ).collect(Collectors.toList());
 
-
-//    ArrayList<Position> candidateCities = surveyor.findKPotentialCityLocations(Math.min(possibleColonizers.size(), 5));
     if(possibleColonizers.size() != 0)
-      System.err.println(TAG + " " + gameState.turn + ": possibleColonizers size="+possibleColonizers.size());
+      Log.info(TAG, gameState.turn, () -> "possibleColonizers size=" + possibleColonizers.size());
+
+    // Colonizers with a still valid site keep it, new sites are only searched for the others
+    ArrayList<Position> candidateCities = new ArrayList<>();
+    ArrayList<Unit> unplannedColonizers = new ArrayList<>();
+    for (Unit unit : possibleColonizers) {
+      int target = memory.targetCell(unit);
+      if (target == -1) {
+        unplannedColonizers.add(unit);
+      } else {
+        candidateCities.add(new Position(target % gameMap.width, target / gameMap.width));
+      }
+    }
 
-    int growth = Math.min(possibleColonizers.size(), 5);
-    int explore = 0;
-    if (growth > 3) {
-      explore = growth-3;
-      growth = 3;
+    // The macro search picks what city tiles do and whether to expand near or far; the split it implies is only the
+    // default, a few other growth/explore splits get rolled forward as well and the best looking one wins. Turns
+    // without a city tile that can act or a site to pick have no use for either
+    int sites = Math.min(unplannedColonizers.size(), params.maxNewSites);
+    boolean tileCanAct = player.cities.values().stream().anyMatch(city ->
+        city.citytiles.stream().anyMatch(CityTile::canAct));
+    MacroSearch.Decision macro = tileCanAct || sites > 0 ? decideMacro(gameState) : null;
+    PlanEvaluator.CityPolicy policy = macro != null && macro.tileAction == MacroSearch.TileAction.RESEARCH ?
+        PlanEvaluator.CityPolicy.RESEARCH_FIRST : PlanEvaluator.CityPolicy.WORKERS_FIRST;
+
+    ArrayList<Integer> explores = new ArrayList<>();
+    explores.add(macro == null || macro.expansion == MacroSearch.Expansion.NEAR ?
+        Math.max(sites - params.nearExploreReduction, 0) : (sites + 1) / 2);
+    if (sites >= 2) {
+      for (int explore : new int[]{0, sites / 2, sites}) {
+        if (!explores.contains(explore)) explores.add(explore);
+      }
+    }
+    ArrayList<ArrayList<Position>> siteOptions = new ArrayList<>();
+    ArrayList<PlanEvaluator.Plan> plans = new ArrayList<>();
+    for (int explore : explores) {
+      ArrayList<Position> newCities = sites == 0 ? new ArrayList<>() :
+          surveyor.findPotentialCityLocations(sites - explore, explore);
+      newCities.removeAll(candidateCities);
+      ArrayList<Position> allSites = new ArrayList<>(candidateCities);
+      allSites.addAll(newCities);
+      siteOptions.add(newCities);
+      plans.add(new PlanEvaluator.Plan(allSites, policy, gameMap.width));
+    }
+    // a single plan has nothing to be compared with
+    int bestPlan = 0;
+    if (plans.size() > 1) {
+      PlanEvaluator evaluator = new PlanEvaluator(GameSnapshot.of(gameState), possibleColonizers);
+      double[] scores = evaluator.evaluate(plans, params.planBudgetMs * 1_000_000L);
+      bestPlan = PlanEvaluator.best(scores);
+      // nothing finished in time, stick to the macro search's split
+      if (scores[bestPlan] == Double.NEGATIVE_INFINITY)
+        bestPlan = 0;
+    }
+
+    ArrayList<Position> newCities = siteOptions.get(bestPlan);
+    if (!newCities.isEmpty()) {
+      assignNewColonySites(unplannedColonizers, newCities);
+      candidateCities.addAll(newCities);
     }
-    ArrayList<Position> candidateCities = surveyor.findPotentialCityLocations(growth, explore);
 
     /** First make sure that if a colonizer has already reached goal, we build the city here **/
     ArrayList<String> buildCityActions = new ArrayList<>();
@@ -170,10 +289,12 @@ public class Coordinator {
 
         // Check that we are either near a resource, or it won't be dark in the next 0-3 days
         boolean okTimeToPlace = false, isLight = true;
-        for(char c : "nsew".toCharArray()) {
-          Cell adj = gameMap.getCellByPos(p.translate(Direction.getDir(c+""), 1));
+        for (int k = 0; k < 4; k++) {
+          int adjId = grid.step(grid.cell(p), k);
+          if (adjId == -1) continue;
+          Cell adj = gameMap.getCell(grid.x(adjId), grid.y(adjId));
           // TODO: should make sure we've researched this resource
-          if (adj!=null && (adj.hasResource() || (adj.hasCityTile() && adj.citytile.team == player.team))) {
+          if (adj.hasResource() || (adj.hasCityTile() && adj.citytile.team == player.team)) {
             okTimeToPlace = true;
           }
         }
@@ -184,15 +305,16 @@ public class Coordinator {
         if (okTimeToPlace) {
           possibleColonizers.remove(reachedGoal.get());
           buildCityActions.add(reachedGoal.get().buildCity());
+          memory.clear(reachedGoal.get());
         }
       }
     }
 
-    Navigator colonizerNavigator = new Navigator(gameState);
+    Navigator colonizerNavigator = new Navigator(gameState, sectorMap, opponentModel, memory);
     ArrayList<String> colonizerActions = colonizerNavigator.generateRoutesToColonies(possibleColonizers,
         candidateCities, towardCitiesNavigator);
 
-    Navigator leftoverNavigator = new Navigator(gameState);
+    Navigator leftoverNavigator = new Navigator(gameState, sectorMap, opponentModel, memory);
     ArrayList<String> tmpActions = new ArrayList<>();
     tmpActions.addAll(towardResourceMovements);
     tmpActions.addAll(towardCityMovements);
@@ -202,32 +324,12 @@ public class Coordinator {
     ArrayList<String> leftoverUnitMovements = leftoverNavigator.generateRoutesForLeftovers(leftovers,
         colonizerNavigator);
 
-    /**
-     * Not super proud of this code. A pretty hacky, stateful, system to ensure colonizers succeed to build
-     * something. Could very well cause unstable setups where we let cities go hungry in lieu of building a new one,
-     * only to have the new city starve while building the next.
-     */
-    if (!colonizerActions.isEmpty() || !colonizers.isEmpty()) {
-      System.err.println(TAG + " " + gameState.turn + ": Colonizers: " + colonizers + " " + colonizerActions.size() + "\n" +
-          TAG+ ": New Cities: " + candidateCities);
-    }
-
-    HashSet<Unit> newColonizers = new HashSet<>();
-    for (String unitAction : colonizerActions) {
-      String id = unitAction.trim().split(" ")[1];
-      Optional<Unit> pUnit = possibleColonizers.stream().filter(unit -> unit.id.equals(id)).findAny();
-      pUnit.ifPresent(newColonizers::add);
+    if (!colonizerActions.isEmpty() || !possibleColonizers.isEmpty()) {
+      Log.info(TAG, gameState.turn, () -> "Colonizers: " + possibleColonizers + " " + colonizerActions.size());
+      Log.info(TAG, gameState.turn, () -> "New Cities: " + candidateCities);
     }
 
-    for (Unit unit : colonizers) {
-      if (!unit.canAct() || unit.getCargoSpaceLeft() != 0) {
-        newColonizers.add(unit);
-      }
-    }
-
-    colonizers = newColonizers;
-
-    ArrayList<String> cityActions = generateCityActions();
+    ArrayList<String> cityActions = macro == null ? new ArrayList<>() : generateCityActions(macro.tileAction);
 
     // you can add debug annotations using the static methods of the 'Annotate' class.
     // actions.add(Annotate.circle(0, 0));
@@ -248,6 +350,83 @@ public class Coordinator {
     return actions;
   }
 
+  // The speculative search's decision topped up if it still fits, a fresh search otherwise
+  private MacroSearch.Decision decideMacro(GameState gameState) {
+    MacroSearch search = new MacroSearch(gameState);
+    MacroSearch.Decision prior = speculator == null ? null : speculator.macroPrior(search);
+    MacroSearch.Decision macro = prior == null ? search.decide(params.macroBudgetMs * 1_000_000L) :
+        search.decide(params.macroBudgetMs * 1_000_000L / Speculator.CONFIRM_BUDGET_SHARE, prior);
+    Log.info(TAG, gameState.turn, () -> "macro " + macro);
+    return macro;
+  }
+
+  /**
+   * Hands the actions just sent to the Speculator, if there is one, to plan the next turn on the assumption they
+   * go through. Call once they're out, the engine's wait is when it runs.
+   */
+  public void speculate(GameState gameState, ArrayList<String> actions) {
+    if (speculator == null)
+      return;
+    speculator.logHits(gameState.turn);
+    speculator.start(gameState, actions, params.macroBudgetMs * 1_000_000L);
+  }
+
+  /**
+   * Lets go of the threads the Coordinator started, for when the match is over but the JVM goes on.
+   */
+  public void close() {
+    if (speculator != null)
+      speculator.close();
+  }
+
+  /**
+   * Drops the missions that can't be carried out any more: refuel trips to cities that are gone or with nothing left
+   * to deliver, and colonizers whose site got taken or who no longer carry enough to build.
+   */
+  private void invalidateMissions() {
+    for (Unit unit : player.units) {
+      switch (memory.mission(unit)) {
+        case REFUEL:
+          if (!memory.cityExists(memory.targetCity(unit)) || unit.getCargoSpaceUsed() == 0)
+            memory.clear(unit);
+          break;
+        case COLONIZE:
+          int target = memory.targetCell(unit);
+          Cell site = gameMap.getCell(target % gameMap.width, target / gameMap.width);
+          if (site.hasCityTile() || site.hasResource() ||
+              unit.getCargoSpaceUsed() < GameConstants.PARAMETERS.CITY_BUILD_COST)
+            memory.clear(unit);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  // Hands out new sites closest pair first; colonizers left without one still get routed toward any open site
+  private void assignNewColonySites(ArrayList<Unit> colonizers, ArrayList<Position> sites) {
+    HashSet<Unit> unassigned = new HashSet<>(colonizers);
+    HashSet<Position> open = new HashSet<>(sites);
+    while (!unassigned.isEmpty() && !open.isEmpty()) {
+      Unit bestUnit = null;
+      Position bestSite = null;
+      int bestDist = Integer.MAX_VALUE;
+      for (Unit unit : unassigned) {
+        for (Position site : open) {
+          int d = distance(unit.pos, site);
+          if (d < bestDist) {
+            bestDist = d;
+            bestUnit = unit;
+            bestSite = site;
+          }
+        }
+      }
+      memory.colonize(bestUnit, grid.cell(bestSite));
+      unassigned.remove(bestUnit);
+      open.remove(bestSite);
+    }
+  }
+
   private ArrayList<String> RemoveSuicidalMoveActions(GameState gameState, ArrayList<String> actions) {
     boolean isNight = (gameState.turn-1) % 40 >= 30;
     if (!isNight) return actions;
@@ -267,11 +446,12 @@ public class Coordinator {
         continue;
       }
 
-      Cell newCell = gameMap.getCellByPos(unit.pos.translate(dir, 1));
-      if (newCell == null) {
+      int newCellId = grid.step(grid.cell(unit.pos), dir);
+      if (newCellId == -1) {
         newActions.add(action);
         continue;
       }
+      Cell newCell = gameMap.getCell(grid.x(newCellId), grid.y(newCellId));
 
       if (newCell.hasCityTile()) {
         newActions.add(action);
@@ -279,9 +459,9 @@ public class Coordinator {
       }
 
       boolean hasResourceNear = false;
-      for (char c : "nsewc".toCharArray()) {
-        Cell near = gameMap.getCellByPos(newCell.pos.translate(Direction.getDir(c+""), 1));
-        if (near != null && near.hasResource()){
+      for (int k = 0; k < Grid.STEPS; k++) {
+        int nearId = grid.step(newCellId, k);
+        if (nearId != -1 && gameMap.getCell(grid.x(nearId), grid.y(nearId)).hasResource()) {
           hasResourceNear = true;
         }
       }
@@ -306,7 +486,7 @@ public class Coordinator {
   }
 
   private ArrayList<String> RemoveDuplicateMoveActions(ArrayList<String> actions) {
-    HashSet<Position> positions = new HashSet<>();
+    Bitboard targets = new Bitboard(gameMap.width, gameMap.height);
 
     ArrayList<String> newActions = new ArrayList<>();
     for (String action : actions) {
@@ -316,9 +496,11 @@ public class Coordinator {
       Direction dir = Direction.getDir(tmp[2]);
 
       Unit unit = player.units.stream().filter(u -> u.id.equals(unitId)).findAny().get();
-      Position translated = unit.pos.translate(dir, 1);
+      int target = grid.step(grid.cell(unit.pos), dir);
 
-      if (positions.add(translated)) {
+      // moves off the map are left for the engine to reject
+      if (target == -1 || !targets.get(target)) {
+        if (target != -1) targets.set(target);
         newActions.add(action);
       }
     }
@@ -0,0 +1,159 @@
+package bot;
+
+import java.util.Arrays;
+
+/**
+ * Exact walking distance between every pair of cells, for maps small enough to keep the whole table: a short per
+ * pair, 2MB on a 32x32 map. A path may start and end on blocked cells but not pass through one, so the distance to a
+ * city tile is the number of steps to get onto it.
+ *
+ * Kept between turns like the SectorMap. A cell that gets blocked only forces a new BFS from the sources that had a
+ * shortest path through it; a cell that opens up is folded in without any BFS, every new shortest path goes through
+ * it. Cells are identified by y * width + x.
+ */
+public class DistanceOracle {
+  public final static int UNREACHABLE = SectorMap.UNREACHABLE;
+  // 32x32, the largest map the game has
+  public final static int MAX_CELLS = 32 * 32;
+  // cells blocked in one update beyond which the table is rebuilt instead of repaired
+  private final static int REBUILD_BLOCKED = 8;
+  // unreachable pairs in the table
+  private final static short NONE = Short.MAX_VALUE;
+
+  private final int width, height, cellCount;
+  private final Grid grid;
+  private final boolean[] blocked;
+  // [from * cellCount + to], symmetric
+  private final short[] dist;
+  private final int[] queue;
+
+  public static boolean fits(int width, int height) {
+    return width * height <= MAX_CELLS;
+  }
+
+  public DistanceOracle(int width, int height) {
+    if (!fits(width, height))
+      throw new IllegalArgumentException("no distance table for a " + width + "x" + height + " map");
+    this.width = width;
+    this.height = height;
+    this.cellCount = width * height;
+    this.grid = Grid.of(width, height);
+    this.blocked = new boolean[cellCount];
+    this.dist = new short[cellCount * cellCount];
+    this.queue = new int[cellCount];
+    // nothing blocked yet, every distance is a straight line
+    for (int from = 0, i = 0; from < cellCount; from++) {
+      int fromX = from % width, fromY = from / width;
+      for (int to = 0; to < cellCount; to++, i++) {
+        dist[i] = (short) (Math.abs(to % width - fromX) + Math.abs(to / width - fromY));
+      }
+    }
+  }
+
+  public int distance(int from, int to) {
+    short d = dist[from * cellCount + to];
+    return d == NONE ? UNREACHABLE : d;
+  }
+
+  /**
+   * Replaces the obstacle layout, one changed cell at a time. Returns how many BFS it took.
+   */
+  public int update(boolean[] newBlocked) {
+    int newlyBlocked = 0;
+    for (int cellId = 0; cellId < cellCount; cellId++) {
+      if (newBlocked[cellId] && !blocked[cellId])
+        newlyBlocked++;
+    }
+    // each blocked cell can cost up to a full rebuild on its own, past a few one rebuild is cheaper
+    if (newlyBlocked > REBUILD_BLOCKED) {
+      System.arraycopy(newBlocked, 0, blocked, 0, cellCount);
+      for (int from = 0; from < cellCount; from++) {
+        bfs(from);
+      }
+      return cellCount;
+    }
+
+    int searches = 0;
+    for (int cellId = 0; cellId < cellCount; cellId++) {
+      if (blocked[cellId] == newBlocked[cellId])
+        continue;
+      blocked[cellId] = newBlocked[cellId];
+      if (blocked[cellId])
+        searches += block(cellId);
+      else
+        open(cellId);
+    }
+    return searches;
+  }
+
+  // Redoes the sources that lose a shortest distance to the cell being blocked. A cell with a shortest path through it
+  // keeps its distance as long as some other neighbour one step closer is still walkable; checking that for every
+  // such cell is enough, the ones it leans on either keep theirs for the same reason or never went through it. The
+  // cell's own row stays as it was, since a path may start on a blocked cell
+  private int block(int cell) {
+    int searches = 0;
+    int cellRow = cell * cellCount;
+    for (int from = 0; from < cellCount; from++) {
+      int row = from * cellCount, toCell = dist[row + cell];
+      if (from == cell || toCell == NONE)
+        continue;
+      for (int to = 0; to < cellCount; to++) {
+        if (to != cell && dist[cellRow + to] != NONE && dist[row + to] == toCell + dist[cellRow + to] &&
+            !hasOtherStep(from, to)) {
+          bfs(from);
+          searches++;
+          break;
+        }
+      }
+    }
+    return searches;
+  }
+
+  // Whether a walkable neighbour of the cell is one step closer to the source
+  private boolean hasOtherStep(int from, int cellId) {
+    int row = from * cellCount, d = dist[row + cellId] - 1;
+    for (int k = 0; k < 4; k++) {
+      int n = grid.step(cellId, k);
+      if (n != -1 && dist[row + n] == d && (n == from || !blocked[n]))
+        return true;
+    }
+    return false;
+  }
+
+  // Paths through the newly opened cell are the only new ones, and each is a path to it plus a path from it
+  private void open(int cell) {
+    int cellRow = cell * cellCount;
+    for (int from = 0; from < cellCount; from++) {
+      int row = from * cellCount;
+      int toCell = dist[row + cell];
+      if (from == cell || toCell == NONE)
+        continue;
+      for (int to = 0; to < cellCount; to++) {
+        if (dist[cellRow + to] != NONE && toCell + dist[cellRow + to] < dist[row + to])
+          dist[row + to] = (short) (toCell + dist[cellRow + to]);
+      }
+    }
+  }
+
+  private void bfs(int from) {
+    int row = from * cellCount;
+    Arrays.fill(dist, row, row + cellCount, NONE);
+    dist[row + from] = 0;
+    int head = 0, tail = 0;
+    queue[tail++] = from;
+    while (head < tail) {
+      int cellId = queue[head++];
+      // blocked cells can be stepped on but not through
+      if (blocked[cellId] && cellId != from)
+        continue;
+      short d = (short) (dist[row + cellId] + 1);
+      for (int k = 0; k < 4; k++) {
+        int n = grid.step(cellId, k);
+        if (n != -1 && dist[row + n] == NONE) {
+          dist[row + n] = d;
+          queue[tail++] = n;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package bot;
+
+import java.util.*;
+
+/**
+ * Checks DistanceOracle's incremental repair: random sequences of cells getting blocked and opened up again, after
+ * every update the whole table is compared with a plain BFS from every cell. Also prints how many BFS the repairs
+ * took against the rebuilds they stand in for.
+ *
+ * Run with: java -cp out bot.DistanceOracleCheck [sequences] [updates per sequence]
+ */
+public class DistanceOracleCheck {
+  public static void main(String[] args) {
+    int sequences = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int updates = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    Random random = new Random(42);
+    int failures = 0;
+    for (int size : new int[]{8, 12, 16, 24, 32}) {
+      long searches = 0, rebuilds = 0;
+      for (int sequence = 0; sequence < sequences; sequence++) {
+        DistanceOracle oracle = new DistanceOracle(size, size);
+        boolean[] blocked = new boolean[size * size];
+        for (int update = 0; update < updates; update++) {
+          // mostly a few cells at a time like a turn's new city tiles, now and then enough to force a rebuild
+          int changes = random.nextInt(10) == 0 ? 12 : 1 + random.nextInt(3);
+          for (int i = 0; i < changes; i++) {
+            int cellId = random.nextInt(size * size);
+            // more blocking than opening, so the map fills up over a sequence
+            blocked[cellId] = random.nextInt(3) != 0 || !blocked[cellId];
+          }
+          searches += oracle.update(blocked);
+          rebuilds += size * size;
+          int wrong = compare(oracle, blocked, size);
+          if (wrong > 0) {
+            failures++;
+            System.out.printf("%dx%d sequence %d update %d: %d distances wrong%n", size, size, sequence, update, wrong);
+            break;
+          }
+        }
+      }
+      System.out.printf("%dx%d: %d BFS for %d updates, a rebuild every update would take %d%n", size, size, searches,
+          sequences * updates, rebuilds);
+    }
+    if (failures > 0) {
+      System.out.println(failures + " sequences went wrong");
+      System.exit(1);
+    }
+    System.out.println("all distances match");
+  }
+
+  // Pairs whose distance differs from a fresh BFS
+  private static int compare(DistanceOracle oracle, boolean[] blocked, int size) {
+    Grid grid = Grid.of(size, size);
+    int cellCount = size * size, wrong = 0;
+    int[] dist = new int[cellCount], queue = new int[cellCount];
+    for (int from = 0; from < cellCount; from++) {
+      bfs(grid, blocked, from, dist, queue);
+      for (int to = 0; to < cellCount; to++) {
+        if (oracle.distance(from, to) != dist[to])
+          wrong++;
+      }
+    }
+    return wrong;
+  }
+
+  // Blocked cells can be started from and stepped on, but not through
+  private static void bfs(Grid grid, boolean[] blocked, int from, int[] dist, int[] queue) {
+    Arrays.fill(dist, DistanceOracle.UNREACHABLE);
+    dist[from] = 0;
+    int head = 0, tail = 0;
+    queue[tail++] = from;
+    while (head < tail) {
+      int cellId = queue[head++];
+      if (blocked[cellId] && cellId != from)
+        continue;
+      for (int k = 0; k < 4; k++) {
+        int n = grid.step(cellId, k);
+        if (n != -1 && dist[n] == DistanceOracle.UNREACHABLE) {
+          dist[n] = dist[cellId] + 1;
+          queue[tail++] = n;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package bot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Solves every captured flow graph (see FlowDump) with each solver, checks the cost and flow against what the bot got
+ * in the match, and prints the average solve time. Exits with 1 if any solver disagrees with a golden file.
+ *
+ * Run with: java -cp out bot.FlowBenchmark dir-or-file... [-n iterations]
+ */
+public class FlowBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int iterations = 5;
+    ArrayList<File> files = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-n")) {
+        iterations = Integer.parseInt(args[++i]);
+      } else {
+        File file = new File(args[i]);
+        File[] listed = file.listFiles((dir, name) -> name.endsWith(FlowDump.SUFFIX));
+        if (listed != null) {
+          Arrays.sort(listed);
+          files.addAll(Arrays.asList(listed));
+        } else {
+          files.add(file);
+        }
+      }
+    }
+    if (files.isEmpty()) {
+      System.err.println("usage: FlowBenchmark dir-or-file... [-n iterations]");
+      System.exit(2);
+    }
+
+    ArrayList<FlowDump> dumps = new ArrayList<>();
+    for (File file : files) dumps.add(FlowDump.read(file));
+    // the first pass only warms up the JIT, otherwise whichever solver runs first looks slow on the first graphs
+    boolean failed = false;
+    for (int pass = 0; pass < 2; pass++) {
+      failed |= run(files, dumps, pass == 0 ? 1 : iterations, pass == 1);
+    }
+    if (failed)
+      System.exit(1);
+  }
+
+  // Returns true if any solver disagreed with a golden file
+  private static boolean run(ArrayList<File> files, ArrayList<FlowDump> dumps, int iterations, boolean print) {
+    FlowSolver[] solvers = {MinCostMaxFlow.SPFA, new PrimalDualSolver()};
+    if (print) {
+      System.out.printf("%-36s %7s %7s %9s", "graph", "nodes", "edges", "flow");
+      for (FlowSolver solver : solvers) System.out.printf(" %14s", solver.name() + " us");
+      System.out.printf(" %14s%n", "chosen");
+    }
+
+    boolean failed = false;
+    long[] totals = new long[solvers.length + 1];
+    for (int f = 0; f < dumps.size(); f++) {
+      FlowDump dump = dumps.get(f);
+      if (print)
+        System.out.printf("%-36s %7d %7d %9d", files.get(f).getName(), dump.graph.n, dump.graph.edges.size(),
+            dump.flow);
+      FlowSolver chosen = dump.graph.chooseSolver();
+      for (int k = 0; k < solvers.length; k++) {
+        long nanos = 0;
+        for (int i = 0; i < iterations; i++) {
+          MinCostMaxFlow graph = dump.graph.copy();
+          long start = System.nanoTime();
+          long[] result = solvers[k].solve(graph);
+          nanos += System.nanoTime() - start;
+          if (result[0] != dump.cost || result[1] != dump.flow) {
+            System.out.printf("%n  %s gave %s on %s, golden is [%d, %d]%n", solvers[k].name(),
+                Arrays.toString(result), files.get(f).getName(), dump.cost, dump.flow);
+            failed = true;
+            break;
+          }
+        }
+        totals[k] += nanos / iterations;
+        if (solvers[k].name().equals(chosen.name()))
+          totals[solvers.length] += nanos / iterations;
+        if (print)
+          System.out.printf(" %14d", nanos / iterations / 1000);
+      }
+      if (print)
+        System.out.printf(" %14s%n", chosen.name());
+    }
+
+    if (print) {
+      System.out.printf("%-62s", "total");
+      for (long total : totals) System.out.printf(" %14d", total / 1000);
+      System.out.println();
+    }
+    return failed;
+  }
+}
@@ -0,0 +1,102 @@
+package bot;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary capture of MinCostMaxFlow instances, so graphs from real matches can be solved again offline.
+ *
+ * A file holds the graph as it was before solving (node count, every forward edge with cap, cost and metadata, in
+ * the order they were added) together with the cost and flow the bot got for it, which makes it a golden file for
+ * FlowBenchmark. Everything is gzipped DataOutput; s and t are always the two nodes after the N given to the
+ * constructor, so they don't need storing.
+ *
+ * Turn it on with -Dflow.dump.dir=some/dir; -Dflow.dump.ms=N only keeps graphs whose solve took at least N ms.
+ */
+public class FlowDump {
+  private final static int MAGIC = 0x4c58464c; // "LXFL"
+  private final static int VERSION = 1;
+  public final static String SUFFIX = ".flow";
+
+  private final static String DIR = System.getProperty("flow.dump.dir");
+  private final static long THRESHOLD_NANOS = Long.getLong("flow.dump.ms", 0) * 1_000_000;
+  private static int dumped = 0;
+
+  public final String name;
+  public final MinCostMaxFlow graph;
+  public final long cost, flow;
+
+  public FlowDump(String name, MinCostMaxFlow graph, long cost, long flow) {
+    this.name = name;
+    this.graph = graph;
+    this.cost = cost;
+    this.flow = flow;
+  }
+
+  static boolean enabled() {
+    return DIR != null;
+  }
+
+  // Called by MinCostMaxFlow.flow with an unsolved copy of the graph it just solved
+  static void capture(String name, MinCostMaxFlow unsolved, long[] result, long nanos) {
+    if (nanos < THRESHOLD_NANOS)
+      return;
+    int index;
+    synchronized (FlowDump.class) {
+      index = dumped++;
+    }
+    File file = new File(DIR, String.format("%s-%d-%04d%s", name, ProcessHandle.current().pid(), index, SUFFIX));
+    try {
+      file.getParentFile().mkdirs();
+      new FlowDump(name, unsolved, result[0], result[1]).write(file);
+      Log.info("FlowDump", -1, () -> file + " (" + unsolved.edges.size() + " edges, " + nanos / 1000 + "us)");
+    } catch (IOException e) {
+      Log.warn("FlowDump", -1, "could not write " + file + ": " + e);
+    }
+  }
+
+  public void write(File file) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new GZIPOutputStream(new FileOutputStream(file))))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(name);
+      out.writeInt(graph.n - 2);
+      out.writeLong(cost);
+      out.writeLong(flow);
+      out.writeInt(graph.edges.size());
+      for (MinCostMaxFlow.Edge e : graph.edges) {
+        out.writeInt(e.v1);
+        out.writeInt(e.v2);
+        out.writeInt(e.cap);
+        out.writeLong(e.cost);
+        out.writeBoolean(e.metadata != null);
+        if (e.metadata != null)
+          out.writeUTF(e.metadata);
+      }
+    }
+  }
+
+  public static FlowDump read(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(new FileInputStream(file))))) {
+      if (in.readInt() != MAGIC)
+        throw new IOException(file + " is not a flow dump");
+      int version = in.readInt();
+      if (version != VERSION)
+        throw new IOException(file + " has version " + version + ", expected " + VERSION);
+      String name = in.readUTF();
+      MinCostMaxFlow graph = new MinCostMaxFlow(in.readInt());
+      long cost = in.readLong(), flow = in.readLong();
+      int edgeCount = in.readInt();
+      for (int i = 0; i < edgeCount; i++) {
+        MinCostMaxFlow.Edge e = graph.add(in.readInt(), in.readInt(), in.readInt(), in.readLong());
+        if (in.readBoolean())
+          e.setMetadata(in.readUTF());
+      }
+      graph.setName(name);
+      return new FlowDump(name, graph, cost, flow);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package bot;
+
+/**
+ * Algorithm that fills in the flow of every edge of a MinCostMaxFlow graph so the flow from s to t is maximal and of
+ * least cost. Every solver must end at the same (cost, flow) pair; which edges carry the flow may differ when there
+ * are several optimal solutions.
+ */
+public interface FlowSolver {
+
+  /**
+   * Solves the graph in place, starting from whatever flow its edges already hold, and returns {cost, flow} of what
+   * was pushed.
+   */
+  long[] solve(MinCostMaxFlow graph);
+
+  String name();
+}
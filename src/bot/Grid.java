@@ -0,0 +1,101 @@
+package bot;
+
+import lux.Direction;
+import lux.Position;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cell arithmetic on ids (y * width + x) without allocating Positions: a table of the neighbours of every cell, and
+ * int distance and direction between cells. One instance per map size, shared by everything that plans on it.
+ *
+ * Steps are numbered like the dx/dy tables the planners grew up with: 0 west, 1 north, 2 east, 3 south, and 4 for
+ * staying put. Loop to 4 for the neighbours, to 5 to include the cell itself.
+ */
+public final class Grid {
+  public final static int STEPS = 5;
+  public final static Direction[] DIRECTIONS = {Direction.WEST, Direction.NORTH, Direction.EAST, Direction.SOUTH,
+      Direction.CENTER};
+  // step number of each Direction, by ordinal
+  private final static int[] STEP_OF = new int[STEPS];
+
+  static {
+    for (int k = 0; k < STEPS; k++) STEP_OF[DIRECTIONS[k].ordinal()] = k;
+  }
+
+  // one per map size for the whole JVM, a MatchHost plays maps of several sizes at once
+  private final static ConcurrentHashMap<Integer, Grid> bySize = new ConcurrentHashMap<>();
+  private static Grid last;
+
+  public final int width, height, cellCount;
+  // STEPS entries per cell, -1 where the step leaves the map
+  private final int[] steps;
+
+  private Grid(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.cellCount = width * height;
+    this.steps = new int[cellCount * STEPS];
+    for (int cellId = 0; cellId < cellCount; cellId++) {
+      int x = cellId % width, y = cellId / width;
+      for (int k = 0; k < STEPS; k++) {
+        int xx = x + DIRECTIONS[k].dx, yy = y + DIRECTIONS[k].dy;
+        boolean inside = xx >= 0 && xx < width && yy >= 0 && yy < height;
+        steps[cellId * STEPS + k] = inside ? yy * width + xx : -1;
+      }
+    }
+  }
+
+  // Every turn plans on the same map, so the last one asked for is nearly always the one. Grids are immutable, a
+  // stale last seen by another thread only costs the lookup
+  public static Grid of(int width, int height) {
+    Grid grid = last;
+    if (grid == null || grid.width != width || grid.height != height) {
+      grid = bySize.computeIfAbsent(width << 16 | height, size -> new Grid(width, height));
+      last = grid;
+    }
+    return grid;
+  }
+
+  public int cell(int x, int y) {
+    return y * width + x;
+  }
+
+  public int cell(Position pos) {
+    return pos.y * width + pos.x;
+  }
+
+  public int x(int cellId) {
+    return cellId % width;
+  }
+
+  public int y(int cellId) {
+    return cellId / width;
+  }
+
+  public Position position(int cellId) {
+    return new Position(cellId % width, cellId / width);
+  }
+
+  /**
+   * Cell reached from cellId with step k (see DIRECTIONS), -1 if that is off the map.
+   */
+  public int step(int cellId, int k) {
+    return steps[cellId * STEPS + k];
+  }
+
+  public int step(int cellId, Direction dir) {
+    return steps[cellId * STEPS + STEP_OF[dir.ordinal()]];
+  }
+
+  public int distance(int a, int b) {
+    return Math.abs(a % width - b % width) + Math.abs(a / width - b / width);
+  }
+
+  /**
+   * Same choice as Position.directionTo: the first of north, east, south, west that gets closer, else center.
+   */
+  public Direction direction(int from, int to) {
+    return Position.directionTo(from % width, from / width, to % width, to / width);
+  }
+}
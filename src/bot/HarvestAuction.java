@@ -0,0 +1,267 @@
+package bot;
+
+import lux.*;
+
+import java.util.*;
+
+/**
+ * Decides which cell each worker heading for resources should harvest from. A worker collects from the cell it stands
+ * on and the four around it, so every cell in reach of a resource is a harvest slot, yielding per turn the collection
+ * rate of every resource in reach (of the ones passed in, so only researched ones), capped by what the
+ * ResourceForecast expects to be left. A slot holds one worker. City tiles aren't slots, the Navigator moves workers
+ * off ours and can't enter theirs.
+ *
+ * A worker's value for a slot is the fuel it brings home per turn of the trip: walking there, filling up what cargo
+ * space it has at the slot's yield, and walking on to the closest of our city tiles. Measured per trip rather than
+ * per turn at the slot, a rich slot deep in a forest loses out to a poorer one on the way home, and coal and uranium
+ * are only worth their fuel if they aren't too far out.
+ *
+ * Workers are matched to slots by an auction: a worker without a slot bids for the one worth the most to it net of its
+ * price, raising the price by how much better that slot is than its next best plus a hundredth, and takes it from
+ * whoever had it. That ends within a hundredth per worker of the best assignment there is, as long as no slot without
+ * a worker costs anything: a slot that loses its worker goes back to price 0. A worker only bids on its best slots as
+ * many as there are workers. Bids are made one at a time, 40 workers settle in well under a ms which bidding in
+ * parallel wouldn't pay back.
+ *
+ * Kept between turns like the SectorMap, and warm started: a worker whose slot is still within a hundredth of its
+ * best starts out holding it at last turn's price, so a quiet turn only has a few bids to settle.
+ */
+public class HarvestAuction {
+  private final static String TAG = "HarvestAuction";
+  private final static int UNREACHABLE = BfsKernel.UNREACHABLE;
+
+  // fuel is valued in hundredths, so slots that differ by less than a unit per turn still get told apart
+  private final static int PRECISION = 100;
+  // bids after which an auction stops, what is left unassigned goes to the closest resource instead
+  private final static int MAX_BIDS = 100_000;
+
+  private final static int[] COLLECTION_RATE = {GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.WOOD,
+      GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.COAL, GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.URANIUM};
+  private final static int[] FUEL_RATE = {GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.WOOD,
+      GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.COAL, GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.URANIUM};
+
+  private final Grid grid;
+  private final int cellCount;
+  // Kept from the last auction: the price of every cell and the slot every worker ended up with
+  private final long[] price;
+  private HashMap<String, Integer> lastSlot = new HashMap<>();
+
+  // of the last auction, for the log
+  private int bids, kept;
+
+  public HarvestAuction(int width, int height) {
+    this.grid = Grid.of(width, height);
+    this.cellCount = grid.cellCount;
+    this.price = new long[cellCount];
+  }
+
+  /**
+   * Fills in what a worker would collect per turn on every cell from the given resources, as resources and as fuel.
+   */
+  public static void yields(GameMap gameMap, Collection<Cell> resources, ResourceForecast forecast, int[] amount,
+                            int[] fuel) {
+    Grid grid = Grid.of(gameMap.width, gameMap.height);
+    Arrays.fill(amount, 0);
+    Arrays.fill(fuel, 0);
+    for (Cell resource : resources) {
+      int type = type(resource.resource.type);
+      int left = forecast == null ? resource.resource.amount : forecast.projectedAmount(resource);
+      int collected = Math.min(COLLECTION_RATE[type], Math.max(left, 0));
+      int cellId = grid.cell(resource.pos);
+      for (int k = 0; k < Grid.STEPS; k++) {
+        int n = grid.step(cellId, k);
+        if (n == -1)
+          continue;
+        amount[n] += collected;
+        fuel[n] += collected * FUEL_RATE[type];
+      }
+    }
+  }
+
+  /**
+   * Assigns the workers among units to harvest slots, around the obstacles. Returns the slot cell of every worker that
+   * got one; the others (and every cart) are left out.
+   */
+  public HashMap<Unit, Integer> assign(GameState gameState, Collection<Unit> units, Collection<Cell> resources,
+                                       ResourceForecast forecast, Bitboard obstacles) {
+    GameMap gameMap = gameState.map;
+    int[] amount = new int[cellCount], fuel = new int[cellCount];
+    yields(gameMap, resources, forecast, amount, fuel);
+    int slotCount = 0;
+    int[] slots = new int[cellCount];
+    for (int cellId = 0; cellId < cellCount; cellId++) {
+      boolean cityTile = gameMap.getCell(grid.x(cellId), grid.y(cellId)).hasCityTile();
+      if (amount[cellId] > 0 && !obstacles.get(cellId) && !cityTile)
+        slots[slotCount++] = cellId;
+    }
+
+    ArrayList<Unit> workers = new ArrayList<>();
+    for (Unit unit : units) {
+      if (unit.isWorker())
+        workers.add(unit);
+    }
+    HashMap<Unit, Integer> assignment = new HashMap<>();
+    if (workers.isEmpty() || slotCount == 0) {
+      lastSlot = new HashMap<>();
+      return assignment;
+    }
+
+    // the way home from every slot, none without a city
+    int[] dist = new int[cellCount], order = new int[cellCount], homeDist = new int[cellCount];
+    Bitboard home = new Bitboard(gameMap.width, gameMap.height);
+    for (City city : gameState.players[gameState.id].cities.values()) {
+      for (CityTile tile : city.citytiles) {
+        home.set(tile.pos.x, tile.pos.y);
+      }
+    }
+    if (!home.isEmpty())
+      BfsKernel.distances(home, obstacles, homeDist, order);
+
+    // value[w * slotCount + s], 0 for slots the worker can't reach
+    long[] value = new long[workers.size() * slotCount];
+    for (int w = 0; w < workers.size(); w++) {
+      Bitboard start = new Bitboard(gameMap.width, gameMap.height);
+      start.set(grid.cell(workers.get(w).pos));
+      BfsKernel.distances(start, obstacles, dist, order);
+      int space = Math.max(1, workers.get(w).getCargoSpaceLeft());
+      for (int s = 0; s < slotCount; s++) {
+        int cellId = slots[s], d = dist[cellId];
+        if (d == UNREACHABLE)
+          continue;
+        int filling = (space + amount[cellId] - 1) / amount[cellId];
+        int back = homeDist[cellId] == UNREACHABLE ? 0 : homeDist[cellId];
+        // the fuel of a full load at the slot's mix, over the trip including the turn it's delivered
+        long delivered = (long) PRECISION * space * fuel[cellId] / amount[cellId];
+        value[w * slotCount + s] = Math.max(1, delivered / (d + filling + back + 1));
+      }
+    }
+    int[][] candidates = candidates(value, workers.size(), slotCount);
+
+    // start from last turn's slots, as far as they're still good enough
+    int[] holder = new int[slotCount], held = new int[workers.size()];
+    Arrays.fill(holder, -1);
+    Arrays.fill(held, -1);
+    int[] slotIndex = new int[cellCount];
+    Arrays.fill(slotIndex, -1);
+    for (int s = 0; s < slotCount; s++) {
+      slotIndex[slots[s]] = s;
+    }
+    for (int w = 0; w < workers.size(); w++) {
+      Integer cell = lastSlot.get(workers.get(w).id);
+      if (cell != null && slotIndex[cell] != -1 && Arrays.binarySearch(candidates[w], slotIndex[cell]) >= 0) {
+        held[w] = slotIndex[cell];
+        holder[slotIndex[cell]] = w;
+      }
+    }
+    release(slots, slotCount, value, candidates, holder, held);
+    kept = (int) Arrays.stream(held).filter(s -> s != -1).count();
+    bids = 0;
+    settle(slots, slotCount, value, candidates, holder, held);
+    if (bids >= MAX_BIDS)
+      Log.warn(TAG, gameState.turn, "auction stopped after " + bids + " bids");
+
+    lastSlot = new HashMap<>();
+    for (int w = 0; w < workers.size(); w++) {
+      if (held[w] == -1)
+        continue;
+      assignment.put(workers.get(w), slots[held[w]]);
+      lastSlot.put(workers.get(w).id, slots[held[w]]);
+    }
+    int slotTotal = slotCount, assigned = assignment.size();
+    Log.debug(TAG, gameState.turn, () -> assigned + " of " + workers.size() + " workers on " + slotTotal +
+        " slots, " + kept + " kept their slot, " + bids + " bids");
+    return assignment;
+  }
+
+  // The slots every worker bids on: its best as many as there are workers. The others are taken by the time it would
+  // want one of those, so leaving them out keeps every bid short without changing the outcome
+  private static int[][] candidates(long[] value, int workers, int slotCount) {
+    int[][] candidates = new int[workers][];
+    long[] row = new long[slotCount];
+    for (int w = 0; w < workers; w++) {
+      System.arraycopy(value, w * slotCount, row, 0, slotCount);
+      Arrays.sort(row);
+      long threshold = Math.max(1, row[Math.max(0, slotCount - workers)]);
+      int count = 0;
+      int[] best = new int[slotCount];
+      for (int s = 0; s < slotCount; s++) {
+        if (value[w * slotCount + s] >= threshold)
+          best[count++] = s;
+      }
+      candidates[w] = Arrays.copyOf(best, count);
+    }
+    return candidates;
+  }
+
+  // Lets go of the slots that are no longer within a hundredth of the best their worker could bid for. Slots nobody
+  // holds go back to price 0, which can make a held slot no longer good enough, so it goes round until settled
+  private void release(int[] slots, int slotCount, long[] value, int[][] candidates, int[] holder, int[] held) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int s = 0; s < slotCount; s++) {
+        if (holder[s] == -1)
+          price[slots[s]] = 0;
+      }
+      for (int w = 0; w < held.length; w++) {
+        if (held[w] == -1)
+          continue;
+        long bestNet = 0;
+        for (int s : candidates[w]) {
+          bestNet = Math.max(bestNet, value[w * slotCount + s] - price[slots[s]]);
+        }
+        if (value[w * slotCount + held[w]] - price[slots[held[w]]] < bestNet - 1) {
+          holder[held[w]] = -1;
+          held[w] = -1;
+          changed = true;
+        }
+      }
+    }
+  }
+
+  // Workers without a slot bid until every one has a slot or nothing worth its price
+  private void settle(int[] slots, int slotCount, long[] value, int[][] candidates, int[] holder, int[] held) {
+    ArrayDeque<Integer> bidders = new ArrayDeque<>();
+    for (int w = 0; w < held.length; w++) {
+      if (held[w] == -1)
+        bidders.add(w);
+    }
+    while (!bidders.isEmpty() && bids < MAX_BIDS) {
+      int w = bidders.poll();
+      // best and second best net value, not taking a slot at all being worth 0
+      int best = -1;
+      long bestNet = Long.MIN_VALUE, secondNet = 0;
+      for (int s : candidates[w]) {
+        long net = value[w * slotCount + s] - price[slots[s]];
+        if (net > bestNet) {
+          secondNet = Math.max(secondNet, bestNet);
+          bestNet = net;
+          best = s;
+        } else if (net > secondNet) {
+          secondNet = net;
+        }
+      }
+      if (best == -1 || bestNet <= 0)
+        continue;
+      bids++;
+      price[slots[best]] += bestNet - secondNet + 1;
+      if (holder[best] != -1) {
+        held[holder[best]] = -1;
+        bidders.add(holder[best]);
+      }
+      holder[best] = w;
+      held[w] = best;
+    }
+  }
+
+  private static int type(String resourceType) {
+    switch (resourceType) {
+      case GameConstants.RESOURCE_TYPES.WOOD:
+        return 0;
+      case GameConstants.RESOURCE_TYPES.COAL:
+        return 1;
+      default:
+        return 2;
+    }
+  }
+}
@@ -0,0 +1,503 @@
+package bot;
+
+import lux.GameConstants;
+import lux.IOConstants;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A stand-in for the Lux engine that plays two bot processes against each other over the same stdin/stdout protocol
+ * the real one uses, so matches can run headless and many at a time.
+ *
+ * The rules are the core of Lux 2021 with the constants from GameConstants: moving, building cities and units,
+ * research, collection, depositing on city tiles, cooldowns and night upkeep. Left out are roads, carts' cargo
+ * transfers, pillaging and wood regrowth, and collisions are resolved first come first served. Close enough to rank
+ * parameter sets against each other, not to replace matches on the real engine.
+ *
+ * Run one with: java -cp out bot.LocalMatch seed size turns "bot0 command" "bot1 command"
+ */
+public class LocalMatch {
+  private final static int NONE = 0, WOOD = 1, COAL = 2, URANIUM = 3;
+  private final static String[] RESOURCE_NAMES = {"", GameConstants.RESOURCE_TYPES.WOOD,
+      GameConstants.RESOURCE_TYPES.COAL, GameConstants.RESOURCE_TYPES.URANIUM};
+  private final static int[] dx = {-1, 0, 1, 0}, dy = {0, -1, 0, 1};
+
+  public static final class Result {
+    // -1 for a draw
+    public final int winner, turns;
+    public final int[] cityTiles, units;
+
+    Result(int winner, int turns, int[] cityTiles, int[] units) {
+      this.winner = winner;
+      this.turns = turns;
+      this.cityTiles = cityTiles;
+      this.units = units;
+    }
+
+    @Override
+    public String toString() {
+      return "winner=" + winner + " turns=" + turns + " cityTiles=" + Arrays.toString(cityTiles) + " units=" +
+          Arrays.toString(units);
+    }
+  }
+
+  private static final class SimUnit {
+    final String id;
+    final int team, type;
+    int x, y, wood, coal, uranium;
+    double cooldown;
+
+    SimUnit(String id, int team, int type, int x, int y) {
+      this.id = id;
+      this.team = team;
+      this.type = type;
+      this.x = x;
+      this.y = y;
+    }
+
+    int cargo() {
+      return wood + coal + uranium;
+    }
+
+    int capacity() {
+      return type == GameConstants.UNIT_TYPES.WORKER ? GameConstants.PARAMETERS.RESOURCE_CAPACITY.WORKER :
+          GameConstants.PARAMETERS.RESOURCE_CAPACITY.CART;
+    }
+  }
+
+  private static final class SimCity {
+    final String id;
+    final int team;
+    double fuel;
+    final ArrayList<int[]> tiles = new ArrayList<>();
+
+    SimCity(String id, int team) {
+      this.id = id;
+      this.team = team;
+    }
+  }
+
+  private final int width, height;
+  private final int[][] resourceType, resourceAmount;
+  // city id per cell, null where there is no city tile
+  private final String[][] cityAt;
+  private final double[][] tileCooldown;
+  private final LinkedHashMap<String, SimCity> cities = new LinkedHashMap<>();
+  private final ArrayList<SimUnit> units = new ArrayList<>();
+  private final int[] researchPoints = new int[2];
+  private int nextUnitId = 1, nextCityId = 1, turn = 0;
+
+  /**
+   * A random map, mirrored left to right so neither side has the better half.
+   */
+  public LocalMatch(int width, int height, long seed) {
+    this.width = width;
+    this.height = height;
+    resourceType = new int[width][height];
+    resourceAmount = new int[width][height];
+    cityAt = new String[width][height];
+    tileCooldown = new double[width][height];
+
+    Random random = new Random(seed);
+    int half = (width + 1) / 2;
+    int area = half * height;
+    placeClusters(random, half, WOOD, Math.max(2, area / 40), 3, 8, 300, 500);
+    placeClusters(random, half, COAL, Math.max(1, area / 120), 2, 5, 300, 600);
+    placeClusters(random, half, URANIUM, Math.max(1, area / 200), 1, 4, 300, 400);
+
+    // start next to some wood, away from the middle
+    int startX, startY;
+    do {
+      startX = random.nextInt(Math.max(1, half - 2));
+      startY = random.nextInt(height);
+    } while (resourceType[startX][startY] != NONE || !nearResource(startX, startY, 3));
+
+    for (int x = 0; x < half; x++) {
+      for (int y = 0; y < height; y++) {
+        resourceType[width - 1 - x][y] = resourceType[x][y];
+        resourceAmount[width - 1 - x][y] = resourceAmount[x][y];
+      }
+    }
+    for (int team = 0; team < 2; team++) {
+      int x = team == 0 ? startX : width - 1 - startX;
+      buildCity(team, x, startY);
+      units.add(new SimUnit("u_" + nextUnitId++, team, GameConstants.UNIT_TYPES.WORKER, x, startY));
+    }
+  }
+
+  private void placeClusters(Random random, int half, int type, int count, int minSize, int maxSize, int minAmount,
+                             int maxAmount) {
+    for (int c = 0; c < count; c++) {
+      int x = random.nextInt(half), y = random.nextInt(height);
+      int size = minSize + random.nextInt(maxSize - minSize + 1);
+      for (int i = 0; i < size; i++) {
+        if (resourceType[x][y] == NONE) {
+          resourceType[x][y] = type;
+          resourceAmount[x][y] = minAmount + random.nextInt(maxAmount - minAmount + 1);
+        }
+        int k = random.nextInt(4);
+        x = Math.max(0, Math.min(half - 1, x + dx[k]));
+        y = Math.max(0, Math.min(height - 1, y + dy[k]));
+      }
+    }
+  }
+
+  private boolean nearResource(int x, int y, int range) {
+    for (int xx = Math.max(0, x - range); xx <= Math.min(width - 1, x + range); xx++) {
+      for (int yy = Math.max(0, y - range); yy <= Math.min(height - 1, y + range); yy++) {
+        if (resourceType[xx][yy] == WOOD) return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean inside(int x, int y) {
+    return x >= 0 && x < width && y >= 0 && y < height;
+  }
+
+  /**
+   * Plays the match to the end, or until a bot process dies (which loses it). The processes are killed afterwards.
+   */
+  public Result play(List<String> command0, List<String> command1, int maxTurns) throws IOException {
+    Process[] processes = {start(command0), start(command1)};
+    try {
+      return play(new OutputStream[]{processes[0].getOutputStream(), processes[1].getOutputStream()},
+          new InputStream[]{processes[0].getInputStream(), processes[1].getInputStream()}, maxTurns);
+    } finally {
+      for (Process process : processes) process.destroyForcibly();
+    }
+  }
+
+  /**
+   * The same against bots that aren't processes: toBots[p] is what bot p reads, fromBots[p] what it writes. The
+   * streams are left open, closing them is up to whoever made them.
+   */
+  public Result play(OutputStream[] toBots, InputStream[] fromBots, int maxTurns) {
+    BufferedWriter[] in = new BufferedWriter[2];
+    BufferedReader[] out = new BufferedReader[2];
+    for (int p = 0; p < 2; p++) {
+      in[p] = new BufferedWriter(new OutputStreamWriter(toBots[p]));
+      out[p] = new BufferedReader(new InputStreamReader(fromBots[p]));
+    }
+
+    boolean[] alive = {true, true};
+    for (turn = 0; turn < maxTurns; turn++) {
+      String observation = observation();
+      List<List<String>> actions = new ArrayList<>();
+      // both bots get the turn before either answer is read, so they think at the same time
+      for (int p = 0; p < 2; p++) {
+        try {
+          if (turn == 0) in[p].write(p + "\n" + width + " " + height + "\n");
+          in[p].write(observation);
+          in[p].flush();
+        } catch (IOException e) {
+          alive[p] = false;
+        }
+      }
+      for (int p = 0; p < 2; p++) {
+        actions.add(new ArrayList<>());
+        if (!alive[p]) continue;
+        try {
+          String line = out[p].readLine();
+          // the bot ends every turn with D_FINISH on its own line
+          String finish = out[p].readLine();
+          if (line == null || finish == null) {
+            alive[p] = false;
+            continue;
+          }
+          for (String action : line.split(",")) {
+            if (!action.isEmpty()) actions.get(p).add(action.trim());
+          }
+        } catch (IOException e) {
+          alive[p] = false;
+        }
+      }
+      if (!alive[0] || !alive[1]) {
+        int winner = alive[0] == alive[1] ? -1 : alive[0] ? 0 : 1;
+        return new Result(winner, turn, cityTileCounts(), unitCounts());
+      }
+
+      // alternate who goes first, so neither side always wins the race for a cell
+      int first = turn % 2;
+      HashSet<String> acted = new HashSet<>();
+      int longest = Math.max(actions.get(0).size(), actions.get(1).size());
+      for (int i = 0; i < longest; i++) {
+        for (int p : new int[]{first, 1 - first}) {
+          if (i < actions.get(p).size()) apply(p, actions.get(p).get(i), acted);
+        }
+      }
+      endOfTurn();
+
+      int[] tiles = cityTileCounts(), counts = unitCounts();
+      if (tiles[0] + counts[0] == 0 || tiles[1] + counts[1] == 0)
+        break;
+    }
+    return finalResult(Math.min(turn + 1, maxTurns));
+  }
+
+  private static Process start(List<String> command) throws IOException {
+    return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+  }
+
+  private Result finalResult(int turns) {
+    int[] tiles = cityTileCounts(), counts = unitCounts();
+    int winner = -1;
+    if (tiles[0] != tiles[1]) winner = tiles[0] > tiles[1] ? 0 : 1;
+    else if (counts[0] != counts[1]) winner = counts[0] > counts[1] ? 0 : 1;
+    return new Result(winner, turns, tiles, counts);
+  }
+
+  private int[] cityTileCounts() {
+    int[] counts = new int[2];
+    for (SimCity city : cities.values()) counts[city.team] += city.tiles.size();
+    return counts;
+  }
+
+  private int[] unitCounts() {
+    int[] counts = new int[2];
+    for (SimUnit unit : units) counts[unit.team]++;
+    return counts;
+  }
+
+  // The turn's updates in the engine's format, ending with D_DONE
+  private String observation() {
+    StringBuilder sb = new StringBuilder();
+    for (int team = 0; team < 2; team++) {
+      sb.append(IOConstants.RESEARCH_POINTS.str).append(' ').append(team).append(' ').append(researchPoints[team])
+          .append('\n');
+    }
+    for (int x = 0; x < width; x++) {
+      for (int y = 0; y < height; y++) {
+        if (resourceType[x][y] != NONE && resourceAmount[x][y] > 0)
+          sb.append(IOConstants.RESOURCES.str).append(' ').append(RESOURCE_NAMES[resourceType[x][y]]).append(' ')
+              .append(x).append(' ').append(y).append(' ').append(resourceAmount[x][y]).append('\n');
+      }
+    }
+    for (SimUnit u : units) {
+      sb.append(IOConstants.UNITS.str).append(' ').append(u.type).append(' ').append(u.team).append(' ').append(u.id)
+          .append(' ').append(u.x).append(' ').append(u.y).append(' ').append(u.cooldown).append(' ').append(u.wood)
+          .append(' ').append(u.coal).append(' ').append(u.uranium).append('\n');
+    }
+    for (SimCity city : cities.values()) {
+      sb.append(IOConstants.CITY.str).append(' ').append(city.team).append(' ').append(city.id).append(' ')
+          .append(city.fuel).append(' ').append(lightUpkeep(city)).append('\n');
+      for (int[] tile : city.tiles) {
+        sb.append(IOConstants.CITY_TILES.str).append(' ').append(city.team).append(' ').append(city.id).append(' ')
+            .append(tile[0]).append(' ').append(tile[1]).append(' ').append(tileCooldown[tile[0]][tile[1]])
+            .append('\n');
+      }
+    }
+    sb.append(IOConstants.DONE.str).append('\n');
+    return sb.toString();
+  }
+
+  private SimUnit unit(int team, String id) {
+    for (SimUnit u : units) {
+      if (u.id.equals(id)) return u.team == team ? u : null;
+    }
+    return null;
+  }
+
+  private boolean occupied(int x, int y) {
+    for (SimUnit u : units) {
+      if (u.x == x && u.y == y) return true;
+    }
+    return false;
+  }
+
+  // Applies one action if it is legal; anything else is ignored, like the engine does
+  private void apply(int team, String action, HashSet<String> acted) {
+    String[] parts = action.split(" ");
+    try {
+      switch (parts[0]) {
+        case "m": {
+          SimUnit u = unit(team, parts[1]);
+          if (u == null || u.cooldown >= 1 || !acted.add(u.id) || parts[2].equals("c")) return;
+          int k = "wnes".indexOf(parts[2]);
+          if (k == -1) return;
+          int x = u.x + dx[k], y = u.y + dy[k];
+          if (!inside(x, y)) return;
+          String city = cityAt[x][y];
+          if (city != null && cities.get(city).team != team) return;
+          if (city == null && occupied(x, y)) return;
+          u.x = x;
+          u.y = y;
+          u.cooldown = cooldown(u);
+          return;
+        }
+        case "bcity": {
+          SimUnit u = unit(team, parts[1]);
+          if (u == null || u.cooldown >= 1 || u.type != GameConstants.UNIT_TYPES.WORKER) return;
+          if (cityAt[u.x][u.y] != null || resourceType[u.x][u.y] != NONE && resourceAmount[u.x][u.y] > 0) return;
+          if (u.cargo() < GameConstants.PARAMETERS.CITY_BUILD_COST || !acted.add(u.id)) return;
+          int cost = GameConstants.PARAMETERS.CITY_BUILD_COST;
+          int fromWood = Math.min(cost, u.wood), fromCoal = Math.min(cost - fromWood, u.coal);
+          u.wood -= fromWood;
+          u.coal -= fromCoal;
+          u.uranium -= cost - fromWood - fromCoal;
+          buildCity(team, u.x, u.y);
+          u.cooldown = cooldown(u);
+          return;
+        }
+        case "bw":
+        case "bc":
+        case "r": {
+          int x = Integer.parseInt(parts[1]), y = Integer.parseInt(parts[2]);
+          if (!inside(x, y) || cityAt[x][y] == null || cities.get(cityAt[x][y]).team != team) return;
+          if (tileCooldown[x][y] >= 1 || !acted.add("ct " + x + " " + y)) return;
+          if (parts[0].equals("r")) {
+            researchPoints[team]++;
+          } else {
+            if (unitCounts()[team] >= cityTileCounts()[team]) return;
+            int type = parts[0].equals("bw") ? GameConstants.UNIT_TYPES.WORKER : GameConstants.UNIT_TYPES.CART;
+            units.add(new SimUnit("u_" + nextUnitId++, team, type, x, y));
+          }
+          tileCooldown[x][y] = GameConstants.PARAMETERS.CITY_ACTION_COOLDOWN;
+          return;
+        }
+        default:
+      }
+    } catch (RuntimeException e) {
+      // malformed action, the engine would just skip it too
+    }
+  }
+
+  private static int cooldown(SimUnit u) {
+    return u.type == GameConstants.UNIT_TYPES.WORKER ? GameConstants.PARAMETERS.UNIT_ACTION_COOLDOWN.WORKER :
+        GameConstants.PARAMETERS.UNIT_ACTION_COOLDOWN.CART;
+  }
+
+  // A new tile joins every city of the same team next to it, merging them into one
+  private void buildCity(int team, int x, int y) {
+    SimCity city = null;
+    for (int k = 0; k < 4; k++) {
+      int xx = x + dx[k], yy = y + dy[k];
+      if (!inside(xx, yy) || cityAt[xx][yy] == null) continue;
+      SimCity other = cities.get(cityAt[xx][yy]);
+      if (other.team != team || other == city) continue;
+      if (city == null) {
+        city = other;
+      } else {
+        city.fuel += other.fuel;
+        for (int[] tile : other.tiles) {
+          cityAt[tile[0]][tile[1]] = city.id;
+          city.tiles.add(tile);
+        }
+        cities.remove(other.id);
+      }
+    }
+    if (city == null) {
+      city = new SimCity("c_" + nextCityId++, team);
+      cities.put(city.id, city);
+    }
+    city.tiles.add(new int[]{x, y});
+    cityAt[x][y] = city.id;
+  }
+
+  private int lightUpkeep(SimCity city) {
+    int upkeep = 0;
+    for (int[] tile : city.tiles) {
+      upkeep += GameConstants.PARAMETERS.LIGHT_UPKEEP.CITY;
+      for (int k = 0; k < 4; k++) {
+        int xx = tile[0] + dx[k], yy = tile[1] + dy[k];
+        if (inside(xx, yy) && city.id.equals(cityAt[xx][yy]))
+          upkeep -= GameConstants.PARAMETERS.CITY_ADJACENCY_BONUS;
+      }
+    }
+    return upkeep;
+  }
+
+  private boolean canMine(int team, int type) {
+    if (type == COAL) return researchPoints[team] >= GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.COAL;
+    if (type == URANIUM) return researchPoints[team] >= GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.URANIUM;
+    return type == WOOD;
+  }
+
+  private void endOfTurn() {
+    // workers collect from their own cell and the four around it
+    for (SimUnit u : units) {
+      if (u.type != GameConstants.UNIT_TYPES.WORKER) continue;
+      for (int k = -1; k < 4; k++) {
+        int x = k == -1 ? u.x : u.x + dx[k], y = k == -1 ? u.y : u.y + dy[k];
+        if (!inside(x, y) || resourceAmount[x][y] <= 0 || !canMine(u.team, resourceType[x][y])) continue;
+        int type = resourceType[x][y];
+        int rate = type == WOOD ? GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.WOOD :
+            type == COAL ? GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.COAL :
+                GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.URANIUM;
+        int amount = Math.min(rate, Math.min(resourceAmount[x][y], u.capacity() - u.cargo()));
+        if (amount <= 0) continue;
+        resourceAmount[x][y] -= amount;
+        if (resourceAmount[x][y] == 0) resourceType[x][y] = NONE;
+        if (type == WOOD) u.wood += amount;
+        else if (type == COAL) u.coal += amount;
+        else u.uranium += amount;
+      }
+    }
+
+    // cargo of units on our own city tiles turns into fuel
+    for (SimUnit u : units) {
+      String city = cityAt[u.x][u.y];
+      if (city == null || cities.get(city).team != u.team) continue;
+      cities.get(city).fuel += u.wood * GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.WOOD +
+          u.coal * GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.COAL +
+          u.uranium * GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.URANIUM;
+      u.wood = u.coal = u.uranium = 0;
+    }
+
+    boolean night = turn % (GameConstants.PARAMETERS.DAY_LENGTH + GameConstants.PARAMETERS.NIGHT_LENGTH) >=
+        GameConstants.PARAMETERS.DAY_LENGTH;
+    if (night) {
+      for (Iterator<SimCity> it = cities.values().iterator(); it.hasNext(); ) {
+        SimCity city = it.next();
+        int upkeep = lightUpkeep(city);
+        if (city.fuel >= upkeep) {
+          city.fuel -= upkeep;
+        } else {
+          for (int[] tile : city.tiles) cityAt[tile[0]][tile[1]] = null;
+          it.remove();
+        }
+      }
+      for (Iterator<SimUnit> it = units.iterator(); it.hasNext(); ) {
+        SimUnit u = it.next();
+        if (cityAt[u.x][u.y] != null) continue;
+        int need = u.type == GameConstants.UNIT_TYPES.WORKER ? GameConstants.PARAMETERS.LIGHT_UPKEEP.WORKER :
+            GameConstants.PARAMETERS.LIGHT_UPKEEP.CART;
+        if (!burn(u, need)) it.remove();
+      }
+    }
+
+    for (SimUnit u : units) u.cooldown = Math.max(0, u.cooldown - 1);
+    for (int x = 0; x < width; x++) {
+      for (int y = 0; y < height; y++) tileCooldown[x][y] = Math.max(0, tileCooldown[x][y] - 1);
+    }
+  }
+
+  // Burns cargo for need fuel, cheapest resource first. False if there isn't enough
+  private static boolean burn(SimUnit u, int need) {
+    int woodUsed = Math.min(u.wood, need);
+    u.wood -= woodUsed;
+    need -= woodUsed;
+    int coalRate = GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.COAL;
+    int coalUsed = Math.min(u.coal, (need + coalRate - 1) / coalRate);
+    u.coal -= coalUsed;
+    need -= coalUsed * coalRate;
+    int uraniumRate = GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.URANIUM;
+    int uraniumUsed = Math.min(u.uranium, (Math.max(need, 0) + uraniumRate - 1) / uraniumRate);
+    u.uranium -= uraniumUsed;
+    need -= uraniumUsed * uraniumRate;
+    return need <= 0;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 5) {
+      System.err.println("usage: LocalMatch seed size turns \"bot0 command\" \"bot1 command\"");
+      System.exit(2);
+    }
+    int size = Integer.parseInt(args[1]);
+    LocalMatch match = new LocalMatch(size, size, Long.parseLong(args[0]));
+    Result result = match.play(Arrays.asList(args[3].split(" ")), Arrays.asList(args[4].split(" ")),
+        Integer.parseInt(args[2]));
+    System.out.println(result);
+  }
+}
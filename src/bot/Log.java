@@ -0,0 +1,156 @@
+package bot;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Debug logging that stays off the turn's critical path. Messages are only built when their level is enabled, then
+ * queued in a bounded ring buffer that a background thread drains to stderr. When the buffer is full messages are
+ * dropped and counted rather than blocking the turn.
+ *
+ * Lines look like they always have: "Tag turn: message", or "Tag: message" for a turn of -1.
+ *
+ * -Dlog.level=DEBUG|INFO|WARN|ERROR|OFF picks what is written (INFO by default), -Dlog.buffer the ring size, and
+ * -Dlog.sample=N writes dumps (whole maps and such, see dump) only every N-th turn.
+ */
+public final class Log {
+  public enum Level {DEBUG, INFO, WARN, ERROR, OFF}
+
+  private final static Level LEVEL = Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase());
+  private final static int SAMPLE_EVERY = Math.max(1, Integer.getInteger("log.sample", 10));
+
+  private final static class Entry {
+    final Level level;
+    final String tag;
+    final int turn;
+    // exactly one of the two is set; deferred ones are built by the writer
+    final String message;
+    final Supplier<String> deferred;
+
+    Entry(Level level, String tag, int turn, String message, Supplier<String> deferred) {
+      this.level = level;
+      this.tag = tag;
+      this.turn = turn;
+      this.message = message;
+      this.deferred = deferred;
+    }
+  }
+
+  private final static ArrayBlockingQueue<Entry> ring =
+      new ArrayBlockingQueue<>(Math.max(16, Integer.getInteger("log.buffer", 4096)));
+  private final static AtomicInteger dropped = new AtomicInteger();
+  // stdout is the engine's, so the writer gets its own buffered stream on stderr's descriptor
+  private final static PrintStream out =
+      new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 1 << 16));
+  private final static Thread writer = new Thread(Log::drain, "log-writer");
+  // set while nothing should be written at all, like the Warmup's made-up turns
+  private static volatile boolean muted = false;
+
+  static {
+    writer.setDaemon(true);
+    writer.start();
+    // whatever is still queued when the engine closes us goes out before the JVM does, once the writer is done with
+    // the batch it's on so the two don't interleave
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      writer.interrupt();
+      try {
+        writer.join(1000);
+      } catch (InterruptedException e) {
+        return;
+      }
+      ArrayList<Entry> rest = new ArrayList<>();
+      ring.drainTo(rest);
+      write(rest);
+    }));
+  }
+
+  private Log() {
+  }
+
+  public static boolean enabled(Level level) {
+    return !muted && level.compareTo(LEVEL) >= 0 && level != Level.OFF;
+  }
+
+  public static void mute(boolean mute) {
+    muted = mute;
+  }
+
+  public static void debug(String tag, int turn, Supplier<String> message) {
+    if (enabled(Level.DEBUG)) enqueue(Level.DEBUG, tag, turn, message.get(), null);
+  }
+
+  public static void info(String tag, int turn, Supplier<String> message) {
+    if (enabled(Level.INFO)) enqueue(Level.INFO, tag, turn, message.get(), null);
+  }
+
+  public static void warn(String tag, int turn, String message) {
+    if (enabled(Level.WARN)) enqueue(Level.WARN, tag, turn, message, null);
+  }
+
+  public static void error(String tag, int turn, String message) {
+    if (enabled(Level.ERROR)) enqueue(Level.ERROR, tag, turn, message, null);
+  }
+
+  /**
+   * Whether a dump for this turn would be written: DEBUG is enabled and the turn is one of the sampled ones. Check it
+   * before copying whatever the dump needs.
+   */
+  public static boolean sampled(int turn) {
+    return enabled(Level.DEBUG) && Math.floorMod(turn, SAMPLE_EVERY) == 0;
+  }
+
+  /**
+   * A DEBUG message too expensive to build on the turn's thread, like a whole map. The supplier runs on the writer
+   * thread, so it must only read data that nothing changes any more (a copy). Only written on sampled turns.
+   */
+  public static void dump(String tag, int turn, Supplier<String> message) {
+    if (sampled(turn)) enqueue(Level.DEBUG, tag, turn, null, message);
+  }
+
+  private static void enqueue(Level level, String tag, int turn, String message, Supplier<String> deferred) {
+    if (!ring.offer(new Entry(level, tag, turn, message, deferred)))
+      dropped.incrementAndGet();
+  }
+
+  private static void drain() {
+    ArrayList<Entry> batch = new ArrayList<>();
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        Entry first = ring.poll(1, TimeUnit.SECONDS);
+        if (first != null) batch.add(first);
+      } catch (InterruptedException e) {
+        return;
+      }
+      ring.drainTo(batch);
+      write(batch);
+      batch.clear();
+    }
+  }
+
+  private static void write(ArrayList<Entry> batch) {
+    int lost = dropped.getAndSet(0);
+    if (lost > 0)
+      out.println("Log: dropped " + lost + " messages, the buffer was full");
+    for (Entry entry : batch) {
+      String message;
+      try {
+        message = entry.message != null ? entry.message : entry.deferred.get();
+      } catch (RuntimeException e) {
+        message = "failed to build message: " + e;
+      }
+      out.print(entry.tag);
+      if (entry.turn >= 0) out.print(" " + entry.turn);
+      out.print(": ");
+      if (entry.level == Level.WARN || entry.level == Level.ERROR) out.print(entry.level + " ");
+      out.println(message);
+    }
+    out.flush();
+  }
+}
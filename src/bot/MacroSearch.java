@@ -0,0 +1,424 @@
+package bot;
+
+import lux.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Monte Carlo tree search over the city level decisions: what city tiles spend their actions on (workers or research)
+ * and whether new cities go right next to the ones we have or out toward fresh resources. Carts are left out, nothing
+ * routes them yet.
+ *
+ * The game is abstracted down to a handful of numbers (tiles, fuel, units, research points and the resources left near
+ * and far from our cities) so one playout is a few hundred arithmetic operations. A decision is taken once every
+ * CITY_ACTION_COOLDOWN turns. Search is root parallel: every worker thread grows its own UCT tree from the same root
+ * and the root visit counts are summed at the end, so the threads never share anything mutable.
+ *
+ * The pool is shared by every search in the JVM, and a MatchHost runs many bots at once. A search only fans out to
+ * the pool threads nobody else is using and grows one tree on its own thread, so it never waits in a queue and always
+ * has playouts to show when the budget is up.
+ */
+public class MacroSearch {
+  private final static String TAG = "MacroSearch";
+
+  public enum TileAction {BUILD_WORKER, RESEARCH}
+
+  public enum Expansion {NEAR, FAR}
+
+  public static class Decision {
+    public final TileAction tileAction;
+    public final Expansion expansion;
+    // playouts behind the decision, summed over all threads
+    public final int playouts;
+    // root statistics per action, so a later search from a close enough root can start from them
+    final int[] visits;
+    final double[] reward;
+
+    Decision(TileAction tileAction, Expansion expansion, int[] visits, double[] reward) {
+      this.tileAction = tileAction;
+      this.expansion = expansion;
+      this.visits = visits;
+      this.reward = reward;
+      int playouts = 0;
+      for (int v : visits) playouts += v;
+      this.playouts = playouts;
+    }
+
+    @Override
+    public String toString() {
+      return tileAction + "/" + expansion + " (" + playouts + " playouts)";
+    }
+  }
+
+  public final static int HORIZON = 40;
+  // values() copies the array on every call, which shows up in playouts per second
+  private final static TileAction[] TILE_ACTIONS = TileAction.values();
+  private final static Expansion[] EXPANSIONS = Expansion.values();
+  private final static int ACTIONS = TILE_ACTIONS.length * EXPANSIONS.length;
+  private final static int PERIOD = GameConstants.PARAMETERS.CITY_ACTION_COOLDOWN;
+  private final static double EXPLORATION = 1.4;
+  // Resources within this distance of one of our tiles count as near
+  private final static int NEAR_DISTANCE = 4;
+  // Share of a worker's time actually spent mining rather than walking to and from cities
+  private final static double NEAR_EFFICIENCY = 0.5, FAR_EFFICIENCY = 0.3;
+
+  // How far fuel and resource amounts of two roots may be apart for one search's statistics to stand for the other's
+  private final static double ROOT_TOLERANCE = 0.05;
+
+  // the calling thread searches too, so the pool has a thread for every other core
+  private final static int POOL_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+  private static ExecutorService pool;
+  // pool threads handed out to running searches
+  private final static AtomicInteger busy = new AtomicInteger();
+
+  /**
+   * The abstract game. Resource amounts are raw (not fuel) and indexed wood, coal, uranium.
+   */
+  static final class State {
+    int turn, tiles, workers, carts, research;
+    double fuel, building;
+    final double[] near = new double[3], far = new double[3];
+    // total over all decisions, to tell how far apart our cities are (adjacent tiles are cheaper to keep lit)
+    int nearBuilds, farBuilds;
+
+    void copyFrom(State o) {
+      turn = o.turn;
+      tiles = o.tiles;
+      workers = o.workers;
+      carts = o.carts;
+      research = o.research;
+      fuel = o.fuel;
+      building = o.building;
+      System.arraycopy(o.near, 0, near, 0, 3);
+      System.arraycopy(o.far, 0, far, 0, 3);
+      nearBuilds = o.nearBuilds;
+      farBuilds = o.farBuilds;
+    }
+
+    boolean done(int endTurn) {
+      return turn >= endTurn || tiles == 0 && workers == 0;
+    }
+
+    /**
+     * Plays one decision period: city tiles act once according to the action, and workers spend their cargo on new
+     * tiles of the chosen kind whenever the cities have enough fuel to survive the coming night.
+     */
+    void step(int action) {
+      TileAction tileAction = TILE_ACTIONS[action / EXPANSIONS.length];
+      Expansion expansion = EXPANSIONS[action % EXPANSIONS.length];
+
+      for (int t = 0; t < tiles; t++) {
+        boolean needUnits = tiles > workers + carts;
+        if (tileAction == TileAction.RESEARCH && research < GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.URANIUM)
+          research++;
+        else if (needUnits)
+          workers++;
+        else if (research < GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.URANIUM)
+          research++;
+      }
+
+      for (int i = 0; i < PERIOD; i++) {
+        double mined = mine(expansion);
+        double upkeep = nightUpkeep();
+        // mined resources go to fuel until the cities have the coming night covered, then toward new tiles
+        if (fuel > upkeep * GameConstants.PARAMETERS.NIGHT_LENGTH) {
+          building += mined;
+          while (building >= GameConstants.PARAMETERS.CITY_BUILD_COST) {
+            building -= GameConstants.PARAMETERS.CITY_BUILD_COST;
+            tiles++;
+            if (expansion == Expansion.NEAR) nearBuilds++;
+            else farBuilds++;
+          }
+        } else {
+          fuel += mined;
+        }
+
+        if (isNight(turn)) {
+          fuel -= upkeep;
+          if (fuel < 0) {
+            // a dark city is gone entirely, take tiles away until what is left could have been kept lit
+            int lost = (int) Math.ceil(-fuel / Math.max(upkeep / Math.max(tiles, 1), 1));
+            tiles = Math.max(tiles - lost, 0);
+            fuel = 0;
+          }
+          // units outside cities burn their own cargo; assume the ones beyond what tiles can shelter starve
+          int sheltered = tiles * 2;
+          if (workers + carts > sheltered) workers = Math.max(sheltered - carts, 0);
+        }
+        turn++;
+      }
+    }
+
+    // Fuel brought home this turn. Workers mine the best resource they've researched
+    private double mine(Expansion expansion) {
+      double fuelMined = 0;
+      double farShare = expansion == Expansion.FAR ? 0.5 : 0.2;
+      fuelMined += harvest(near, workers * (1 - farShare) * NEAR_EFFICIENCY);
+      fuelMined += harvest(far, workers * farShare * FAR_EFFICIENCY);
+      return fuelMined;
+    }
+
+    private double harvest(double[] pool, double workerTurns) {
+      double fuelMined = 0;
+      for (int type = 2; type >= 0 && workerTurns > 0; type--) {
+        if (pool[type] <= 0 || type == 1 && research < GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.COAL ||
+            type == 2 && research < GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.URANIUM)
+          continue;
+        double amount = Math.min(pool[type], workerTurns * COLLECTION_RATE[type]);
+        pool[type] -= amount;
+        workerTurns -= amount / COLLECTION_RATE[type];
+        fuelMined += amount * FUEL_RATE[type];
+      }
+      return fuelMined;
+    }
+
+    private double nightUpkeep() {
+      // tiles built next to each other light each other up
+      double adjacency = tiles <= 1 ? 0 : 2.0 * nearBuilds / Math.max(nearBuilds + farBuilds, 1);
+      return tiles * Math.max(GameConstants.PARAMETERS.LIGHT_UPKEEP.CITY -
+          GameConstants.PARAMETERS.CITY_ADJACENCY_BONUS * adjacency, 0);
+    }
+
+    double value() {
+      return tiles + 0.2 * (workers + carts) + 0.005 * research + fuel / 1000;
+    }
+  }
+
+  private final static int[] COLLECTION_RATE = {GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.WOOD,
+      GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.COAL, GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.URANIUM};
+  private final static int[] FUEL_RATE = {GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.WOOD,
+      GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.COAL, GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.URANIUM};
+
+  private static boolean isNight(int turn) {
+    return (turn - 1) % 40 >= GameConstants.PARAMETERS.DAY_LENGTH;
+  }
+
+  // One search tree node; children are created all at once on first expansion
+  private static final class Node {
+    Node[] children;
+    int visits;
+    double reward;
+  }
+
+  private final State root = new State();
+  private final int endTurn;
+  private final double rootValue;
+  private volatile boolean cancelled;
+
+  public MacroSearch(GameState gameState) {
+    Player player = gameState.players[gameState.id];
+    GameMap gameMap = gameState.map;
+
+    root.turn = gameState.turn;
+    root.tiles = player.cityTileCount;
+    root.research = player.researchPoints;
+    for (Unit unit : player.units) {
+      if (unit.isWorker()) root.workers++;
+      else root.carts++;
+    }
+    ArrayList<Position> tiles = new ArrayList<>();
+    for (City city : player.cities.values()) {
+      root.fuel += city.fuel;
+      for (CityTile tile : city.citytiles) tiles.add(tile.pos);
+    }
+    for (int y = 0; y < gameMap.height; y++) {
+      for (int x = 0; x < gameMap.width; x++) {
+        Cell cell = gameMap.getCell(x, y);
+        if (!cell.hasResource()) continue;
+        int type = cell.resource.type.equals(GameConstants.RESOURCE_TYPES.WOOD) ? 0 :
+            cell.resource.type.equals(GameConstants.RESOURCE_TYPES.COAL) ? 1 : 2;
+        boolean isNear = false;
+        for (Position p : tiles) {
+          if (p.distanceTo(cell.pos) <= NEAR_DISTANCE) {
+            isNear = true;
+            break;
+          }
+        }
+        if (isNear) root.near[type] += cell.resource.amount;
+        else root.far[type] += cell.resource.amount;
+      }
+    }
+    endTurn = Math.min(gameState.turn + HORIZON, GameConstants.PARAMETERS.MAX_DAYS + 1);
+    rootValue = root.value();
+  }
+
+  /**
+   * Searches until the budget runs out and returns the most visited root decision.
+   */
+  public Decision decide(long budgetNanos) {
+    return decide(budgetNanos, null);
+  }
+
+  /**
+   * Same, but the root statistics start out as the prior's, which should come from a search of a root this one is
+   * close to (see closeTo).
+   */
+  public Decision decide(long budgetNanos, Decision prior) {
+    long deadline = System.nanoTime() + budgetNanos;
+    int helpers = reserveThreads(Runtime.getRuntime().availableProcessors() - 1);
+
+    ArrayList<Future<Node>> futures = new ArrayList<>();
+    for (int i = 0; i < helpers; i++) {
+      long seed = seed(i + 1, prior);
+      futures.add(pool().submit(() -> {
+        try {
+          return search(seed, deadline);
+        } finally {
+          busy.decrementAndGet();
+        }
+      }));
+    }
+    ArrayList<Node> trees = new ArrayList<>();
+    trees.add(search(seed(0, prior), deadline));
+    for (Future<Node> future : futures) {
+      try {
+        trees.add(future.get(Math.max(deadline - System.nanoTime(), 0) + 10_000_000L, TimeUnit.NANOSECONDS));
+      } catch (TimeoutException | InterruptedException | ExecutionException e) {
+        // the search stops at the deadline by itself and gives its thread back then, cancelling a task that hasn't
+        // started yet would keep it reserved for good
+      }
+    }
+
+    int[] visits = prior == null ? new int[ACTIONS] : prior.visits.clone();
+    double[] reward = prior == null ? new double[ACTIONS] : prior.reward.clone();
+    int playouts = 0;
+    for (Node tree : trees) {
+      if (tree.children == null) continue;
+      for (int a = 0; a < ACTIONS; a++) {
+        visits[a] += tree.children[a].visits;
+        reward[a] += tree.children[a].reward;
+      }
+      playouts += tree.visits;
+    }
+    if (playouts == 0 && !cancelled)
+      Log.warn(TAG, root.turn, "no playouts within " + budgetNanos / 1_000_000 + "ms, " + helpers +
+          " pool threads were free");
+
+    int best = 0;
+    for (int a = 0; a < ACTIONS; a++) {
+      if (visits[a] > visits[best] || visits[a] == visits[best] && reward[a] > reward[best])
+        best = a;
+    }
+    return new Decision(TILE_ACTIONS[best / EXPANSIONS.length], EXPANSIONS[best % EXPANSIONS.length], visits,
+        reward);
+  }
+
+  /**
+   * Makes a running decide() return early with what it has.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Whether the two abstract games are the same up to a few percent of fuel and resources.
+   */
+  public boolean closeTo(MacroSearch other) {
+    State a = root, b = other.root;
+    if (a.turn != b.turn || a.tiles != b.tiles || a.workers != b.workers || a.carts != b.carts ||
+        a.research != b.research || !close(a.fuel, b.fuel))
+      return false;
+    for (int type = 0; type < 3; type++) {
+      if (!close(a.near[type], b.near[type]) || !close(a.far[type], b.far[type]))
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean close(double a, double b) {
+    return Math.abs(a - b) <= ROOT_TOLERANCE * Math.max(Math.abs(a), Math.abs(b)) + 1;
+  }
+
+  private Node search(long seed, long deadline) {
+    Node tree = new Node();
+    State state = new State();
+    Node[] path = new Node[HORIZON / PERIOD + 2];
+    long rng = seed == 0 ? 1 : seed;
+
+    // checking the clock every playout costs more than the playout, so check every few. The first few are played
+    // whatever the clock says, a thread that only got the CPU after the deadline still has something to show
+    for (int iteration = 0; ; iteration++) {
+      if ((iteration & 31) == 0 && (cancelled || iteration > 0 && System.nanoTime() > deadline))
+        break;
+      state.copyFrom(root);
+      Node node = tree;
+      int depth = 0;
+      path[depth++] = node;
+
+      // selection and expansion
+      while (!state.done(endTurn)) {
+        if (node.children == null) {
+          node.children = new Node[ACTIONS];
+          for (int a = 0; a < ACTIONS; a++) node.children[a] = new Node();
+        }
+        int action = select(node);
+        state.step(action);
+        node = node.children[action];
+        path[depth++] = node;
+        if (node.visits == 0)
+          break;
+      }
+
+      // playout
+      while (!state.done(endTurn)) {
+        rng ^= rng << 13;
+        rng ^= rng >>> 7;
+        rng ^= rng << 17;
+        state.step((int) Math.floorMod(rng, (long) ACTIONS));
+      }
+
+      double v = state.value();
+      double result = v / (v + rootValue + 1);
+      for (int i = 0; i < depth; i++) {
+        path[i].visits++;
+        path[i].reward += result;
+      }
+    }
+    return tree;
+  }
+
+  private static int select(Node node) {
+    int best = 0;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    double logVisits = Math.log(Math.max(node.visits, 1));
+    for (int a = 0; a < ACTIONS; a++) {
+      Node child = node.children[a];
+      if (child.visits == 0)
+        return a;
+      double score = child.reward / child.visits + EXPLORATION * Math.sqrt(logVisits / child.visits);
+      if (score > bestScore) {
+        bestScore = score;
+        best = a;
+      }
+    }
+    return best;
+  }
+
+  // a search topping up a prior of the same turn shouldn't replay the prior's playouts
+  private long seed(int thread, Decision prior) {
+    return 0x9E3779B97F4A7C15L * (thread + 1) ^ root.turn ^ (prior == null ? 0 : (long) prior.playouts << 32);
+  }
+
+  // Takes up to wanted of the pool threads no other search is using, to be given back by the tasks they run
+  private static int reserveThreads(int wanted) {
+    while (true) {
+      int taken = busy.get();
+      int free = Math.max(0, Math.min(wanted, POOL_THREADS - taken));
+      if (free == 0 || busy.compareAndSet(taken, taken + free))
+        return free;
+    }
+  }
+
+  private static synchronized ExecutorService pool() {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(POOL_THREADS, r -> {
+        Thread thread = new Thread(r, "MacroSearch");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return pool;
+  }
+}
@@ -0,0 +1,136 @@
+package bot;
+
+import lux.Agent;
+import lux.GameState;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Plays LocalMatch games with both bots inside this JVM instead of as processes: each bot is an Agent and a
+ * Coordinator of its own on a thread of its own, reading its observations from and writing its actions to in-memory
+ * pipes. Starting the JVM, loading classes and the JIT's work are paid once for all the matches rather than twice per
+ * match, and what never changes within a map size (the Grids, the search thread pools) is shared. Everything a bot
+ * learns during a match stays in its own Coordinator, so matches don't leak into each other.
+ *
+ * A bot spends most of a match blocked on its pipe, so bots get plain threads from a cached pool (Java 11 has no
+ * virtual threads); how many matches run at once is up to the caller. Search budgets are wall clock time, so running
+ * more matches than there are cores makes the bots play worse, not just slower. Logs of all the bots go to the same
+ * stderr, -Dlog.level=OFF keeps it quiet.
+ *
+ * Run with: java -cp out bot.MatchHost matches size turns [parallel], which plays the bot against itself on seeds
+ * 1..matches and prints the results and the matches per minute.
+ */
+public class MatchHost {
+  private final static String TAG = "MatchHost";
+  // bytes in flight on a pipe, more than a 32x32 observation so the engine never waits on a bot reading it
+  private final static int PIPE_BUFFER = 1 << 16;
+
+  private final ExecutorService bots = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "MatchHost bot");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Plays the match on the calling thread, with the bots configured by params0 and params1.
+   */
+  public LocalMatch.Result play(LocalMatch match, Params params0, Params params1, int maxTurns) throws IOException {
+    Params[] params = {params0, params1};
+    OutputStream[] toBots = new OutputStream[2];
+    InputStream[] fromBots = new InputStream[2];
+    try {
+      for (int p = 0; p < 2; p++) {
+        PipedInputStream botIn = new PipedInputStream(PIPE_BUFFER);
+        toBots[p] = new PipedOutputStream(botIn);
+        PipedInputStream engineIn = new PipedInputStream(PIPE_BUFFER);
+        OutputStream botOut = new PipedOutputStream(engineIn);
+        fromBots[p] = engineIn;
+        Params botParams = params[p];
+        bots.submit(() -> runBot(botIn, botOut, botParams));
+      }
+      return match.play(toBots, fromBots, maxTurns);
+    } finally {
+      // the bots see their input end once they're done with the turn they're on, and stop
+      for (int p = 0; p < 2; p++) {
+        if (toBots[p] != null) toBots[p].close();
+        if (fromBots[p] != null) fromBots[p].close();
+      }
+    }
+  }
+
+  public void shutdown() {
+    bots.shutdownNow();
+  }
+
+  /**
+   * The turn loop of Bot.main over the given streams, until the input ends.
+   */
+  static void runBot(InputStream in, OutputStream out, Params params) {
+    PrintStream printer = new PrintStream(new BufferedOutputStream(out));
+    Agent agent = new Agent(in, printer);
+    Coordinator coordinator = new Coordinator(params);
+    MatchRecorder recorder = null;
+    try {
+      agent.initialize();
+      recorder = MatchRecorder.open(agent.gameState);
+      while (true) {
+        agent.update();
+        GameState gameState = agent.gameState;
+        ArrayList<String> actions = coordinator.generateTurnActions(gameState);
+        printer.println(String.join(",", actions));
+        agent.endTurn();
+        if (recorder != null && !recorder.record(gameState, actions))
+          recorder = null;
+        coordinator.speculate(gameState, actions);
+      }
+    } catch (NoSuchElementException e) {
+      // the engine closed our input, the match is over
+    } catch (RuntimeException e) {
+      // a bot process would have died, the engine sees the output end and gives the match away
+      Log.error(TAG, agent.gameState.turn, "bot failed: " + e);
+    } finally {
+      if (recorder != null)
+        recorder.close();
+      coordinator.close();
+      printer.close();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.err.println("usage: MatchHost matches size turns [parallel]");
+      System.exit(2);
+    }
+    int matches = Integer.parseInt(args[0]), size = Integer.parseInt(args[1]), turns = Integer.parseInt(args[2]);
+    int parallel = args.length > 3 ? Integer.parseInt(args[3]) :
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    if (Warmup.BUDGET_MS > 0)
+      Warmup.run(size, size, Warmup.BUDGET_MS);
+
+    MatchHost host = new MatchHost();
+    ExecutorService engines = Executors.newFixedThreadPool(parallel);
+    long start = System.nanoTime();
+    try {
+      ArrayList<Future<LocalMatch.Result>> results = new ArrayList<>();
+      for (int seed = 1; seed <= matches; seed++) {
+        LocalMatch match = new LocalMatch(size, size, seed);
+        results.add(engines.submit(() -> host.play(match, Params.fromSystemProperties(),
+            Params.fromSystemProperties(), turns)));
+      }
+      int[] wins = new int[3];
+      for (int m = 0; m < matches; m++) {
+        LocalMatch.Result result = results.get(m).get();
+        wins[result.winner + 1]++;
+        System.out.println("seed " + (m + 1) + ": " + result);
+      }
+      double minutes = (System.nanoTime() - start) / 6e10;
+      System.out.printf("%d matches in %.1f min, %d at a time: %.1f matches/min, bot 0 won %d, bot 1 won %d, " +
+          "%d draws%n", matches, minutes, parallel, matches / minutes, wins[1], wins[2], wins[0]);
+    } finally {
+      engines.shutdownNow();
+      host.shutdown();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package bot;
+
+import lux.*;
+
+import java.util.Arrays;
+
+/**
+ * What the Coordinator remembers about its own units and cities from one turn to the next, so a unit keeps working
+ * on a mission instead of being re-planned from scratch every turn.
+ *
+ * Unit and city ids ("u_12", "c_3") are interned to their number and used directly as indices into primitive arrays
+ * that grow as new ids show up.
+ */
+public class MatchMemory {
+
+  public enum Mission {NONE, REFUEL, COLONIZE}
+
+  private int turn = 0;
+
+  private Mission[] unitMission = new Mission[0];
+  // cell id (y * width + x) for colonizers, interned city id for refuelers, -1 otherwise
+  private int[] unitTarget = new int[0];
+  private int[] unitAssignedTurn = new int[0];
+  private int[] unitLastSeen = new int[0];
+  // Route a Navigator committed the unit to: the cells it planned to be on turn by turn from where it stood, which
+  // kind of routing planned it, and how far along the unit was when last seen on it. Dropped with the mission
+  private int[][] unitPath = new int[0][];
+  private Navigator.Route[] unitPathRoute = new Navigator.Route[0];
+  private int[] unitPathIndex = new int[0];
+
+  private int[] cityLastSeen = new int[0];
+
+  public static int intern(String id) {
+    return Integer.parseInt(id.substring(id.indexOf('_') + 1));
+  }
+
+  /**
+   * Records which of our units and cities still exist and forgets the missions of units that are gone.
+   */
+  public void beginTurn(int turn, Player player) {
+    this.turn = turn;
+    for (Unit unit : player.units) {
+      int id = unitSlot(unit);
+      unitLastSeen[id] = turn;
+    }
+    for (int id = 0; id < unitMission.length; id++) {
+      if (unitLastSeen[id] != turn && unitMission[id] != Mission.NONE) {
+        unitMission[id] = Mission.NONE;
+        unitTarget[id] = -1;
+      }
+      if (unitLastSeen[id] != turn)
+        unitPath[id] = null;
+    }
+    for (City city : player.cities.values()) {
+      int id = intern(city.cityid);
+      if (id >= cityLastSeen.length) {
+        cityLastSeen = Arrays.copyOf(cityLastSeen, Math.max(id + 1, cityLastSeen.length * 2));
+      }
+      cityLastSeen[id] = turn;
+    }
+  }
+
+  public Mission mission(Unit unit) {
+    return unitMission[unitSlot(unit)];
+  }
+
+  public int targetCell(Unit unit) {
+    int id = unitSlot(unit);
+    return unitMission[id] == Mission.COLONIZE ? unitTarget[id] : -1;
+  }
+
+  public String targetCity(Unit unit) {
+    int id = unitSlot(unit);
+    return unitMission[id] == Mission.REFUEL ? "c_" + unitTarget[id] : null;
+  }
+
+  // Turns since the unit was given its current mission
+  public int missionAge(Unit unit) {
+    return turn - unitAssignedTurn[unitSlot(unit)];
+  }
+
+  public boolean cityExists(String cityId) {
+    int id = intern(cityId);
+    return id < cityLastSeen.length && cityLastSeen[id] == turn;
+  }
+
+  public void colonize(Unit unit, int targetCell) {
+    assign(unitSlot(unit), Mission.COLONIZE, targetCell);
+  }
+
+  public void refuel(Unit unit, String cityId) {
+    assign(unitSlot(unit), Mission.REFUEL, intern(cityId));
+  }
+
+  public void clear(Unit unit) {
+    assign(unitSlot(unit), Mission.NONE, -1);
+  }
+
+  public void commitPath(Unit unit, Navigator.Route route, int[] cells) {
+    int id = unitSlot(unit);
+    unitPath[id] = cells;
+    unitPathRoute[id] = route;
+    unitPathIndex[id] = 0;
+  }
+
+  // The unit's committed path if the same kind of routing planned it, null otherwise
+  public int[] path(Unit unit, Navigator.Route route) {
+    int id = unitSlot(unit);
+    return unitPathRoute[id] == route ? unitPath[id] : null;
+  }
+
+  public int pathIndex(Unit unit) {
+    return unitPathIndex[unitSlot(unit)];
+  }
+
+  public void advancePath(Unit unit, int index) {
+    unitPathIndex[unitSlot(unit)] = index;
+  }
+
+  public void dropPath(Unit unit) {
+    unitPath[unitSlot(unit)] = null;
+  }
+
+  private void assign(int id, Mission mission, int target) {
+    if (unitMission[id] == mission && unitTarget[id] == target)
+      return;
+    unitMission[id] = mission;
+    unitTarget[id] = target;
+    unitAssignedTurn[id] = turn;
+    // a path toward the old goal is no use any more
+    unitPath[id] = null;
+  }
+
+  private int unitSlot(Unit unit) {
+    int id = intern(unit.id);
+    if (id >= unitMission.length) {
+      int size = Math.max(id + 1, unitMission.length * 2);
+      int oldSize = unitMission.length;
+      unitMission = Arrays.copyOf(unitMission, size);
+      Arrays.fill(unitMission, oldSize, size, Mission.NONE);
+      unitTarget = Arrays.copyOf(unitTarget, size);
+      Arrays.fill(unitTarget, oldSize, size, -1);
+      unitAssignedTurn = Arrays.copyOf(unitAssignedTurn, size);
+      unitLastSeen = Arrays.copyOf(unitLastSeen, size);
+      unitPath = Arrays.copyOf(unitPath, size);
+      unitPathRoute = Arrays.copyOf(unitPathRoute, size);
+      unitPathIndex = Arrays.copyOf(unitPathIndex, size);
+    }
+    return id;
+  }
+}
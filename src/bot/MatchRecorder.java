@@ -0,0 +1,320 @@
+package bot;
+
+import lux.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records every observation and the actions the bot sent back into a compact binary file, read back with
+ * MatchRecording.
+ *
+ * After a header (magic, version, map size, our team) every turn is one frame, prefixed with its length so a reader
+ * can skip it. A frame holds columns rather than records: the ids of all units, then all their x's, all their y's
+ * and so on, each value a varint of its change since the turn before (zigzag where it can go down). Resources and
+ * roads only list the cells that changed. Cooldowns, fuel and roads are stored in hundredths. The actions go last, as
+ * the strings that were sent. A frame is encoded into one buffer and written to the channel in one go, so a turn
+ * costs one write call.
+ *
+ * Turn it on with -Drecord.dir=some/dir. A recording that can't be written is dropped, it must not cost the match.
+ */
+public class MatchRecorder {
+  private final static String TAG = "MatchRecorder";
+  final static int MAGIC = 0x4c58524d; // "LXRM"
+  final static int VERSION = 1;
+  public final static String SUFFIX = ".lxr";
+
+  private final static String DIR = System.getProperty("record.dir");
+  // numbers the recordings of this JVM, a MatchHost plays many matches in one
+  private final static AtomicInteger recordings = new AtomicInteger();
+
+  private final FileChannel channel;
+  private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+  private final int width, height;
+  private final Grid grid;
+
+  // what the previous frame held, everything is written relative to it
+  private final byte[] resourceType;
+  private final int[] resourceAmount, road;
+  private int[] unitX = new int[0], unitY = new int[0], unitCooldown = new int[0];
+  private int[] unitWood = new int[0], unitCoal = new int[0], unitUranium = new int[0];
+  private int[] cityFuel = new int[0];
+
+  /**
+   * A recorder for the match about to start, or null if recording is off or the file can't be created.
+   */
+  public static MatchRecorder open(GameState gameState) {
+    if (DIR == null)
+      return null;
+    File file = new File(DIR, String.format("%d-%d-%d%s", ProcessHandle.current().pid(),
+        recordings.getAndIncrement(), gameState.id, SUFFIX));
+    try {
+      file.getParentFile().mkdirs();
+      return new MatchRecorder(file, gameState.map.width, gameState.map.height, gameState.id);
+    } catch (IOException e) {
+      Log.warn(TAG, -1, "could not create " + file + ": " + e);
+      return null;
+    }
+  }
+
+  public MatchRecorder(File file, int width, int height, int team) throws IOException {
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    this.width = width;
+    this.height = height;
+    this.grid = Grid.of(width, height);
+    this.resourceType = new byte[width * height];
+    this.resourceAmount = new int[width * height];
+    this.road = new int[width * height];
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(team);
+    flush();
+  }
+
+  /**
+   * Appends the turn. Returns false (and closes the file) if it couldn't be written.
+   */
+  public boolean record(GameState gameState, List<String> actions) {
+    try {
+      buffer.putInt(0);
+      writeFrame(gameState, actions);
+      buffer.putInt(0, buffer.position() - 4);
+      flush();
+      return true;
+    } catch (IOException e) {
+      Log.warn(TAG, gameState.turn, "recording stopped: " + e);
+      close();
+      return false;
+    }
+  }
+
+  public void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      Log.warn(TAG, -1, "could not close the recording: " + e);
+    }
+  }
+
+  private void writeFrame(GameState gameState, List<String> actions) {
+    putVarint(gameState.turn);
+    putVarint(gameState.players[0].researchPoints);
+    putVarint(gameState.players[1].researchPoints);
+
+    // resources and roads: the cells that changed
+    int changed = 0;
+    for (int cellId = 0; cellId < grid.cellCount; cellId++) {
+      Cell cell = cell(gameState, cellId);
+      if (type(cell) != resourceType[cellId] || amount(cell) != resourceAmount[cellId])
+        changed++;
+    }
+    putVarint(changed);
+    for (int cellId = 0, last = -1; cellId < grid.cellCount; cellId++) {
+      Cell cell = cell(gameState, cellId);
+      byte type = type(cell);
+      int amount = amount(cell);
+      if (type == resourceType[cellId] && amount == resourceAmount[cellId])
+        continue;
+      putVarint(cellId - last - 1);
+      put(type);
+      putZigzag(amount - resourceAmount[cellId]);
+      resourceType[cellId] = type;
+      resourceAmount[cellId] = amount;
+      last = cellId;
+    }
+    changed = 0;
+    for (int cellId = 0; cellId < grid.cellCount; cellId++) {
+      if (hundredths(cell(gameState, cellId).road) != road[cellId])
+        changed++;
+    }
+    putVarint(changed);
+    for (int cellId = 0, last = -1; cellId < grid.cellCount; cellId++) {
+      int value = hundredths(cell(gameState, cellId).road);
+      if (value == road[cellId])
+        continue;
+      putVarint(cellId - last - 1);
+      putZigzag(value - road[cellId]);
+      road[cellId] = value;
+      last = cellId;
+    }
+
+    // units of both teams by id, one column at a time
+    ArrayList<Unit> units = new ArrayList<>(gameState.players[0].units);
+    units.addAll(gameState.players[1].units);
+    int[] ids = new int[units.size()];
+    Integer[] order = new Integer[units.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = MatchMemory.intern(units.get(i).id);
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingInt(i -> ids[i]));
+    growUnits(ids.length == 0 ? 0 : ids[order[ids.length - 1]] + 1);
+    putVarint(ids.length);
+    for (int i = 0, last = -1; i < ids.length; i++) {
+      putVarint(ids[order[i]] - last - 1);
+      last = ids[order[i]];
+    }
+    for (int i : order) {
+      put((byte) (units.get(i).team | units.get(i).type << 1));
+    }
+    for (int i : order) {
+      unitX[ids[i]] = putDelta(units.get(i).pos.x, unitX[ids[i]]);
+    }
+    for (int i : order) {
+      unitY[ids[i]] = putDelta(units.get(i).pos.y, unitY[ids[i]]);
+    }
+    for (int i : order) {
+      unitCooldown[ids[i]] = putDelta(hundredths(units.get(i).cooldown), unitCooldown[ids[i]]);
+    }
+    for (int i : order) {
+      unitWood[ids[i]] = putDelta(units.get(i).cargo.wood, unitWood[ids[i]]);
+    }
+    for (int i : order) {
+      unitCoal[ids[i]] = putDelta(units.get(i).cargo.coal, unitCoal[ids[i]]);
+    }
+    for (int i : order) {
+      unitUranium[ids[i]] = putDelta(units.get(i).cargo.uranium, unitUranium[ids[i]]);
+    }
+
+    // cities of both teams by id, then their tiles by cell
+    ArrayList<City> cities = new ArrayList<>(gameState.players[0].cities.values());
+    cities.addAll(gameState.players[1].cities.values());
+    cities.sort(Comparator.comparingInt(city -> MatchMemory.intern(city.cityid)));
+    if (!cities.isEmpty()) {
+      int maxId = MatchMemory.intern(cities.get(cities.size() - 1).cityid);
+      if (maxId >= cityFuel.length)
+        cityFuel = Arrays.copyOf(cityFuel, Math.max(maxId + 1, cityFuel.length * 2));
+    }
+    putVarint(cities.size());
+    int last = -1;
+    for (City city : cities) {
+      int id = MatchMemory.intern(city.cityid);
+      putVarint(id - last - 1);
+      last = id;
+    }
+    for (City city : cities) {
+      put((byte) city.team);
+    }
+    for (City city : cities) {
+      int id = MatchMemory.intern(city.cityid);
+      cityFuel[id] = putDelta(hundredths(city.fuel), cityFuel[id]);
+    }
+    for (City city : cities) {
+      putVarint(hundredths(city.getLightUpkeep()));
+    }
+    int tiles = 0;
+    for (int cellId = 0; cellId < grid.cellCount; cellId++) {
+      if (cell(gameState, cellId).hasCityTile())
+        tiles++;
+    }
+    putVarint(tiles);
+    last = -1;
+    for (int cellId = 0; cellId < grid.cellCount; cellId++) {
+      if (!cell(gameState, cellId).hasCityTile())
+        continue;
+      putVarint(cellId - last - 1);
+      last = cellId;
+    }
+    for (int cellId = 0; cellId < grid.cellCount; cellId++) {
+      Cell cell = cell(gameState, cellId);
+      if (cell.hasCityTile())
+        putVarint(MatchMemory.intern(cell.citytile.cityid));
+    }
+    for (int cellId = 0; cellId < grid.cellCount; cellId++) {
+      Cell cell = cell(gameState, cellId);
+      if (cell.hasCityTile())
+        putVarint(hundredths(cell.citytile.cooldown));
+    }
+
+    putVarint(actions.size());
+    for (String action : actions) {
+      byte[] bytes = action.getBytes(StandardCharsets.UTF_8);
+      putVarint(bytes.length);
+      ensure(bytes.length);
+      buffer.put(bytes);
+    }
+  }
+
+  private Cell cell(GameState gameState, int cellId) {
+    return gameState.map.getCell(grid.x(cellId), grid.y(cellId));
+  }
+
+  private void growUnits(int size) {
+    if (size <= unitX.length)
+      return;
+    size = Math.max(size, unitX.length * 2);
+    unitX = Arrays.copyOf(unitX, size);
+    unitY = Arrays.copyOf(unitY, size);
+    unitCooldown = Arrays.copyOf(unitCooldown, size);
+    unitWood = Arrays.copyOf(unitWood, size);
+    unitCoal = Arrays.copyOf(unitCoal, size);
+    unitUranium = Arrays.copyOf(unitUranium, size);
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  static byte type(Cell cell) {
+    if (cell.resource == null)
+      return GameSnapshot.NO_RESOURCE;
+    switch (cell.resource.type) {
+      case GameConstants.RESOURCE_TYPES.WOOD:
+        return GameSnapshot.WOOD;
+      case GameConstants.RESOURCE_TYPES.COAL:
+        return GameSnapshot.COAL;
+      default:
+        return GameSnapshot.URANIUM;
+    }
+  }
+
+  private static int amount(Cell cell) {
+    return cell.resource == null ? 0 : cell.resource.amount;
+  }
+
+  static int hundredths(double value) {
+    return (int) Math.round(value * 100);
+  }
+
+  // Writes value relative to previous and returns value, to be stored as the next previous
+  private int putDelta(int value, int previous) {
+    putZigzag(value - previous);
+    return value;
+  }
+
+  private void put(byte value) {
+    ensure(1);
+    buffer.put(value);
+  }
+
+  private void putZigzag(int value) {
+    putVarint(value << 1 ^ value >> 31);
+  }
+
+  private void putVarint(int value) {
+    ensure(5);
+    while ((value & ~0x7f) != 0) {
+      buffer.put((byte) (value & 0x7f | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private void ensure(int bytes) {
+    if (buffer.remaining() >= bytes)
+      return;
+    ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+    buffer.flip();
+    bigger.put(buffer);
+    buffer = bigger;
+  }
+}
@@ -0,0 +1,300 @@
+package bot;
+
+import lux.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads a match written by MatchRecorder, one turn at a time. The file is memory mapped and decoded straight into
+ * the public arrays below, which are reused from turn to turn, so going through thousands of recordings allocates
+ * next to nothing; toGameState builds a GameState for planners that want one.
+ *
+ * A recording that ends mid frame (the engine killed the bot while it was writing) ends at the last whole turn.
+ *
+ * Run with: java -cp out bot.MatchRecording dir-or-files... for a summary of the recordings and the reading speed.
+ */
+public class MatchRecording {
+  public final int width, height, team;
+
+  public int turn;
+  public final int[] researchPoints = new int[2];
+  // per cell, y * width + x; resource types as in GameSnapshot
+  public final byte[] resourceType;
+  public final int[] resourceAmount;
+  public final double[] road;
+
+  public int unitCount;
+  public int[] unitId = new int[0], unitTeam = new int[0], unitType = new int[0], unitX = new int[0],
+      unitY = new int[0], unitWood = new int[0], unitCoal = new int[0], unitUranium = new int[0];
+  public double[] unitCooldown = new double[0];
+
+  public int cityCount;
+  public int[] cityId = new int[0], cityTeam = new int[0];
+  public double[] cityFuel = new double[0], cityLightUpkeep = new double[0];
+
+  public int tileCount;
+  public int[] tileCell = new int[0], tileCity = new int[0];
+  public double[] tileCooldown = new double[0];
+
+  public final ArrayList<String> actions = new ArrayList<>();
+
+  private final ByteBuffer buffer;
+  private final int[] roadHundredths;
+  // the previous turn's values by unit or city id, frames only hold the changes
+  private int[] lastX = new int[0], lastY = new int[0], lastCooldown = new int[0], lastWood = new int[0],
+      lastCoal = new int[0], lastUranium = new int[0], lastFuel = new int[0];
+
+  public MatchRecording(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      this.buffer = mapped;
+    }
+    if (buffer.remaining() < 20 || buffer.getInt() != MatchRecorder.MAGIC)
+      throw new IOException(file + " is not a match recording");
+    int version = buffer.getInt();
+    if (version != MatchRecorder.VERSION)
+      throw new IOException(file + " has version " + version + ", expected " + MatchRecorder.VERSION);
+    width = buffer.getInt();
+    height = buffer.getInt();
+    team = buffer.getInt();
+    resourceType = new byte[width * height];
+    resourceAmount = new int[width * height];
+    road = new double[width * height];
+    roadHundredths = new int[width * height];
+  }
+
+  /**
+   * Moves on to the next recorded turn. Returns false once there is none.
+   */
+  public boolean next() {
+    if (buffer.remaining() < 4)
+      return false;
+    int length = buffer.getInt(buffer.position());
+    if (length <= 0 || buffer.remaining() - 4 < length)
+      return false;
+    buffer.position(buffer.position() + 4);
+
+    turn = getVarint();
+    researchPoints[0] = getVarint();
+    researchPoints[1] = getVarint();
+
+    for (int i = getVarint(), cellId = -1; i > 0; i--) {
+      cellId += getVarint() + 1;
+      resourceType[cellId] = buffer.get();
+      resourceAmount[cellId] += getZigzag();
+    }
+    for (int i = getVarint(), cellId = -1; i > 0; i--) {
+      cellId += getVarint() + 1;
+      roadHundredths[cellId] += getZigzag();
+      road[cellId] = roadHundredths[cellId] / 100.0;
+    }
+
+    unitCount = getVarint();
+    if (unitId.length < unitCount)
+      growUnitColumns(unitCount);
+    for (int i = 0, id = -1; i < unitCount; i++) {
+      id += getVarint() + 1;
+      unitId[i] = id;
+    }
+    if (unitCount > 0)
+      growUnitHistory(unitId[unitCount - 1] + 1);
+    for (int i = 0; i < unitCount; i++) {
+      byte kind = buffer.get();
+      unitTeam[i] = kind & 1;
+      unitType[i] = kind >> 1;
+    }
+    for (int i = 0; i < unitCount; i++) {
+      unitX[i] = lastX[unitId[i]] += getZigzag();
+    }
+    for (int i = 0; i < unitCount; i++) {
+      unitY[i] = lastY[unitId[i]] += getZigzag();
+    }
+    for (int i = 0; i < unitCount; i++) {
+      unitCooldown[i] = (lastCooldown[unitId[i]] += getZigzag()) / 100.0;
+    }
+    for (int i = 0; i < unitCount; i++) {
+      unitWood[i] = lastWood[unitId[i]] += getZigzag();
+    }
+    for (int i = 0; i < unitCount; i++) {
+      unitCoal[i] = lastCoal[unitId[i]] += getZigzag();
+    }
+    for (int i = 0; i < unitCount; i++) {
+      unitUranium[i] = lastUranium[unitId[i]] += getZigzag();
+    }
+
+    cityCount = getVarint();
+    if (cityId.length < cityCount) {
+      int size = Math.max(cityCount, cityId.length * 2);
+      cityId = Arrays.copyOf(cityId, size);
+      cityTeam = Arrays.copyOf(cityTeam, size);
+      cityFuel = Arrays.copyOf(cityFuel, size);
+      cityLightUpkeep = Arrays.copyOf(cityLightUpkeep, size);
+    }
+    for (int i = 0, id = -1; i < cityCount; i++) {
+      id += getVarint() + 1;
+      cityId[i] = id;
+    }
+    if (cityCount > 0 && cityId[cityCount - 1] >= lastFuel.length)
+      lastFuel = Arrays.copyOf(lastFuel, Math.max(cityId[cityCount - 1] + 1, lastFuel.length * 2));
+    for (int i = 0; i < cityCount; i++) {
+      cityTeam[i] = buffer.get();
+    }
+    for (int i = 0; i < cityCount; i++) {
+      cityFuel[i] = (lastFuel[cityId[i]] += getZigzag()) / 100.0;
+    }
+    for (int i = 0; i < cityCount; i++) {
+      cityLightUpkeep[i] = getVarint() / 100.0;
+    }
+
+    tileCount = getVarint();
+    if (tileCell.length < tileCount) {
+      int size = Math.max(tileCount, tileCell.length * 2);
+      tileCell = Arrays.copyOf(tileCell, size);
+      tileCity = Arrays.copyOf(tileCity, size);
+      tileCooldown = Arrays.copyOf(tileCooldown, size);
+    }
+    for (int i = 0, cellId = -1; i < tileCount; i++) {
+      cellId += getVarint() + 1;
+      tileCell[i] = cellId;
+    }
+    for (int i = 0; i < tileCount; i++) {
+      tileCity[i] = getVarint();
+    }
+    for (int i = 0; i < tileCount; i++) {
+      tileCooldown[i] = getVarint() / 100.0;
+    }
+
+    actions.clear();
+    for (int i = getVarint(); i > 0; i--) {
+      int bytes = getVarint();
+      actions.add(new String(bytes(bytes), StandardCharsets.UTF_8));
+    }
+    return true;
+  }
+
+  /**
+   * The current turn as the Agent would have parsed it.
+   */
+  public GameState toGameState() {
+    GameState gameState = new GameState();
+    gameState.turn = turn;
+    gameState.id = team;
+    gameState.map = new GameMap(width, height);
+    for (int t = 0; t < 2; t++) {
+      gameState.players[t].researchPoints = researchPoints[t];
+    }
+    for (int cellId = 0; cellId < width * height; cellId++) {
+      int x = cellId % width, y = cellId / width;
+      if (resourceType[cellId] != GameSnapshot.NO_RESOURCE && resourceAmount[cellId] > 0)
+        gameState.map._setResource(resourceName(resourceType[cellId]), x, y, resourceAmount[cellId]);
+      gameState.map.getCell(x, y).road = road[cellId];
+    }
+    for (int i = 0; i < unitCount; i++) {
+      gameState.players[unitTeam[i]].units.add(new Unit(unitTeam[i], unitType[i], "u_" + unitId[i],
+          unitX[i], unitY[i], unitCooldown[i], unitWood[i], unitCoal[i], unitUranium[i]));
+    }
+    for (int i = 0; i < cityCount; i++) {
+      gameState.players[cityTeam[i]].cities.put("c_" + cityId[i],
+          new City(cityTeam[i], "c_" + cityId[i], cityFuel[i], cityLightUpkeep[i]));
+    }
+    for (int i = 0; i < tileCount; i++) {
+      int x = tileCell[i] % width, y = tileCell[i] / width;
+      for (Player player : gameState.players) {
+        City city = player.cities.get("c_" + tileCity[i]);
+        if (city == null)
+          continue;
+        gameState.map.getCell(x, y).citytile = city._add_city_tile(x, y, tileCooldown[i]);
+        player.cityTileCount++;
+      }
+    }
+    return gameState;
+  }
+
+  private static String resourceName(byte type) {
+    switch (type) {
+      case GameSnapshot.WOOD:
+        return GameConstants.RESOURCE_TYPES.WOOD;
+      case GameSnapshot.COAL:
+        return GameConstants.RESOURCE_TYPES.COAL;
+      default:
+        return GameConstants.RESOURCE_TYPES.URANIUM;
+    }
+  }
+
+  private void growUnitColumns(int size) {
+    size = Math.max(size, unitId.length * 2);
+    unitId = Arrays.copyOf(unitId, size);
+    unitTeam = Arrays.copyOf(unitTeam, size);
+    unitType = Arrays.copyOf(unitType, size);
+    unitX = Arrays.copyOf(unitX, size);
+    unitY = Arrays.copyOf(unitY, size);
+    unitCooldown = Arrays.copyOf(unitCooldown, size);
+    unitWood = Arrays.copyOf(unitWood, size);
+    unitCoal = Arrays.copyOf(unitCoal, size);
+    unitUranium = Arrays.copyOf(unitUranium, size);
+  }
+
+  private void growUnitHistory(int size) {
+    if (size <= lastX.length)
+      return;
+    size = Math.max(size, lastX.length * 2);
+    lastX = Arrays.copyOf(lastX, size);
+    lastY = Arrays.copyOf(lastY, size);
+    lastCooldown = Arrays.copyOf(lastCooldown, size);
+    lastWood = Arrays.copyOf(lastWood, size);
+    lastCoal = Arrays.copyOf(lastCoal, size);
+    lastUranium = Arrays.copyOf(lastUranium, size);
+  }
+
+  private byte[] bytes(int count) {
+    byte[] bytes = new byte[count];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private int getZigzag() {
+    int value = getVarint();
+    return value >>> 1 ^ -(value & 1);
+  }
+
+  private int getVarint() {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7f) << shift;
+      if (b >= 0)
+        return value;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    ArrayList<File> files = new ArrayList<>();
+    for (String arg : args) {
+      File file = new File(arg);
+      File[] inDir = file.listFiles((dir, name) -> name.endsWith(MatchRecorder.SUFFIX));
+      if (inDir != null) files.addAll(Arrays.asList(inDir));
+      else files.add(file);
+    }
+    long start = System.nanoTime(), bytes = 0, turns = 0, units = 0, actionCount = 0;
+    for (File file : files) {
+      MatchRecording recording = new MatchRecording(file);
+      while (recording.next()) {
+        turns++;
+        units += recording.unitCount;
+        actionCount += recording.actions.size();
+      }
+      bytes += file.length();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%d recordings, %d turns, %d units, %d actions, %.1f KB per turn%n", files.size(), turns, units,
+        actionCount, turns == 0 ? 0 : bytes / 1024.0 / turns);
+    System.out.printf("read in %.2fs: %.0f turns/s, %.1f MB/s%n", seconds, turns / seconds, bytes / 1e6 / seconds);
+  }
+}
@@ -5,7 +5,30 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 public class MinCostMaxFlow{
+  // Graphs with at least this many unit sources go to the primal-dual solver
+  private final static int PRIMAL_DUAL_MIN_SOURCES = 3;
+  // Set -Dflow.validate=true to solve every graph with both solvers and log any disagreement
+  private final static boolean VALIDATE = Boolean.getBoolean("flow.validate");
+
+  public final static FlowSolver SPFA = new FlowSolver() {
+    @Override
+    public long[] solve(MinCostMaxFlow graph) {
+      return graph.spfaFlow();
+    }
+
+    @Override
+    public String name() {
+      return "spfa";
+    }
+  };
+
   ArrayList<Edge>[] adj;
+  // forward edges in the order they were added
+  final ArrayList<Edge> edges = new ArrayList<>();
+  private int maxSourceCap = 0, sourceEdges = 0;
+  private FlowSolver solver;
+  // what built the graph, used to name dumps
+  private String name = "flow";
   ArrayDeque<Integer> q;
   int n, s, t;
   long[] dist, min;
@@ -40,8 +63,46 @@ public class MinCostMaxFlow{
     Edge rev = new Edge(v2,v1,0,-cost);
     adj[v1].add(rev.rev=e);
     adj[v2].add(e.rev=rev);
+    edges.add(e);
+    if (v1 == s) {
+      maxSourceCap = Math.max(maxSourceCap, cap);
+      sourceEdges++;
+    }
     return e;
   }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  // Forces a solver instead of picking one by the shape of the graph
+  public void setSolver(FlowSolver solver) {
+    this.solver = solver;
+  }
+
+  /**
+   * SPFA augmentation costs one full pass per augmenting path. With unit source capacities (the Navigator's unit
+   * routing) that is one pass per unit, and from about three units on the primal-dual solver is faster, whatever the
+   * size of the graph. With one or two units, or sources carrying large amounts (the Surveyor's fuel graph) that
+   * saturate in a few big augmentations, SPFA is as fast or faster. Numbers from FlowBenchmark on captured graphs.
+   */
+  public FlowSolver chooseSolver() {
+    if (solver != null)
+      return solver;
+    if (sourceEdges >= PRIMAL_DUAL_MIN_SOURCES && maxSourceCap <= 1)
+      return new PrimalDualSolver();
+    return SPFA;
+  }
+
+  // Same nodes and edges (with their metadata), none of the flow
+  public MinCostMaxFlow copy() {
+    MinCostMaxFlow copy = new MinCostMaxFlow(n - 2);
+    for (Edge e : edges) {
+      copy.add(e.v1, e.v2, e.cap, e.cost).setMetadata(e.metadata);
+    }
+    copy.name = name;
+    return copy;
+  }
   private boolean spfa() {
     Arrays.fill(dist, oo);
     path[t] = null;
@@ -61,6 +122,29 @@ public class MinCostMaxFlow{
     return dist[t]==oo?false:true;
   }
   public long[] flow() {
+    FlowSolver chosen = chooseSolver();
+    if (!VALIDATE && !FlowDump.enabled())
+      return chosen.solve(this);
+
+    MinCostMaxFlow other = copy();
+    long start = System.nanoTime();
+    long[] result = chosen.solve(this);
+    long nanos = System.nanoTime() - start;
+    if (FlowDump.enabled())
+      FlowDump.capture(name, other, result, nanos);
+    if (!VALIDATE)
+      return result;
+
+    FlowSolver otherSolver = chosen == SPFA ? new PrimalDualSolver() : SPFA;
+    long[] expected = otherSolver.solve(other);
+    if (result[0] != expected[0] || result[1] != expected[1]) {
+      Log.warn("MinCostMaxFlow", -1, chosen.name() + " gave " + Arrays.toString(result) + " but " +
+          otherSolver.name() + " gave " + Arrays.toString(expected) + " (" + n + " nodes, " + edges.size() + " edges)");
+    }
+    return result;
+  }
+
+  long[] spfaFlow() {
     long cost = 0, flow = 0;
     while(spfa()){
       for(int i = t; path[i]!=null ; i=path[i].v1){
@@ -3,431 +3,746 @@ package bot;
 import lux.*;
 
 import java.util.*;
+import java.util.function.Function;
 
 public class Navigator {
   final private String TAG = "Navigator";
 
+  // Which routing call planned a committed path, a path is only followed again by the same kind of call
+  public enum Route {RESOURCES, CITY, COLONY, LEFTOVERS}
+
   final private Player player;
   final private GameState gameState;
   final private GameMap gameMap;
 
-  private final int timeLayers = 5;
+  // Longest look-ahead a routing graph is ever built with
+  private final static int MAX_TIME_LAYERS = 8;
+  // Graphs bigger than this get a shorter look-ahead, down to MIN_TIME_LAYERS. A 32x32 map never comes close (its
+  // whole space-time grid is about 17k nodes), big maps full of units would otherwise grow with their area
+  private final static int MAX_GRAPH_NODES = 40_000;
+  private final static int MIN_TIME_LAYERS = 2;
+  private final static int UNREACHABLE = BfsKernel.UNREACHABLE;
+
+  // Picked per routing call by chooseTimeLayers
+  private int timeLayers = 1;
+  // Whether some source can't reach a sink inside the horizon, so the last layer needs a way out for it: an edge
+  // to the sink costing the distance still to go from there
+  private boolean needsTail = false;
+  // Instead of the distance to the closest sink, the last layer is connected to every sink by the sector map's
+  // distance estimate
+  private boolean heuristicTail = false;
+  // BFS distance from every cell to the closest sink, null when nothing should be pruned by it
+  private int[] sinkDist;
+  // How many of the closest sinks (by straight distance) each last-layer cell gets a heuristic edge to
+  private final static int HEURISTIC_SINKS_PER_CELL = 4;
+
+  // BFS distance from the routed units up to the horizon, and the cells they can reach in visiting (so
+  // non-decreasing distance) order. The graph never holds more than those cells, whatever the size of the map
+  private int[] sourceDist;
+  private int[] reachOrder;
+  // layerEnd[t] is how many cells of reachOrder can be occupied at time t, timeLayers being the tail layer
+  private int[] layerEnd;
+  // Index of every cell in reachOrder, -1 for cells the units can't reach inside the horizon
+  private int[] regionPos;
+  private int regionSize;
+  // Dense node ids of the space-time cells kept in the graph (-1 when pruned), by time and region index, and the
+  // cell behind every node
+  private int[] nodeIds;
+  private int[] nodeCells;
+  // 2t for the in node of layer t, 2t+1 for its out node, 2 * timeLayers for the tail layer
+  private int[] nodeTimes;
+
+  private final Grid grid;
+  private final int cellCount;
+  // taken[t] holds the cells this or an earlier routing pass has used up at time t
+  private final Bitboard[] taken;
+  // by time and region index
+  private MinCostMaxFlow.Edge[][] selfEdges;
 
   private MinCostMaxFlow flow;
 
-  private final static int[] dx = {-1, 0, 1, 0, 0}, dy = {0, -1, 0, 1, 0};
+  // Long range distances kept by the Coordinator between turns, may be null
+  private final SectorMap sectorMap;
+  // Predicted enemy positions, may be null in which case enemy units are static obstacles
+  private final OpponentModel opponentModel;
+  // What being on a cell an enemy unit is sure to be on costs, scaled down by how likely it is
+  private final static int ENEMY_OCCUPANCY_COST = 10;
+  // Where committed paths are kept between turns, may be null in which case every unit is routed every turn
+  private final MatchMemory memory;
 
   public Navigator(GameState gameState) {
+    this(gameState, null, null, null);
+  }
+
+  public Navigator(GameState gameState, SectorMap sectorMap, OpponentModel opponentModel, MatchMemory memory) {
     this.gameState = gameState;
+    this.sectorMap = sectorMap;
+    this.opponentModel = opponentModel;
+    this.memory = memory;
     this.gameMap = gameState.map;
     this.player = gameState.players[gameState.id];
+    this.grid = Grid.of(gameMap.width, gameMap.height);
+    this.cellCount = grid.cellCount;
+    this.taken = new Bitboard[MAX_TIME_LAYERS];
+    for (int t = 0; t < MAX_TIME_LAYERS; t++) {
+      taken[t] = new Bitboard(gameMap.width, gameMap.height);
+    }
   }
 
-  private int convertCoordinateToInt(int x, int y) {
-    return y * gameMap.width + x;
+  private int node(int layer, int cellId) {
+    int pos = regionPos[cellId];
+    return pos == -1 ? -1 : nodeIds[layer * regionSize + pos];
   }
 
-  private Position convertIntToCoordinate(int pos) {
-    return new Position(pos % gameMap.width, pos / gameMap.width);
+  private int inNode(int t, int cellId) {
+    return node(2 * t, cellId);
   }
 
-  private HashSet<Integer> cityTileLocationsForPlayer(Player p) {
-    HashSet<Integer> locs = new HashSet<>();
-    p.cities.values().forEach(city -> {
-      city.citytiles.forEach(cityTile -> {
-        locs.add(convertCoordinateToInt(cityTile.pos.x, cityTile.pos.y));
-      });
-    });
-    return locs;
+  private int outNode(int t, int cellId) {
+    return node(2 * t + 1, cellId);
   }
 
-  private HashSet<Integer> newCityPathObstacles(ArrayList<Unit> ignoreUnits) {
-    Player opponent = gameState.players[(gameState.id + 1) % 2];
+  private int tailNode(int cellId) {
+    return node(2 * timeLayers, cellId);
+  }
 
-    HashSet<Integer> obstacles = cityTileLocationsForPlayer(player);
-    obstacles.addAll(cityTileLocationsForPlayer(opponent));
+  /**
+   * Units can only be within (obstacle aware) distance t of where they started at time t, so the graph only needs
+   * the union of those space-time diamonds. Numbers the in/out nodes of every kept cell densely so the flow graph is
+   * sized by that region rather than by the whole map.
+   */
+  private void createFlowGraph(Collection<Unit> units, Bitboard obstacles, int extraNodes) {
+    sourceDist = new int[cellCount];
+    reachOrder = new int[cellCount];
+    int reachCount = BfsKernel.distances(unitCells(units), obstacles, sourceDist, reachOrder, timeLayers);
+
+    layerEnd = new int[timeLayers + 1];
+    for (int t = 0, i = 0; t <= timeLayers; t++) {
+      while (i < reachCount && sourceDist[reachOrder[i]] <= t) i++;
+      layerEnd[t] = i;
+    }
+    regionSize = layerEnd[timeLayers];
+    regionPos = new int[cellCount];
+    Arrays.fill(regionPos, -1);
+    for (int i = 0; i < regionSize; i++) {
+      regionPos[reachOrder[i]] = i;
+    }
 
-    player.units.forEach(unit -> {
-      int posId = convertCoordinateToInt(unit.pos.x, unit.pos.y);
-      if (!ignoreUnits.contains(unit)) {
-        obstacles.add(posId);
+    nodeIds = new int[(2 * timeLayers + 1) * regionSize];
+    Arrays.fill(nodeIds, -1);
+    int[] cells = new int[nodeIds.length];
+    int[] times = new int[nodeIds.length];
+    int nodeCount = 0;
+    for (int t = 0; t <= timeLayers; t++) {
+      for (int i = 0; i < layerEnd[t]; i++) {
+        int cellId = reachOrder[i];
+        if (obstacles.get(cellId) || !isUseful(t, cellId))
+          continue;
+        nodeIds[2 * t * regionSize + i] = nodeCount;
+        times[nodeCount] = 2 * t;
+        cells[nodeCount++] = cellId;
+        if (t < timeLayers) {
+          nodeIds[(2 * t + 1) * regionSize + i] = nodeCount;
+          times[nodeCount] = 2 * t + 1;
+          cells[nodeCount++] = cellId;
+        }
       }
-    });
+    }
+    nodeCells = Arrays.copyOf(cells, nodeCount);
+    nodeTimes = Arrays.copyOf(times, nodeCount);
 
-    opponent.units.forEach(unit -> {
-      if (!ignoreUnits.contains(unit)) {
-        obstacles.add(convertCoordinateToInt(unit.pos.x, unit.pos.y));
-      }
-    });
+    flow = new MinCostMaxFlow(nodeCount + extraNodes);
+    flow.setName("navigator");
+    selfEdges = new MinCostMaxFlow.Edge[timeLayers][regionSize];
+  }
 
-    return obstacles;
+  /**
+   * Fills dist with the BFS distance from the starts and order with the cells in the order they were reached.
+   * Returns the number of cells reached. Starts may be obstacles themselves, nothing else that is gets entered.
+   */
+  private int bfs(Bitboard starts, Bitboard obstacles, int[] dist, int[] order) {
+    return BfsKernel.distances(starts, obstacles, dist, order);
   }
 
-  private HashSet<Integer> currentObstacles(ArrayList<Unit> ignoreUnits) {
-    Player opponent = gameState.players[(gameState.id + 1) % 2];
+  private int[] distancesFrom(Bitboard starts, Bitboard obstacles) {
+    int[] dist = new int[cellCount];
+    bfs(starts, obstacles, dist, new int[cellCount]);
+    return dist;
+  }
 
-    HashSet<Integer> badCityTiles = cityTileLocationsForPlayer(opponent);
+  private Bitboard unitCells(Collection<Unit> units) {
+    Bitboard cells = new Bitboard(gameMap.width, gameMap.height);
+    for (Unit unit : units) {
+      cells.set(unit.pos.x, unit.pos.y);
+    }
+    return cells;
+  }
 
-    HashSet<Integer> obstacles = new HashSet<>();
+  private Bitboard mask(Collection<Integer> cellIds) {
+    Bitboard cells = new Bitboard(gameMap.width, gameMap.height);
+    for (int cellId : cellIds) {
+      cells.set(cellId);
+    }
+    return cells;
+  }
 
-    obstacles.addAll(badCityTiles);
+  /**
+   * Picks how many time layers this routing call needs from the BFS distance of every source to its closest sink:
+   * enough to reach the farthest reachable sink plus one layer of slack so a unit can wait out a collision. Sources
+   * that are further away than MAX_TIME_LAYERS allows are the only reason the last layer needs a tail.
+   */
+  private void chooseTimeLayers(Collection<Unit> units, Bitboard sinkCells, Bitboard obstacles) {
+    sinkDist = distancesFrom(sinkCells, obstacles);
 
-    opponent.units.forEach(unit -> {
-      if (!ignoreUnits.contains(unit)) {
-        obstacles.add(convertCoordinateToInt(unit.pos.x, unit.pos.y));
-      }
-    });
+    int farthest = 0;
+    for (Unit unit : units) {
+      int d = sinkDist[grid.cell(unit.pos)];
+      if (d == UNREACHABLE)
+        continue;
+      farthest = Math.max(farthest, d);
+    }
+    timeLayers = Math.min(farthest + 1, MAX_TIME_LAYERS);
+
+    // cells within distance t of some unit make up layer t, in and out nodes for all but the last
+    int[] dist = new int[cellCount], order = new int[cellCount];
+    int reached = BfsKernel.distances(unitCells(units), obstacles, dist, order, timeLayers);
+    int[] within = new int[timeLayers + 1];
+    for (int i = 0; i < reached; i++) {
+      within[dist[order[i]]]++;
+    }
+    for (int t = 1; t <= timeLayers; t++) {
+      within[t] += within[t - 1];
+    }
+    while (timeLayers > MIN_TIME_LAYERS && graphNodes(within, timeLayers) > MAX_GRAPH_NODES) {
+      timeLayers--;
+    }
+    needsTail = farthest + 1 > timeLayers;
+  }
 
-    return obstacles;
+  private static int graphNodes(int[] within, int layers) {
+    int nodes = within[layers];
+    for (int t = 0; t < layers; t++) {
+      nodes += 2 * within[t];
+    }
+    return nodes;
   }
 
-  private void generateFlowGraphForResourceRouting(ArrayList<Unit> units, ArrayList<Cell> resources) {
-    HashSet<Integer> obstacles = currentObstacles(/*ignore these=*/units);
-    HashSet<Integer> goodCityTiles = cityTileLocationsForPlayer(player);
+  // A cell only belongs in layer t if a sink can still be reached from it in the layers that are left
+  private boolean isUseful(int t, int cellId) {
+    if (sinkDist == null || needsTail || heuristicTail)
+      return true;
+    return sinkDist[cellId] <= timeLayers - t;
+  }
 
-    int cellCount = gameMap.width * gameMap.height;
-    for (int t = 0; t < timeLayers; t++) {
-      for (int x = 0; x < gameMap.width; x++) {
-        for (int y = 0; y < gameMap.height; y++) {
-          int offset = t * cellCount * 2;
-          int cellId = convertCoordinateToInt(x, y);
+  private void inheritReservations(Navigator oldNav) {
+    for (int t = 0; t < MAX_TIME_LAYERS; t++) {
+      taken[t].copyFrom(oldNav.taken[t]);
+    }
+  }
 
-          if (obstacles.contains(cellId))
-            continue;
+  // Marks every cell this graph's flow saturated, plus the obstacles it was built around, as taken
+  private void recordReservations(Bitboard obstacles) {
+    for (int t = 0; t < MAX_TIME_LAYERS; t++) {
+      taken[t].or(obstacles);
+    }
+    // every unit followed its committed path, nothing was routed
+    if (flow == null)
+      return;
+    for (int t = 0; t < timeLayers; t++) {
+      for (int i = 0; i < layerEnd[t]; i++) {
+        MinCostMaxFlow.Edge e = selfEdges[t][i];
+        if (e != null && e.flow >= e.cap) {
+          taken[t].set(reachOrder[i]);
+        }
+      }
+    }
+  }
 
-          int selfCap = goodCityTiles.contains(cellId) ? Integer.MAX_VALUE / 2 : 1;
-          flow.add(offset + 2 * cellId, offset + 2 * cellId + 1, selfCap, 0);
+  private Bitboard cityTileLocationsForPlayer(Player p) {
+    Bitboard locs = new Bitboard(gameMap.width, gameMap.height);
+    p.cities.values().forEach(city -> {
+      city.citytiles.forEach(cityTile -> {
+        locs.set(cityTile.pos.x, cityTile.pos.y);
+      });
+    });
+    return locs;
+  }
 
-          // Add a flow source if there is an available unit there
-          if (t == 0) {
-            final int X = x, Y = y;
-            Optional<Unit> unit = units.stream().filter(u -> u.pos.x == X && u.pos.y == Y).findAny();
-            if (unit.isPresent()) {
-              MinCostMaxFlow.Edge e = flow.add(flow.s, 2 * cellId, 1, 0);
-              e.setMetadata(unit.get().id);
-            }
-          }
+  private Bitboard currentObstacles(Collection<Unit> ignoreUnits) {
+    Player opponent = gameState.players[(gameState.id + 1) % 2];
 
-          // Check all four adjacent squares + remaining still
-          // Add an edge if it's a valid square and not an obstacle
-          for (int k = 0; k < 5; k++) {
-            int xx = x + dx[k], yy = y + dy[k];
-            if (xx < 0 || xx >= gameMap.width || yy < 0 || yy >= gameMap.height)
-              continue;
+    Bitboard badCityTiles = cityTileLocationsForPlayer(opponent);
 
-            int tmpId = convertCoordinateToInt(xx, yy);
-            if (obstacles.contains(tmpId))
-              continue;
+    // with a model, enemy units are handled per time layer by enemyBlocks/enemyCost instead
+    if (opponentModel != null)
+      return badCityTiles;
 
-            int nextOffset = (t + 1) * cellCount * 2;
-            int nextPosition = (t == timeLayers - 1) ? tmpId : 2 * tmpId;
+    return unitCells(opponent.units).andNot(unitCells(ignoreUnits)).or(badCityTiles);
+  }
 
-            int cost = tmpId == cellId ? 0 : 1;
+  // An enemy unit that can't have left its cell by time t is as good as a wall
+  private boolean enemyBlocks(int t, int cellId) {
+    return opponentModel != null && opponentModel.occupancy(t, cellId) >= OpponentModel.CERTAIN;
+  }
 
-            // Try to force unit off of city square if it doesn't need to be there
-            if (tmpId == cellId && gameMap.getCell(xx, yy).hasCityTile()) {
-              String cityid = gameMap.getCell(xx, yy).citytile.cityid;
-              Optional<City> city = player.cities.values().stream().filter(c -> c.cityid.equals(cityid)).findAny();
+  private int enemyCost(int t, int cellId) {
+    if (opponentModel == null)
+      return 0;
+    return Math.round(ENEMY_OCCUPANCY_COST * opponentModel.occupancy(t, cellId));
+  }
 
-              if (city.isPresent() && city.get().fuel >= city.get().getLightUpkeep() * GameConstants.PARAMETERS.NIGHT_LENGTH) {
-                cost = 2;
-              }
-              if (player.cities.values().size() == 1 && city.isPresent() && city.get().citytiles.size() == 1) {
-                cost = 100;
-              }
-            }
-            flow.add(offset + 2 * cellId + 1, nextOffset + nextPosition, 1, cost);
-          }
-        }
-      }
+  /**
+   * The graph of units heading for the targets: every last layer cell is a sink, costed by how far it still is from
+   * the closest target. inReach is the distance from a target that is as good as being on it.
+   */
+  private void generateFlowGraphForResourceRouting(ArrayList<Unit> units, Bitboard targets, int inReach) {
+    Bitboard goodCityTiles = cityTileLocationsForPlayer(player);
+    HashMap<Integer, Unit> unitAt = new HashMap<>();
+    for (Unit unit : units) {
+      unitAt.put(grid.cell(unit.pos), unit);
     }
 
-    // Make adjacencies for last layer
-    for (int x = 0; x < gameMap.width; x++) {
-      for (int y = 0; y < gameMap.height; y++) {
-        int offset = timeLayers * cellCount * 2;
-        int cellId = convertCoordinateToInt(x, y);
-
-        if (obstacles.contains(cellId))
+    for (int t = 0; t < timeLayers; t++) {
+      for (int i = 0; i < layerEnd[t]; i++) {
+        int cellId = reachOrder[i];
+        if (inNode(t, cellId) == -1)
           continue;
-
-        final int X = x, Y = y;
-        Optional<Cell> closestResource = resources.stream().min((a, b) -> {
-          double d1 = a.pos.distanceTo(gameMap.getCell(X, Y).pos),
-                  d2 = b.pos.distanceTo(gameMap.getCell(X, Y).pos);
-          return Double.compare(d1, d2);
-        });
-        int closestDist = Integer.MAX_VALUE;
-        if (closestResource.isPresent()) {
-          closestDist = (int) closestResource.get().pos.distanceTo(gameMap.getCell(x, y).pos);
+        int x = cellId % gameMap.width, y = cellId / gameMap.width;
+
+        int selfCap = goodCityTiles.get(cellId) ? Integer.MAX_VALUE / 2 : 1;
+        // cells a unit still following its committed path will be on are taken
+        if (enemyBlocks(t, cellId) || taken[t].get(cellId) && !goodCityTiles.get(cellId))
+          selfCap = 0;
+        selfEdges[t][i] = flow.add(inNode(t, cellId), outNode(t, cellId), selfCap, enemyCost(t, cellId));
+
+        // Add a flow source if there is an available unit there
+        if (t == 0 && unitAt.containsKey(cellId)) {
+          MinCostMaxFlow.Edge e = flow.add(flow.s, inNode(0, cellId), 1, 0);
+          e.setMetadata(unitAt.get(cellId).id);
         }
 
-        int selfCap = goodCityTiles.contains(cellId) ? Integer.MAX_VALUE / 2 : 1;
-        if (closestDist != Integer.MAX_VALUE)
-          flow.add(offset + cellId, flow.t, selfCap, Math.max(0, (closestDist - 1) * 50));
-
-        for (int k = 0; k < 5; k++) {
-          int xx = x + dx[k], yy = y + dy[k];
-          if (xx < 0 || xx >= gameMap.width || yy < 0 || yy >= gameMap.height)
+        // Check all four adjacent squares + remaining still
+        // Add an edge if it's a valid square and not an obstacle
+        for (int k = 0; k < Grid.STEPS; k++) {
+          int tmpId = grid.step(cellId, k);
+          if (tmpId == -1)
             continue;
-
-          int tmpId = convertCoordinateToInt(xx, yy);
-          if (obstacles.contains(tmpId))
+          int nextPosition = (t == timeLayers - 1) ? tailNode(tmpId) : inNode(t + 1, tmpId);
+          if (nextPosition == -1)
             continue;
 
           int cost = tmpId == cellId ? 0 : 1;
-          flow.add(offset + cellId, offset + tmpId, Integer.MAX_VALUE / 2, cost);
+
+          // Try to force unit off of city square if it doesn't need to be there
+          if (tmpId == cellId && gameMap.getCell(x, y).hasCityTile()) {
+            String cityid = gameMap.getCell(x, y).citytile.cityid;
+            Optional<City> city = player.cities.values().stream().filter(c -> c.cityid.equals(cityid)).findAny();
+
+            if (city.isPresent() && city.get().fuel >= city.get().getLightUpkeep() * GameConstants.PARAMETERS.NIGHT_LENGTH) {
+              cost = 2;
+            }
+            if (player.cities.values().size() == 1 && city.isPresent() && city.get().citytiles.size() == 1) {
+              cost = 100;
+            }
+          }
+          flow.add(outNode(t, cellId), nextPosition, 1, cost);
         }
       }
     }
+
+    // Straight distance to the closest target, one pass over the map rather than one per target and cell
+    int[] targetDist = distancesFrom(targets, new Bitboard(gameMap.width, gameMap.height));
+
+    // Every last layer cell is a sink, costed by how far it still is from a target
+    for (int i = 0; i < layerEnd[timeLayers]; i++) {
+      int cellId = reachOrder[i];
+      if (tailNode(cellId) == -1)
+        continue;
+      int selfCap = goodCityTiles.get(cellId) ? Integer.MAX_VALUE / 2 : 1;
+      if (targetDist[cellId] != UNREACHABLE)
+        flow.add(tailNode(cellId), flow.t, selfCap, Math.max(0, (targetDist[cellId] - inReach) * 50));
+    }
   }
 
-  private int followPath(int idx) {
-    for (MinCostMaxFlow.Edge e : flow.adj[idx]) {
-      if (e.flow > 0) {
-        if (e.cost > 0) {
-          return e.v2;
-        } else {
-          return followPath(e.v2);
+  /**
+   * Decomposes a unit's flow into the cell it is on at every time step, from where it starts up to the tail layer
+   * (or wherever its flow leaves the grid). Flow that several units share, through one of our city tiles, is handed
+   * out a unit at a time through claimed so no two units follow the same unit of flow.
+   */
+  private int[] extractPath(MinCostMaxFlow.Edge source, HashMap<MinCostMaxFlow.Edge, Integer> claimed) {
+    int[] cells = new int[timeLayers + 1];
+    int length = 0;
+    int node = source.v2;
+    while (node < nodeCells.length) {
+      if (nodeTimes[node] % 2 == 0)
+        cells[length++] = nodeCells[node];
+      if (nodeTimes[node] == 2 * timeLayers)
+        break;
+      MinCostMaxFlow.Edge next = null;
+      for (MinCostMaxFlow.Edge e : flow.adj[node]) {
+        if (e.flow - claimed.getOrDefault(e, 0) > 0) {
+          next = e;
+          break;
         }
       }
+      if (next == null)
+        break;
+      claimed.merge(next, 1, Integer::sum);
+      node = next.v2;
+    }
+    return Arrays.copyOf(cells, length);
+  }
+
+  /**
+   * Units whose path from an earlier turn can still be followed keep to it: their move is added to actions and the
+   * cells they will be on are reserved, so whatever gets routed after them goes around. Returns the units that need
+   * routing, because their path broke, ran out or was planned by another kind of call.
+   */
+  private ArrayList<Unit> followCommittedPaths(Collection<Unit> units, Route route, Bitboard goal,
+                                               ArrayList<String> actions) {
+    return followCommittedPaths(units, route, unit -> goal, actions);
+  }
+
+  // Same, with a goal of every unit's own
+  private ArrayList<Unit> followCommittedPaths(Collection<Unit> units, Route route, Function<Unit, Bitboard> goal,
+                                               ArrayList<String> actions) {
+    ArrayList<Unit> replan = new ArrayList<>();
+    if (memory == null) {
+      replan.addAll(units);
+      return replan;
+    }
+    Bitboard blocked = currentObstacles(Collections.emptyList());
+    Bitboard goodCityTiles = cityTileLocationsForPlayer(player);
+    for (Unit unit : units) {
+      int[] path = memory.path(unit, route);
+      int start = path == null ? -1 : committedStart(unit, route, path, goal.apply(unit), blocked, goodCityTiles);
+      if (start == -1) {
+        replan.add(unit);
+        continue;
+      }
+      memory.advancePath(unit, start);
+      // a unit still cooling down stays where it is until it can move again, its path comes that much later
+      int wait = waitTurns(unit);
+      for (int t = 0; t < MAX_TIME_LAYERS && start + Math.max(t - wait, 0) < path.length; t++) {
+        int cellId = path[start + Math.max(t - wait, 0)];
+        if (!goodCityTiles.get(cellId))
+          taken[t].set(cellId);
+      }
+      if (unit.canAct())
+        actions.add(unit.move(grid.direction(path[start], path[start + 1])));
+    }
+    if (!units.isEmpty())
+      Log.debug(TAG, gameState.turn, () -> route + ": " + (units.size() - replan.size()) + " of " + units.size() +
+          " units kept their paths");
+    return replan;
+  }
+
+  /**
+   * Where on its committed path the unit stands, or -1 when the path is no good any more: the unit is off it, there
+   * is no move left on it, it doesn't end in goal (null for anywhere) or something now stands in its way. Waits
+   * ahead are skipped, a unit moves as soon as it can just like a freshly routed one does. Colonists don't pass
+   * through our cities, they'd drop the cargo they're carrying to build with.
+   */
+  private int committedStart(Unit unit, Route route, int[] path, Bitboard goal, Bitboard blocked,
+                             Bitboard goodCityTiles) {
+    int cell = grid.cell(unit.pos);
+    int i = memory.pathIndex(unit);
+    while (i < path.length && path[i] != cell) i++;
+    while (i + 1 < path.length && path[i + 1] == cell) i++;
+    if (i + 1 >= path.length)
+      return -1;
+    if (goal != null && !goal.get(path[path.length - 1]))
+      return -1;
+    int wait = waitTurns(unit);
+    for (int t = 1; t < MAX_TIME_LAYERS && i + Math.max(t - wait, 0) < path.length; t++) {
+      int cellId = path[i + Math.max(t - wait, 0)];
+      if (goodCityTiles.get(cellId) && route == Route.COLONY)
+        return -1;
+      if (goodCityTiles.get(cellId))
+        continue;
+      if (blocked.get(cellId) || enemyBlocks(t, cellId) || taken[t].get(cellId))
+        return -1;
     }
-    return -1;
+    return i;
   }
 
-  private ArrayList<String> readFlowGraphForMoves(Collection<Unit> units) {
+  // Turns before the unit can move again, cooldown goes down by at least one a turn
+  private static int waitTurns(Unit unit) {
+    return unit.canAct() ? 0 : (int) unit.cooldown;
+  }
+
+  // Moves of the units routed by the flow, whose full paths get committed for the turns after. Each unit makes the
+  // move of the path it got, so units sharing flow don't all make the same one
+  private ArrayList<String> readFlowGraphForMoves(Collection<Unit> units, Route route) {
     ArrayList<String> actions = new ArrayList<>();
-    int cellCount = gameMap.width * gameMap.height;
+    HashMap<MinCostMaxFlow.Edge, Integer> claimed = new HashMap<>();
+    Bitboard goodCityTiles = cityTileLocationsForPlayer(player);
     for (MinCostMaxFlow.Edge e : flow.adj[flow.s]) {
       if (e.flow > 0 && e.metadata != null) {
         Unit unit = units.stream().filter(u -> u.id == e.metadata).findAny().get();
-
-        int end = followPath(e.v2);
-        if (end == -1) {
-          continue;
-        }
-
-        int node = end;
-        if (node >= timeLayers * 2 * cellCount) {
-          node -= timeLayers * 2 * cellCount;
+        int[] path = extractPath(e, claimed);
+        if (!unit.canAct()) {
+          // it stays put until its cooldown is over whatever the flow had it do, so that's what gets reserved. The
+          // committed path is shifted by the cooldown left when it's followed
+          reserveInstead(path, delay(path, waitTurns(unit)), goodCityTiles, true);
         } else {
-          node %= 2 * cellCount;
-          node /= 2;
+          // waits before the first move cost the flow nothing, so the unit moves right away when the cells it is
+          // then on are free at those earlier times. Otherwise the waits are what keeps it off someone else's cells
+          int[] early = skipLeadingWaits(path);
+          if (early != path && reserveInstead(path, early, goodCityTiles, false))
+            path = early;
         }
-
-        Position destination = convertIntToCoordinate(node);
-        Direction dir = unit.pos.directionTo(destination);
-
-        if(unit.canAct())
-          actions.add(unit.move(dir));
+        if (memory != null)
+          memory.commitPath(unit, route, path);
+        if (unit.canAct() && path.length > 1 && path[1] != path[0])
+          actions.add(unit.move(grid.direction(path[0], path[1])));
       }
     }
 
     return actions;
   }
 
-  public ArrayList<String> generateRoutesToResources(ArrayList<Unit> units, ArrayList<Cell> resources) {
-    int cellCount = gameMap.width * gameMap.height;
-    flow = new MinCostMaxFlow(cellCount * timeLayers * 2 + cellCount);
-
-    generateFlowGraphForResourceRouting(units, resources);
-
-    long[] results = flow.flow();
-
-    return readFlowGraphForMoves(units);
+  // The path with the waits before its first move put off until after the last one, path itself when there are none
+  private static int[] skipLeadingWaits(int[] path) {
+    int next = 1;
+    while (next < path.length && path[next] == path[0]) next++;
+    if (next == 1 || next == path.length)
+      return path;
+    int[] cells = new int[path.length];
+    cells[0] = path[0];
+    for (int t = 1; t < path.length; t++) {
+      cells[t] = path[Math.min(next + t - 1, path.length - 1)];
+    }
+    return cells;
   }
 
-  public String generatePathToNewCityTile(Unit unit, Position cityPosition) {
-
-    HashSet<Integer> obstacles = newCityPathObstacles(new ArrayList<>());
-
-    // store the id of the node we came from
-    int[][] path = new int[gameMap.width][gameMap.height];
-    for (int i = 0; i < path.length; i++) Arrays.fill(path[i], -1);
+  // The path of a unit that can't leave its cell for the first wait turns
+  private static int[] delay(int[] path, int wait) {
+    int[] cells = new int[path.length];
+    for (int t = 0; t < path.length; t++) {
+      cells[t] = path[Math.min(Math.max(t - wait, 0), path.length - 1)];
+    }
+    return cells;
+  }
 
+  /**
+   * Moves a unit's reservations from the cells of path, as recordReservations made them, to those of cells. Unless
+   * forced that only happens when nobody else has taken any of them at its time and no enemy is sure to be there,
+   * returns whether it did.
+   */
+  private boolean reserveInstead(int[] path, int[] cells, Bitboard goodCityTiles, boolean force) {
+    int layers = Math.min(path.length, timeLayers);
+    for (int t = 1; t < layers; t++) {
+      if (!goodCityTiles.get(path[t]))
+        taken[t].clear(path[t]);
+    }
+    boolean free = true;
+    for (int t = 1; t < layers && free && !force; t++) {
+      free = goodCityTiles.get(cells[t]) || !taken[t].get(cells[t]) && !enemyBlocks(t, cells[t]);
+    }
+    int[] kept = free ? cells : path;
+    for (int t = 1; t < layers; t++) {
+      if (!goodCityTiles.get(kept[t]))
+        taken[t].set(kept[t]);
+    }
+    return free;
+  }
 
-    ArrayDeque<Integer> q = new ArrayDeque<>();
-    q.add(unit.pos.x);
-    q.add(unit.pos.y);
+  /**
+   * Routes the units toward the resources. With an auction each worker heads for the harvest slot it won, routed on
+   * its own with that slot as its only sink, closest to its slot first. The flow only sorts out its way around the
+   * units routed before it. Units that won nothing (carts, or everyone without an auction) are routed together to
+   * anywhere next to a resource.
+   */
+  public ArrayList<String> generateRoutesToResources(ArrayList<Unit> units, ArrayList<Cell> resources,
+                                                     HarvestAuction auction, ResourceForecast forecast) {
+    Bitboard obstacles = currentObstacles(/*ignore these=*/units);
 
-    boolean found = false;
-    while (!q.isEmpty()) {
-      int x = q.poll(), y = q.poll();
+    HashMap<Unit, Integer> slots = auction == null ? new HashMap<>() :
+        auction.assign(gameState, units, resources, forecast, obstacles);
 
-      for (int k = 0; k < 4; k++) {
-        int xx = x + dx[k], yy = y + dy[k];
-        if (xx < 0 || xx >= gameMap.width || yy < 0 || yy >= gameMap.height)
-          continue;
-        if (path[xx][yy] != -1)
-          continue;
-        if (obstacles.contains(convertCoordinateToInt(xx, yy)))
-          continue;
-
-        path[xx][yy] = convertCoordinateToInt(x, y);
-        q.add(xx);
-        q.add(yy);
-        if (xx == cityPosition.x && yy == cityPosition.y) {
-          found = true;
-        }
-      }
-      if (found) break;
+    // Units without a slot are happy anywhere next to a resource
+    Bitboard resourceCells = new Bitboard(gameMap.width, gameMap.height);
+    for (Cell resource : resources) {
+      resourceCells.set(resource.pos.x, resource.pos.y);
     }
+    Bitboard harvestCells = new Bitboard(gameMap.width, gameMap.height).or(resourceCells);
+    harvestCells.expand();
 
-    if (!found) {
-      System.err.println(TAG + ": NO ROUTE TO NEW CITY!!! turn=" + gameState.turn);
-
-      Direction dir = unit.pos.directionTo(cityPosition);
-      return unit.move(dir);
+    ArrayList<String> actions = new ArrayList<>();
+    ArrayList<Unit> replan = followCommittedPaths(units, Route.RESOURCES,
+        unit -> slots.containsKey(unit) ? mask(Collections.singletonList(slots.get(unit))) : harvestCells, actions);
+    recordReservations(obstacles);
+    if (replan.isEmpty())
+      return actions;
+
+    ArrayList<Unit> slotted = new ArrayList<>(), unslotted = new ArrayList<>();
+    for (Unit unit : replan) {
+      if (slots.containsKey(unit))
+        slotted.add(unit);
+      else
+        unslotted.add(unit);
     }
-
-    int x = cityPosition.x, y = cityPosition.y;
-    while (path[x][y] != convertCoordinateToInt(unit.pos.x, unit.pos.y)) {
-      Position prevPos = convertIntToCoordinate(path[x][y]);
-      x = prevPos.x;
-      y = prevPos.y;
+    slotted.sort(Comparator.comparingInt(unit -> grid.distance(grid.cell(unit.pos), slots.get(unit))));
+
+    Navigator prevNav = this;
+    for (Unit unit : slotted) {
+      Navigator tmpNav = new Navigator(gameState, sectorMap, opponentModel, memory);
+      tmpNav.inheritReservations(prevNav);
+      Bitboard slot = mask(Collections.singletonList(slots.get(unit)));
+      actions.addAll(tmpNav.routeToHarvest(new ArrayList<>(Collections.singletonList(unit)), slot, slot, 0,
+          obstacles));
+      prevNav = tmpNav;
     }
-
-    return unit.move(unit.pos.directionTo(new Position(x, y)));
-  }
-
-  private boolean checkIfTimedLocationIsTaken(int time, int x, int y, MinCostMaxFlow oldFlow) {
-    int idx = time * gameMap.width * gameMap.height * 2 + convertCoordinateToInt(x, y) * 2;
-    boolean taken = true;
-    for (MinCostMaxFlow.Edge e : oldFlow.adj[idx]) {
-      if (e.v2 == e.v1 + 1 && e.cap - e.flow > 0) {
-        taken = false;
-      }
+    if (!unslotted.isEmpty()) {
+      Navigator tmpNav = new Navigator(gameState, sectorMap, opponentModel, memory);
+      tmpNav.inheritReservations(prevNav);
+      actions.addAll(tmpNav.routeToHarvest(unslotted, harvestCells, resourceCells, 1, obstacles));
+      prevNav = tmpNav;
     }
-
-    return taken;
+    inheritReservations(prevNav);
+    return actions;
   }
 
-  private void SetupGraph(boolean canMoveInCity, HashSet<String> allowedCityTiles, HashSet<Integer> obstacles,
-                          MinCostMaxFlow oldFlow) {
-
-    int cellCount = gameMap.width * gameMap.height;
-    flow = new MinCostMaxFlow(cellCount * timeLayers * 2 + cellCount);
-    HashSet<Integer> goodCityTiles = cityTileLocationsForPlayer(player);
+  // One flow routing the units toward the targets, the horizon measured against the cells they'd be happy on
+  private ArrayList<String> routeToHarvest(ArrayList<Unit> units, Bitboard happyCells, Bitboard targets, int inReach,
+                                           Bitboard obstacles) {
+    chooseTimeLayers(units, happyCells, obstacles);
+    // every cell of the last layer is a (costed) sink here, so there is nothing to prune by sink distance and no
+    // need for a tail
+    sinkDist = null;
+    needsTail = false;
 
-    for (int t = 0; t < timeLayers; t++) {
-      for (int x = 0; x < gameMap.width; x++) {
-        for (int y = 0; y < gameMap.height; y++) {
-          int offset = t * cellCount * 2;
-          int cellId = convertCoordinateToInt(x, y);
+    createFlowGraph(units, obstacles, 0);
+    generateFlowGraphForResourceRouting(units, targets, inReach);
 
-          if (obstacles.contains(cellId))
-            continue;
-
-          int selfCap = goodCityTiles.contains(cellId) ? Integer.MAX_VALUE / 2 : 1;
-
-          if (checkIfTimedLocationIsTaken(t, x, y, oldFlow) && !gameMap.getCell(x,y).hasCityTile()) {
-            selfCap = 0;
-          }
-          flow.add(offset + 2 * cellId, offset + 2 * cellId + 1, selfCap, 0);
-
-          // Check all four adjacent squares + remaining still
-          // Add an edge if it's a valid square and not an obstacle
-          for (int k = 0; k < 5; k++) {
-            if (gameMap.getCell(x,y).hasCityTile() && !canMoveInCity && k != 4){
-              if (!allowedCityTiles.contains(gameMap.getCell(x,y).citytile.cityid))
-                continue;
-            }
-            int xx = x + dx[k], yy = y + dy[k];
-            if (xx < 0 || xx >= gameMap.width || yy < 0 || yy >= gameMap.height)
-              continue;
+    long[] results = flow.flow();
+    recordReservations(obstacles);
 
-            int tmpId = convertCoordinateToInt(xx, yy);
-            if (obstacles.contains(tmpId))
-              continue;
+    return readFlowGraphForMoves(units, Route.RESOURCES);
+  }
 
-            int nextOffset = (t + 1) * cellCount * 2;
-            int nextPosition = (t == timeLayers - 1) ? tmpId : 2 * tmpId;
+  private void SetupGraph(boolean canMoveInCity, HashSet<String> allowedCityTiles) {
+    Bitboard goodCityTiles = cityTileLocationsForPlayer(player);
 
-            int cost = tmpId == cellId ? 0 : 1;
-            flow.add(offset + 2 * cellId + 1, nextOffset + nextPosition, 1, cost);
-          }
-        }
-      }
-    }
+    for (int t = 0; t < timeLayers; t++) {
+      for (int i = 0; i < layerEnd[t]; i++) {
+        int cellId = reachOrder[i];
+        if (inNode(t, cellId) == -1)
+          continue;
+        int x = cellId % gameMap.width, y = cellId / gameMap.width;
 
-    // Make adjacencies for last layer
-    for (int x = 0; x < gameMap.width; x++) {
-      for (int y = 0; y < gameMap.height; y++) {
-        int offset = timeLayers * cellCount * 2;
-        int cellId = convertCoordinateToInt(x, y);
+        int selfCap = goodCityTiles.get(cellId) ? Integer.MAX_VALUE / 2 : 1;
 
-        if (!canMoveInCity && gameMap.getCell(x, y).hasCityTile()) {
-          continue;
+        if (taken[t].get(cellId) && !gameMap.getCell(x,y).hasCityTile() || enemyBlocks(t, cellId)) {
+          selfCap = 0;
         }
+        selfEdges[t][i] = flow.add(inNode(t, cellId), outNode(t, cellId), selfCap, enemyCost(t, cellId));
 
-        if (obstacles.contains(cellId))
-          continue;
-
-        for (int k = 0; k < 5; k++) {
-          int xx = x + dx[k], yy = y + dy[k];
-          if (xx < 0 || xx >= gameMap.width || yy < 0 || yy >= gameMap.height)
+        // Check all four adjacent squares + remaining still
+        // Add an edge if it's a valid square and not an obstacle
+        for (int k = 0; k < Grid.STEPS; k++) {
+          if (gameMap.getCell(x,y).hasCityTile() && !canMoveInCity && k != 4){
+            if (!allowedCityTiles.contains(gameMap.getCell(x,y).citytile.cityid))
+              continue;
+          }
+          int tmpId = grid.step(cellId, k);
+          if (tmpId == -1)
             continue;
-
-          int tmpId = convertCoordinateToInt(xx, yy);
-          if (obstacles.contains(tmpId))
+          int nextPosition = (t == timeLayers - 1) ? tailNode(tmpId) : inNode(t + 1, tmpId);
+          if (nextPosition == -1)
             continue;
 
           int cost = tmpId == cellId ? 0 : 1;
-          flow.add(offset + cellId, offset + tmpId, Integer.MAX_VALUE / 2, cost);
+          flow.add(outNode(t, cellId), nextPosition, 1, cost);
         }
       }
     }
-  }
 
-  private void applySourceAndSinkForCityRouting(String cityId, HashSet<Unit> units) {
-    // apply source to unit locations
-    for (Unit unit : units) {
-      int idx = 2 * convertCoordinateToInt(unit.pos.x, unit.pos.y);
-      MinCostMaxFlow.Edge e = flow.add(flow.s, idx, 1, 0);
-      e.setMetadata(unit.id);
-    }
+    // Sources that can't reach a sink inside the horizon end the last layer wherever gets them closest, paying the
+    // distance still to go. Free movement over everything they could reach would size the graph by the map
+    if (!needsTail)
+      return;
 
-    // apply sink to destination city
-    int offset = timeLayers * gameMap.width * gameMap.height * 2;
-    for (City city : player.cities.values()) {
-      if (!city.cityid.equals(cityId))
+    for (int i = 0; i < layerEnd[timeLayers]; i++) {
+      int cellId = reachOrder[i];
+      if (tailNode(cellId) == -1 || sinkDist[cellId] == 0 || sinkDist[cellId] == UNREACHABLE)
+        continue;
+      int x = cellId % gameMap.width, y = cellId / gameMap.width;
+
+      if (!canMoveInCity && gameMap.getCell(x, y).hasCityTile()) {
         continue;
-      for (CityTile tile : city.citytiles) {
-        flow.add(offset + convertCoordinateToInt(tile.pos.x, tile.pos.y), flow.t, Integer.MAX_VALUE / 2, 0);
       }
+      flow.add(tailNode(cellId), flow.t, Integer.MAX_VALUE / 2, sinkDist[cellId]);
     }
   }
 
-  private void applySourceAndSinkForColonyRouting(ArrayList<Unit> units, ArrayList<Position> cities) {
+  private void applySources(Collection<Unit> units) {
     // apply source to unit locations
     for (Unit unit : units) {
-      int idx = 2 * convertCoordinateToInt(unit.pos.x, unit.pos.y);
-      MinCostMaxFlow.Edge e = flow.add(flow.s, idx, 1, 0);
+      int node = inNode(0, grid.cell(unit.pos));
+      if (node == -1)
+        continue;
+      MinCostMaxFlow.Edge e = flow.add(flow.s, node, 1, 0);
       e.setMetadata(unit.id);
     }
+  }
 
-    // apply sink to new city positions
-    int offset = timeLayers * gameMap.width * gameMap.height * 2;
-    for (Position p : cities) {
-      flow.add(offset+convertCoordinateToInt(p.x,p.y), flow.t, 1, 0);
+  private void applySinks(Collection<Integer> sinkCells, int cap) {
+    for (int cellId : sinkCells) {
+      if (tailNode(cellId) != -1)
+        flow.add(tailNode(cellId), flow.t, cap, 0);
     }
   }
 
-  private void applySourceAndSinkForLeftoverRouting(ArrayList<Unit> units) {
-    // apply source to unit locations
-    for (Unit unit : units) {
-      int idx = 2 * convertCoordinateToInt(unit.pos.x, unit.pos.y);
-      MinCostMaxFlow.Edge e = flow.add(flow.s, idx, 1, 0);
-      e.setMetadata(unit.id);
+  /**
+   * Gives every sink its own node after the region's nodes and connects each last-layer cell to it at the cost of
+   * the sector map's distance estimate, so units further away than the horizon still head for the right sink.
+   */
+  private void applyHeuristicSinks(ArrayList<Integer> sinkCells) {
+    int firstSinkNode = nodeCells.length;
+    for (int k = 0; k < sinkCells.size(); k++) {
+      flow.add(firstSinkNode + k, flow.t, 1, 0);
+    }
+    // only the few closest sinks in a straight line get an edge, so the tail grows with the units and not with
+    // units times sinks
+    int choices = Math.min(HEURISTIC_SINKS_PER_CELL, sinkCells.size());
+    int[] closest = new int[choices], closestDist = new int[choices];
+    for (int i = 0; i < layerEnd[timeLayers]; i++) {
+      int cellId = reachOrder[i];
+      if (tailNode(cellId) == -1)
+        continue;
+      int found = 0;
+      for (int k = 0; k < sinkCells.size(); k++) {
+        int d = grid.distance(cellId, sinkCells.get(k));
+        if (found == choices && d >= closestDist[choices - 1])
+          continue;
+        int j = found == choices ? choices - 1 : found++;
+        for (; j > 0 && closestDist[j - 1] > d; j--) {
+          closest[j] = closest[j - 1];
+          closestDist[j] = closestDist[j - 1];
+        }
+        closest[j] = k;
+        closestDist[j] = d;
+      }
+      for (int j = 0; j < found; j++) {
+        int d = sectorMap.distance(cellId, sinkCells.get(closest[j]));
+        if (d < SectorMap.UNREACHABLE)
+          flow.add(tailNode(cellId), firstSinkNode + closest[j], 1, d);
+      }
     }
+  }
 
-    // apply sink to all city tiles
-    int offset = timeLayers * gameMap.width * gameMap.height * 2;
-    for(City c : player.cities.values()) {
-      for (CityTile tile : c.citytiles) {
-        flow.add(offset+convertCoordinateToInt(tile.pos.x,tile.pos.y), flow.t, 1, 0);
+  private ArrayList<Integer> cityTileCells(String cityId) {
+    ArrayList<Integer> cells = new ArrayList<>();
+    for (City city : player.cities.values()) {
+      if (cityId != null && !city.cityid.equals(cityId))
+        continue;
+      for (CityTile tile : city.citytiles) {
+        cells.add(grid.cell(tile.pos));
       }
     }
+    return cells;
   }
 
   public ArrayList<String> generateRoutesToCities(HashMap<Unit, String> assignments, Navigator oldNav) {
@@ -437,26 +752,39 @@ public class Navigator {
 
     ArrayList<String> movements = new ArrayList<>();
 
-    MinCostMaxFlow oldFlow = oldNav.flow;
+    Navigator prevNav = oldNav;
     for (String cityId : cities) {
-      HashSet<Unit> assignedUnits = new HashSet<>();
+      ArrayList<Unit> assignedUnits = new ArrayList<>();
       for (Unit unit : assignments.keySet()) {
-        assignedUnits.add(unit);
+        if (assignments.get(unit).equals(cityId))
+          assignedUnits.add(unit);
       }
 
-      Navigator tmpNav = new Navigator(gameState);
+      Navigator tmpNav = new Navigator(gameState, sectorMap, opponentModel, memory);
+      tmpNav.inheritReservations(prevNav);
       HashSet<String> allowedCity = new HashSet<>();
       allowedCity.add(cityId);
-      tmpNav.SetupGraph(false, allowedCity, new HashSet<>(), oldFlow);
-      tmpNav.applySourceAndSinkForCityRouting(cityId, assignedUnits);
-      long[] results = tmpNav.flow.flow();
+      prevNav = tmpNav;
 
-      movements.addAll(tmpNav.readFlowGraphForMoves(assignedUnits));
+      // apply sink to destination city
+      ArrayList<Integer> sinks = tmpNav.cityTileCells(cityId);
+      ArrayList<Unit> replan = tmpNav.followCommittedPaths(assignedUnits, Route.CITY, mask(sinks), movements);
+      if (replan.isEmpty())
+        continue;
+
+      Bitboard none = new Bitboard(gameMap.width, gameMap.height);
+      tmpNav.chooseTimeLayers(replan, mask(sinks), none);
+      tmpNav.createFlowGraph(replan, none, 0);
+      tmpNav.SetupGraph(false, allowedCity);
+      tmpNav.applySources(replan);
+      tmpNav.applySinks(sinks, Integer.MAX_VALUE / 2);
+      long[] results = tmpNav.flow.flow();
+      tmpNav.recordReservations(none);
 
-      oldFlow = tmpNav.flow;
+      movements.addAll(tmpNav.readFlowGraphForMoves(replan, Route.CITY));
     }
 
-    this.flow = oldFlow;
+    inheritReservations(prevNav);
 
     return movements;
   }
@@ -464,12 +792,41 @@ public class Navigator {
 
   public ArrayList<String> generateRoutesToColonies(ArrayList<Unit> units, ArrayList<Position> cities,
                                                     Navigator oldNavigator) {
-    SetupGraph(false, new HashSet<>(), new HashSet<>(), oldNavigator.flow);
-    applySourceAndSinkForColonyRouting(units, cities);
+    inheritReservations(oldNavigator);
+
+    // apply sink to new city positions
+    ArrayList<Integer> sinks = new ArrayList<>();
+    for (Position p : cities) {
+      sinks.add(grid.cell(p));
+    }
+    // colonists are routed to any of the sites, so a committed path only has to lead to one that is still open
+    ArrayList<String> actions = new ArrayList<>();
+    ArrayList<Unit> replan = followCommittedPaths(units, Route.COLONY, mask(sinks), actions);
+    if (replan.isEmpty())
+      return actions;
+
+    Bitboard none = new Bitboard(gameMap.width, gameMap.height);
+    chooseTimeLayers(replan, mask(sinks), none);
+    // Colonists too far away for the horizon follow the sector map from wherever the last layer leaves them,
+    // rather than free movement over the whole map
+    if (needsTail && sectorMap != null) {
+      needsTail = false;
+      heuristicTail = true;
+    }
+    createFlowGraph(replan, none, heuristicTail ? sinks.size() : 0);
+    SetupGraph(false, new HashSet<>());
+    applySources(replan);
+    if (heuristicTail) {
+      applyHeuristicSinks(sinks);
+    } else {
+      applySinks(sinks, 1);
+    }
 
     long[] results = flow.flow();
+    recordReservations(none);
 
-    return readFlowGraphForMoves(units);
+    actions.addAll(readFlowGraphForMoves(replan, Route.COLONY));
+    return actions;
   }
 
   /**
@@ -479,11 +836,26 @@ public class Navigator {
    * settlers with this mechanism.
    */
   public ArrayList<String> generateRoutesForLeftovers(ArrayList<Unit> leftovers, Navigator oldNav) {
-    SetupGraph(true, new HashSet<>(), new HashSet<>(), oldNav.flow);
-    applySourceAndSinkForLeftoverRouting(leftovers);
+    inheritReservations(oldNav);
+
+    // apply sink to all city tiles
+    ArrayList<Integer> sinks = cityTileCells(null);
+    ArrayList<String> actions = new ArrayList<>();
+    ArrayList<Unit> replan = followCommittedPaths(leftovers, Route.LEFTOVERS, mask(sinks), actions);
+    if (replan.isEmpty())
+      return actions;
+
+    Bitboard none = new Bitboard(gameMap.width, gameMap.height);
+    chooseTimeLayers(replan, mask(sinks), none);
+    createFlowGraph(replan, none, 0);
+    SetupGraph(true, new HashSet<>());
+    applySources(replan);
+    applySinks(sinks, 1);
 
     long[] results = flow.flow();
+    recordReservations(none);
 
-    return readFlowGraphForMoves(leftovers);
+    actions.addAll(readFlowGraphForMoves(replan, Route.LEFTOVERS));
+    return actions;
   }
 }
@@ -0,0 +1,203 @@
+package bot;
+
+import lux.*;
+
+import java.util.Arrays;
+
+/**
+ * Cheap guess of where the opponent's units will be over the next few turns. Every enemy unit is assumed to walk
+ * down a distance field toward the closest resource it can mine, or toward its own cities once its cargo is full,
+ * moving whenever its cooldown allows. The result is a per-turn occupancy probability for every cell that the
+ * Navigator turns into soft costs.
+ *
+ * Meant to be kept between turns: all buffers are allocated once per map, and the per-turn work besides the two
+ * distance fields is O(enemy units * HORIZON).
+ */
+public class OpponentModel {
+
+  public final static int HORIZON = 8;
+  // Occupancy at or above this means the unit can't have left the cell yet
+  public final static float CERTAIN = 0.999f;
+  // How much of its probability a unit keeps on the predicted path each turn it is free to act
+  private final static float CONFIDENCE = 0.8f;
+  private final static int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+  private final static int[] dx = {-1, 0, 1, 0}, dy = {0, -1, 0, 1};
+
+  private final int width, height, cellCount;
+
+  // occupancy[t][cellId] after t turns; touched holds t * cellCount + cellId of every non-zero entry
+  private final float[][] occupancy;
+  private int[] touched;
+  private int touchedCount = 0;
+
+  private final int[] resourceDist, cityDist, queue;
+  private final boolean[] blocked;
+  private final int[] candidates = new int[4];
+
+  public OpponentModel(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.cellCount = width * height;
+    this.occupancy = new float[HORIZON + 1][cellCount];
+    this.touched = new int[64];
+    this.resourceDist = new int[cellCount];
+    this.cityDist = new int[cellCount];
+    this.queue = new int[cellCount];
+    this.blocked = new boolean[cellCount];
+  }
+
+  public float occupancy(int t, int cellId) {
+    if (t > HORIZON)
+      return 0;
+    return occupancy[t][cellId];
+  }
+
+  public void update(GameState gameState) {
+    GameMap gameMap = gameState.map;
+    Player player = gameState.players[gameState.id];
+    Player opponent = gameState.players[(gameState.id + 1) % 2];
+
+    for (int i = 0; i < touchedCount; i++) {
+      occupancy[touched[i] / cellCount][touched[i] % cellCount] = 0;
+    }
+    touchedCount = 0;
+
+    // The opponent can't walk onto our city tiles, and can only mine what it has researched
+    int resourceStarts = 0, cityStarts = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        Cell cell = gameMap.getCell(x, y);
+        int cellId = y * width + x;
+        blocked[cellId] = cell.hasCityTile() && cell.citytile.team == player.team;
+        if (cell.hasCityTile() && cell.citytile.team == opponent.team) {
+          cityDist[cityStarts++] = cellId;
+        }
+        if (cell.hasResource() && canMine(opponent, cell.resource.type)) {
+          resourceDist[resourceStarts++] = cellId;
+        }
+      }
+    }
+    bfs(resourceDist, resourceStarts, true);
+    bfs(cityDist, cityStarts, false);
+
+    for (Unit unit : opponent.units) {
+      predict(unit);
+    }
+  }
+
+  private boolean canMine(Player p, String resourceType) {
+    switch (resourceType) {
+      case GameConstants.RESOURCE_TYPES.COAL:
+        return p.researchedCoal();
+      case GameConstants.RESOURCE_TYPES.URANIUM:
+        return p.researchedUranium();
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Turns dist, whose first startCount entries hold the start cells, into a distance field in place. For resources
+   * the cells next to a resource count as arrived, since that is where a unit harvests from.
+   */
+  private void bfs(int[] dist, int startCount, boolean adjacentIsGoal) {
+    System.arraycopy(dist, 0, queue, 0, startCount);
+    Arrays.fill(dist, UNREACHABLE);
+    int head = 0, tail = 0;
+    for (int i = 0; i < startCount; i++) {
+      int cellId = queue[i];
+      if (dist[cellId] == 0)
+        continue;
+      dist[cellId] = 0;
+      queue[tail++] = cellId;
+    }
+    if (adjacentIsGoal) {
+      for (int i = 0, n = tail; i < n; i++) {
+        int x = queue[i] % width, y = queue[i] / width;
+        for (int k = 0; k < 4; k++) {
+          int xx = x + dx[k], yy = y + dy[k];
+          if (xx < 0 || xx >= width || yy < 0 || yy >= height)
+            continue;
+          int tmpId = yy * width + xx;
+          if (dist[tmpId] == 0 || blocked[tmpId])
+            continue;
+          dist[tmpId] = 0;
+          queue[tail++] = tmpId;
+        }
+      }
+    }
+
+    while (head < tail) {
+      int cellId = queue[head++];
+      int x = cellId % width, y = cellId / width;
+      for (int k = 0; k < 4; k++) {
+        int xx = x + dx[k], yy = y + dy[k];
+        if (xx < 0 || xx >= width || yy < 0 || yy >= height)
+          continue;
+        int tmpId = yy * width + xx;
+        if (dist[tmpId] != UNREACHABLE || blocked[tmpId])
+          continue;
+        dist[tmpId] = dist[cellId] + 1;
+        queue[tail++] = tmpId;
+      }
+    }
+  }
+
+  private void predict(Unit unit) {
+    int[] field = unit.getCargoSpaceLeft() == 0 ? cityDist : resourceDist;
+    int moveCooldown = unit.isWorker() ? GameConstants.PARAMETERS.UNIT_ACTION_COOLDOWN.WORKER :
+        GameConstants.PARAMETERS.UNIT_ACTION_COOLDOWN.CART;
+
+    int pos = unit.pos.y * width + unit.pos.x;
+    double cooldown = unit.cooldown;
+    float p = 1;
+    add(0, pos, p);
+
+    for (int t = 1; t <= HORIZON; t++) {
+      if (cooldown >= 1) {
+        // can't have moved, so this is as certain as the previous turn
+        add(t, pos, p);
+      } else {
+        p *= CONFIDENCE;
+        int count = 0;
+        if (field[pos] != 0 && field[pos] != UNREACHABLE) {
+          int x = pos % width, y = pos / width;
+          for (int k = 0; k < 4; k++) {
+            int xx = x + dx[k], yy = y + dy[k];
+            if (xx < 0 || xx >= width || yy < 0 || yy >= height)
+              continue;
+            int tmpId = yy * width + xx;
+            if (field[tmpId] == field[pos] - 1)
+              candidates[count++] = tmpId;
+          }
+        }
+
+        if (count == 0) {
+          add(t, pos, p);
+        } else {
+          // spread over every step that gets closer, but only keep following the first one
+          for (int i = 0; i < count; i++) {
+            add(t, candidates[i], p / count);
+          }
+          pos = candidates[0];
+          cooldown = moveCooldown;
+        }
+      }
+      cooldown = Math.max(cooldown - 1, 0);
+    }
+  }
+
+  // Chances of the units being there are combined as independent ones rather than summed, so they stay below one
+  private void add(int t, int cellId, float p) {
+    if (occupancy[t][cellId] == 0) {
+      if (touchedCount == touched.length)
+        touched = Arrays.copyOf(touched, touched.length * 2);
+      touched[touchedCount++] = t * cellCount + cellId;
+    }
+    float before = occupancy[t][cellId];
+    float combined = 1 - (1 - before) * (1 - p);
+    // only a unit that can't have moved makes a cell certain, however many others might walk onto it
+    occupancy[t][cellId] = p >= CERTAIN || before >= CERTAIN ? combined : Math.min(combined, Math.nextDown(CERTAIN));
+  }
+}
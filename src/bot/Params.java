@@ -0,0 +1,169 @@
+package bot;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The tunable constants of the planners in one place. The defaults are the values the bot has always played with;
+ * any of them can be overridden with -Dparam.name=value, which is how the Tuner hands configurations to bot
+ * processes.
+ */
+public class Params {
+
+  // Surveyor: how fast a site's score fades with distance from what made it valuable
+  public double growthDistanceDebuff = 0.7;
+  public double exploreDistanceDebuff = 0.95;
+  // explore sites closer than this to one of our city tiles are skipped
+  public int exploreMinCityDistance = 5;
+  // fraction of the neighbours' score an empty cell next to our cities gets
+  public double neighbourScoreFactor = 0.95;
+  public double rawScoreFade = 0.75;
+  public double antiCityDebuffRatio = 0.4;
+  public double smallCityBuffRatio = 1.5;
+
+  // Surveyor: what a unit of each resource is worth, coal and uranium scaled down by how far off their research is
+  public double woodValue = 10;
+  public double coalValue = 6;
+  public double uraniumValue = 4;
+  public double researchHorizon = 50;
+
+  // Coordinator: how fast a resource's worth to a city fades with distance, when picking where to build workers
+  public double cityScoreDecay = 0.9;
+  // Coordinator: cargo that sends a unit back to a city before it is full
+  public int minCoalForRefuel = 25;
+  public int minUraniumForRefuel = 10;
+  // most new colony sites planned per turn, and how many fewer explore sites a NEAR expansion gets
+  public int maxNewSites = 5;
+  public int nearExploreReduction = 3;
+
+  // Coordinator: per turn search budgets. Not tuned, but matches played by the Tuner turn them down
+  public int planBudgetMs = 150;
+  public int macroBudgetMs = 100;
+
+  /**
+   * Range a tunable parameter is searched over. Parameters without a Spec keep their value.
+   */
+  public static final class Spec {
+    public final String name;
+    public final double min, max;
+
+    Spec(String name, double min, double max) {
+      this.name = name;
+      this.min = min;
+      this.max = max;
+    }
+  }
+
+  public static final Spec[] SPECS = {
+      new Spec("growthDistanceDebuff", 0.4, 0.95),
+      new Spec("exploreDistanceDebuff", 0.8, 0.99),
+      new Spec("exploreMinCityDistance", 2, 10),
+      new Spec("neighbourScoreFactor", 0.5, 1.2),
+      new Spec("rawScoreFade", 0.5, 0.95),
+      new Spec("antiCityDebuffRatio", 0.1, 1),
+      new Spec("smallCityBuffRatio", 1, 3),
+      new Spec("woodValue", 2, 20),
+      new Spec("coalValue", 1, 15),
+      new Spec("uraniumValue", 1, 15),
+      new Spec("researchHorizon", 20, 100),
+      new Spec("cityScoreDecay", 0.5, 0.99),
+      new Spec("minCoalForRefuel", 5, 60),
+      new Spec("minUraniumForRefuel", 2, 40),
+      new Spec("maxNewSites", 2, 8),
+      new Spec("nearExploreReduction", 0, 5),
+  };
+
+  public Params() {
+  }
+
+  public Params(Params other) {
+    try {
+      for (Field field : fields()) {
+        field.set(this, field.get(other));
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Defaults, overridden by whatever -Dparam.name=value properties are set
+  public static Params fromSystemProperties() {
+    Params params = new Params();
+    for (Field field : fields()) {
+      String value = System.getProperty("param." + field.getName());
+      if (value != null)
+        params.set(field.getName(), Double.parseDouble(value));
+    }
+    return params;
+  }
+
+  private static ArrayList<Field> fields() {
+    ArrayList<Field> fields = new ArrayList<>();
+    for (Field field : Params.class.getFields()) {
+      if (!Modifier.isStatic(field.getModifiers()))
+        fields.add(field);
+    }
+    return fields;
+  }
+
+  public double get(String name) {
+    try {
+      return Params.class.getField(name).getDouble(this);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("no parameter " + name);
+    }
+  }
+
+  // Int parameters get the value rounded
+  public Params set(String name, double value) {
+    try {
+      Field field = Params.class.getField(name);
+      if (field.getType() == int.class) {
+        field.setInt(this, (int) Math.round(value));
+      } else {
+        field.setDouble(this, value);
+      }
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("no parameter " + name);
+    }
+    return this;
+  }
+
+  /**
+   * A copy with every tunable parameter moved by a random fraction (up to scale) of its range, kept inside it.
+   */
+  public Params perturb(Random random, double scale) {
+    Params params = new Params(this);
+    for (Spec spec : SPECS) {
+      double value = get(spec.name) + random.nextGaussian() * scale * (spec.max - spec.min);
+      params.set(spec.name, Math.max(spec.min, Math.min(spec.max, value)));
+    }
+    return params;
+  }
+
+  // -Dparam.name=value for every field, to start a bot process with these parameters
+  public ArrayList<String> toJvmArgs() {
+    ArrayList<String> args = new ArrayList<>();
+    for (Field field : fields()) {
+      args.add("-Dparam." + field.getName() + "=" + format(field.getName()));
+    }
+    return args;
+  }
+
+  private String format(String name) {
+    double value = get(name);
+    return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Spec spec : SPECS) {
+      if (sb.length() > 0) sb.append(' ');
+      sb.append(spec.name).append('=').append(format(spec.name));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,429 @@
+package bot;
+
+import lux.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares candidate turn plans by rolling each of them forward a few turns with a cheap, deterministic model of
+ * harvesting, walking, building, research and night upkeep, and scoring where they end up.
+ *
+ * Everything the model needs is copied out of an immutable GameSnapshot once into arrays that are never written
+ * afterwards; every rollout works on its worker thread's own scratch copy. Candidates run in parallel and whatever
+ * hasn't finished by the deadline simply loses.
+ */
+public class PlanEvaluator {
+
+  public enum CityPolicy {
+    // build a worker whenever we have fewer units than city tiles, research otherwise (the Coordinator's default)
+    WORKERS_FIRST,
+    // research until uranium, only then build workers
+    RESEARCH_FIRST
+  }
+
+  /**
+   * One candidate: the colony sites our colonizers will head for (cell ids), and how city tiles spend their actions.
+   */
+  public static class Plan {
+    final int[] colonySites;
+    final CityPolicy cityPolicy;
+
+    public Plan(Collection<Position> colonySites, CityPolicy cityPolicy, int width) {
+      this.colonySites = colonySites.stream().mapToInt(p -> p.y * width + p.x).toArray();
+      this.cityPolicy = cityPolicy;
+    }
+  }
+
+  public final static int ROLLOUT_TURNS = 15;
+  private final static int UNREACHABLE = BfsKernel.UNREACHABLE;
+  private final static int[] dx = {-1, 0, 1, 0}, dy = {0, -1, 0, 1};
+
+  private static ExecutorService pool;
+
+  // Immutable starting point shared by all rollouts
+  private final int width, height, cellCount, startTurn, researchPoints;
+  private final int[] resourceAmount, resourceFuelRate, resourceCollectRate;
+  private final int[] tileCell, tileCity;
+  private final double[] cityFuel;
+  private final int[] unitCell, unitCargo, unitFuel, unitCooldown;
+  private final boolean[] unitColonizer, enemyTile;
+  private final int[] harvestDist;
+
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  public PlanEvaluator(GameSnapshot snapshot, Collection<Unit> colonizers) {
+    GameSnapshot.PlayerView player = snapshot.me();
+    width = snapshot.width;
+    height = snapshot.height;
+    cellCount = width * height;
+    startTurn = snapshot.turn;
+    researchPoints = player.researchPoints;
+
+    resourceAmount = new int[cellCount];
+    resourceFuelRate = new int[cellCount];
+    resourceCollectRate = new int[cellCount];
+    enemyTile = new boolean[cellCount];
+    ArrayList<Integer> harvestCells = new ArrayList<>();
+    HashMap<String, Integer> cityIndex = new HashMap<>();
+    for (String cityId : player.cities.keySet()) cityIndex.put(cityId, cityIndex.size());
+    ArrayList<Integer> tiles = new ArrayList<>();
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int cellId = y * width + x;
+        int cityTeam = snapshot.cityTeam(x, y);
+        enemyTile[cellId] = cityTeam != -1 && cityTeam != player.team;
+        if (cityTeam == player.team)
+          tiles.add(cellId);
+        switch (snapshot.resourceType(x, y)) {
+          case GameSnapshot.WOOD:
+            resourceFuelRate[cellId] = GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.WOOD;
+            resourceCollectRate[cellId] = GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.WOOD;
+            break;
+          case GameSnapshot.COAL:
+            if (!player.researchedCoal()) continue;
+            resourceFuelRate[cellId] = GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.COAL;
+            resourceCollectRate[cellId] = GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.COAL;
+            break;
+          case GameSnapshot.URANIUM:
+            if (!player.researchedUranium()) continue;
+            resourceFuelRate[cellId] = GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.URANIUM;
+            resourceCollectRate[cellId] = GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.URANIUM;
+            break;
+          default:
+            continue;
+        }
+        resourceAmount[cellId] = snapshot.resourceAmount(x, y);
+        harvestCells.add(cellId);
+      }
+    }
+    harvestDist = harvestField(harvestCells);
+
+    cityFuel = new double[cityIndex.size()];
+    for (GameSnapshot.CityView city : player.cities.values()) {
+      cityFuel[cityIndex.get(city.id)] = city.fuel;
+    }
+    tileCell = new int[tiles.size()];
+    tileCity = new int[tiles.size()];
+    for (int t = 0; t < tiles.size(); t++) {
+      int cellId = tiles.get(t);
+      tileCell[t] = cellId;
+      tileCity[t] = cityIndex.get(snapshot.cityId(cellId % width, cellId / width));
+    }
+
+    HashSet<String> colonizerIds = new HashSet<>();
+    for (Unit unit : colonizers) colonizerIds.add(unit.id);
+    int n = player.units.size();
+    unitCell = new int[n];
+    unitCargo = new int[n];
+    unitFuel = new int[n];
+    unitCooldown = new int[n];
+    unitColonizer = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      GameSnapshot.UnitView unit = player.units.get(i);
+      unitCell[i] = unit.y * width + unit.x;
+      unitCargo[i] = unit.getCargoSpaceUsed();
+      unitFuel[i] = unit.getFuelValue();
+      unitCooldown[i] = (int) Math.ceil(unit.cooldown);
+      unitColonizer[i] = colonizerIds.contains(unit.id);
+    }
+  }
+
+  /**
+   * Scores every plan (higher is better). Plans whose rollout didn't finish within the budget get
+   * Double.NEGATIVE_INFINITY.
+   */
+  public double[] evaluate(List<Plan> plans, long budgetNanos) {
+    long deadline = System.nanoTime() + budgetNanos;
+    double[] scores = new double[plans.size()];
+    Arrays.fill(scores, Double.NEGATIVE_INFINITY);
+
+    ArrayList<Future<Double>> futures = new ArrayList<>();
+    for (Plan plan : plans) {
+      futures.add(pool().submit(() -> rollout(plan, deadline)));
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        long left = deadline - System.nanoTime();
+        scores[i] = futures.get(i).get(Math.max(left, 0), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException | InterruptedException | ExecutionException e) {
+        futures.get(i).cancel(true);
+      }
+    }
+    return scores;
+  }
+
+  public static int best(double[] scores) {
+    int best = 0;
+    for (int i = 1; i < scores.length; i++) {
+      if (scores[i] > scores[best]) best = i;
+    }
+    return best;
+  }
+
+  private static synchronized ExecutorService pool() {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+        Thread thread = new Thread(r, "PlanEvaluator");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return pool;
+  }
+
+  // Per-thread working copy of the model, reused between rollouts
+  private class Scratch {
+    int[] resources = new int[cellCount];
+    boolean[] ownTile = new boolean[cellCount];
+    int[] cityOfCell = new int[cellCount];
+    double[] fuel = new double[0];
+    int[] upkeep = new int[0];
+    int[] cell = new int[0], cargo = new int[0], unitFuel = new int[0], cooldown = new int[0], site = new int[0];
+    boolean[] alive = new boolean[0];
+  }
+
+  private double rollout(Plan plan, long deadline) {
+    Scratch s = scratch.get();
+    System.arraycopy(resourceAmount, 0, s.resources, 0, cellCount);
+    Arrays.fill(s.ownTile, false);
+    Arrays.fill(s.cityOfCell, -1);
+
+    // new colony tiles become cities of their own
+    int cities = cityFuel.length + plan.colonySites.length;
+    s.fuel = Arrays.copyOf(cityFuel, cities);
+    s.upkeep = ensure(s.upkeep, cities);
+    Arrays.fill(s.upkeep, 0);
+    for (int t = 0; t < tileCell.length; t++) {
+      s.ownTile[tileCell[t]] = true;
+      s.cityOfCell[tileCell[t]] = tileCity[t];
+      s.upkeep[tileCity[t]] += GameConstants.PARAMETERS.LIGHT_UPKEEP.CITY;
+    }
+    int tiles = tileCell.length;
+
+    int maxUnits = unitCell.length + ROLLOUT_TURNS * Math.max(tiles + plan.colonySites.length, 1);
+    s.cell = ensure(s.cell, maxUnits);
+    s.cargo = ensure(s.cargo, maxUnits);
+    s.unitFuel = ensure(s.unitFuel, maxUnits);
+    s.cooldown = ensure(s.cooldown, maxUnits);
+    s.site = ensure(s.site, maxUnits);
+    if (s.alive.length < maxUnits) s.alive = new boolean[maxUnits];
+    int units = unitCell.length;
+    System.arraycopy(unitCell, 0, s.cell, 0, units);
+    System.arraycopy(unitCargo, 0, s.cargo, 0, units);
+    System.arraycopy(unitFuel, 0, s.unitFuel, 0, units);
+    System.arraycopy(unitCooldown, 0, s.cooldown, 0, units);
+    Arrays.fill(s.alive, 0, maxUnits, true);
+    Arrays.fill(s.site, 0, maxUnits, -1);
+    assignSites(s, plan.colonySites, units);
+
+    int research = researchPoints;
+    for (int step = 0; step < ROLLOUT_TURNS; step++) {
+      if (Thread.currentThread().isInterrupted() || System.nanoTime() > deadline)
+        return Double.NEGATIVE_INFINITY;
+      int turn = startTurn + step;
+
+      for (int u = 0; u < units; u++) {
+        if (!s.alive[u]) continue;
+        if (s.cooldown[u] > 0) {
+          s.cooldown[u]--;
+        } else if (s.site[u] != -1) {
+          if (s.cell[u] == s.site[u] && s.cargo[u] >= GameConstants.PARAMETERS.CITY_BUILD_COST) {
+            int city = cityFuel.length + siteIndex(plan.colonySites, s.site[u]);
+            s.ownTile[s.cell[u]] = true;
+            s.cityOfCell[s.cell[u]] = city;
+            s.upkeep[city] += GameConstants.PARAMETERS.LIGHT_UPKEEP.CITY;
+            tiles++;
+            s.cargo[u] = 0;
+            s.unitFuel[u] = 0;
+            s.site[u] = -1;
+          } else {
+            moveToward(s, u, s.site[u]);
+          }
+        } else if (s.cargo[u] >= GameConstants.PARAMETERS.RESOURCE_CAPACITY.WORKER) {
+          moveToCity(s, u);
+        } else if (harvestDist[s.cell[u]] != 0) {
+          stepDown(s, u, harvestDist);
+        }
+        collect(s, u);
+        if (s.ownTile[s.cell[u]] && s.site[u] == -1 && s.unitFuel[u] > 0) {
+          s.fuel[s.cityOfCell[s.cell[u]]] += s.unitFuel[u];
+          s.cargo[u] = 0;
+          s.unitFuel[u] = 0;
+        }
+      }
+
+      // every tile acts once per CITY_ACTION_COOLDOWN turns, starting now
+      if (step % GameConstants.PARAMETERS.CITY_ACTION_COOLDOWN == 0) {
+        for (int cellId = 0; cellId < cellCount; cellId++) {
+          if (!s.ownTile[cellId]) continue;
+          boolean buildWorker = plan.cityPolicy == CityPolicy.WORKERS_FIRST ?
+              tiles > aliveUnits(s, units) :
+              research >= GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.URANIUM;
+          if (buildWorker && units < maxUnits) {
+            s.cell[units] = cellId;
+            s.cargo[units] = 0;
+            s.unitFuel[units] = 0;
+            s.cooldown[units] = 0;
+            units++;
+          } else if (research < GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.URANIUM) {
+            research++;
+          }
+        }
+      }
+
+      if ((turn - 1) % 40 >= 30) {
+        tiles -= nightUpkeep(s, units, cities);
+      }
+    }
+
+    return tiles * 100.0 + aliveUnits(s, units) * 10.0 + research + totalFuel(s, cities) / 100.0;
+  }
+
+  private void assignSites(Scratch s, int[] sites, int units) {
+    // closest colonizer first, the same way the Coordinator hands them out
+    boolean[] taken = new boolean[sites.length];
+    for (int u = 0; u < units; u++) {
+      if (!unitColonizer[u]) continue;
+      int best = -1, bestDist = UNREACHABLE;
+      for (int k = 0; k < sites.length; k++) {
+        if (taken[k]) continue;
+        int d = manhattan(s.cell[u], sites[k]);
+        if (d < bestDist) {
+          bestDist = d;
+          best = k;
+        }
+      }
+      if (best != -1) {
+        taken[best] = true;
+        s.site[u] = sites[best];
+      }
+    }
+  }
+
+  private static int siteIndex(int[] sites, int cellId) {
+    for (int k = 0; k < sites.length; k++) {
+      if (sites[k] == cellId) return k;
+    }
+    return 0;
+  }
+
+  private void collect(Scratch s, int u) {
+    int x = s.cell[u] % width, y = s.cell[u] / width;
+    for (int k = -1; k < 4; k++) {
+      int xx = k == -1 ? x : x + dx[k], yy = k == -1 ? y : y + dy[k];
+      if (xx < 0 || xx >= width || yy < 0 || yy >= height)
+        continue;
+      int cellId = yy * width + xx;
+      int space = GameConstants.PARAMETERS.RESOURCE_CAPACITY.WORKER - s.cargo[u];
+      if (s.resources[cellId] <= 0 || space <= 0)
+        continue;
+      int amount = Math.min(Math.min(resourceCollectRate[cellId], s.resources[cellId]), space);
+      s.resources[cellId] -= amount;
+      s.cargo[u] += amount;
+      s.unitFuel[u] += amount * resourceFuelRate[cellId];
+    }
+  }
+
+  private void moveToCity(Scratch s, int u) {
+    int best = -1, bestDist = UNREACHABLE;
+    for (int cellId = 0; cellId < cellCount; cellId++) {
+      if (!s.ownTile[cellId]) continue;
+      int d = manhattan(s.cell[u], cellId);
+      if (d < bestDist) {
+        bestDist = d;
+        best = cellId;
+      }
+    }
+    if (best != -1)
+      moveToward(s, u, best);
+  }
+
+  private void moveToward(Scratch s, int u, int target) {
+    int x = s.cell[u] % width, y = s.cell[u] / width;
+    int tx = target % width, ty = target / width;
+    int next = x != tx ? y * width + x + Integer.signum(tx - x) : (y + Integer.signum(ty - y)) * width + x;
+    if (next != s.cell[u] && !enemyTile[next]) {
+      s.cell[u] = next;
+      s.cooldown[u] = GameConstants.PARAMETERS.UNIT_ACTION_COOLDOWN.WORKER - 1;
+    }
+  }
+
+  private void stepDown(Scratch s, int u, int[] field) {
+    int x = s.cell[u] % width, y = s.cell[u] / width;
+    for (int k = 0; k < 4; k++) {
+      int xx = x + dx[k], yy = y + dy[k];
+      if (xx < 0 || xx >= width || yy < 0 || yy >= height)
+        continue;
+      int cellId = yy * width + xx;
+      if (field[cellId] < field[s.cell[u]]) {
+        s.cell[u] = cellId;
+        s.cooldown[u] = GameConstants.PARAMETERS.UNIT_ACTION_COOLDOWN.WORKER - 1;
+        return;
+      }
+    }
+  }
+
+  // Burns a night turn; returns how many city tiles went dark
+  private int nightUpkeep(Scratch s, int units, int cities) {
+    int lost = 0;
+    for (int c = 0; c < cities; c++) {
+      s.fuel[c] -= s.upkeep[c];
+      if (s.fuel[c] < 0 && s.upkeep[c] > 0) {
+        for (int cellId = 0; cellId < cellCount; cellId++) {
+          if (s.cityOfCell[cellId] == c) {
+            s.ownTile[cellId] = false;
+            s.cityOfCell[cellId] = -1;
+            lost++;
+          }
+        }
+        s.upkeep[c] = 0;
+        s.fuel[c] = 0;
+      }
+    }
+    for (int u = 0; u < units; u++) {
+      if (!s.alive[u] || s.ownTile[s.cell[u]]) continue;
+      s.unitFuel[u] -= GameConstants.PARAMETERS.LIGHT_UPKEEP.WORKER;
+      if (s.unitFuel[u] < 0)
+        s.alive[u] = false;
+    }
+    return lost;
+  }
+
+  private static int aliveUnits(Scratch s, int units) {
+    int alive = 0;
+    for (int u = 0; u < units; u++) {
+      if (s.alive[u]) alive++;
+    }
+    return alive;
+  }
+
+  private static double totalFuel(Scratch s, int cities) {
+    double fuel = 0;
+    for (int c = 0; c < cities; c++) fuel += Math.max(s.fuel[c], 0);
+    return fuel;
+  }
+
+  private int manhattan(int a, int b) {
+    return Math.abs(a % width - b % width) + Math.abs(a / width - b / width);
+  }
+
+  private static int[] ensure(int[] array, int size) {
+    return array.length >= size ? array : new int[size];
+  }
+
+  // Distance to the closest cell a unit can harvest from, i.e. a resource or one of its neighbours
+  private int[] harvestField(Collection<Integer> resources) {
+    Bitboard blocked = new Bitboard(width, height);
+    for (int cellId = 0; cellId < cellCount; cellId++) {
+      if (enemyTile[cellId]) blocked.set(cellId);
+    }
+    Bitboard starts = new Bitboard(width, height);
+    for (int cellId : resources) starts.set(cellId);
+    starts.expand().andNot(blocked);
+
+    int[] dist = new int[cellCount];
+    BfsKernel.distances(starts, blocked, dist, null);
+    return dist;
+  }
+}
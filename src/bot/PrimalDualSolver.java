@@ -0,0 +1,229 @@
+package bot;
+
+import java.util.Arrays;
+
+/**
+ * Primal-dual min cost flow: a Dijkstra over reduced costs finds the current shortest s-t distance and updates the
+ * node potentials, then a Dinic style blocking flow pushes everything that fits along paths of exactly that length
+ * before the next Dijkstra.
+ *
+ * With the small integer costs of our graphs there are only a few distinct path lengths, so the number of Dijkstra
+ * runs is bounded by those rather than by the number of augmenting paths. That is what makes it win over plain SPFA
+ * augmentation on big graphs with many unit sources, where SPFA needs one full pass per unit.
+ */
+public class PrimalDualSolver implements FlowSolver {
+
+  private final static long INF = Long.MAX_VALUE / 4;
+
+  private long[] potential, dist;
+  private int[] level, queue, iter;
+  private MinCostMaxFlow.Edge[][] adj;
+  private LongHeap heap;
+
+  @Override
+  public String name() {
+    return "primal-dual";
+  }
+
+  @Override
+  public long[] solve(MinCostMaxFlow graph) {
+    int n = graph.n;
+    adj = new MinCostMaxFlow.Edge[n][];
+    for (int i = 0; i < n; i++) {
+      adj[i] = graph.adj[i].toArray(new MinCostMaxFlow.Edge[0]);
+    }
+    potential = new long[n];
+    dist = new long[n];
+    level = new int[n];
+    queue = new int[n];
+    iter = new int[n];
+    heap = new LongHeap(n);
+
+    // Dijkstra needs non-negative reduced costs to start with; only residual edges with negative cost break that
+    if (hasNegativeResidualCost(n))
+      bellmanFord(graph.s, n);
+
+    long cost = 0, flow = 0;
+    while (dijkstra(graph.s, graph.t, n)) {
+      while (levels(graph.s, graph.t, n)) {
+        Arrays.fill(iter, 0);
+        long pushed;
+        while ((pushed = push(graph.s, graph.t, INF)) > 0) {
+          flow += pushed;
+          cost += pushed * (potential[graph.t] - potential[graph.s]);
+        }
+      }
+    }
+    return new long[]{cost, flow};
+  }
+
+  private static long residual(MinCostMaxFlow.Edge e) {
+    return (long) e.cap - e.flow;
+  }
+
+  private long reducedCost(MinCostMaxFlow.Edge e) {
+    return e.cost + potential[e.v1] - potential[e.v2];
+  }
+
+  private boolean hasNegativeResidualCost(int n) {
+    for (int u = 0; u < n; u++) {
+      for (MinCostMaxFlow.Edge e : adj[u]) {
+        if (residual(e) > 0 && e.cost < 0) return true;
+      }
+    }
+    return false;
+  }
+
+  private void bellmanFord(int s, int n) {
+    Arrays.fill(potential, INF);
+    potential[s] = 0;
+    for (int round = 0; round < n; round++) {
+      boolean changed = false;
+      for (int u = 0; u < n; u++) {
+        if (potential[u] == INF) continue;
+        for (MinCostMaxFlow.Edge e : adj[u]) {
+          if (residual(e) > 0 && potential[u] + e.cost < potential[e.v2]) {
+            potential[e.v2] = potential[u] + e.cost;
+            changed = true;
+          }
+        }
+      }
+      if (!changed) break;
+    }
+    for (int u = 0; u < n; u++) {
+      if (potential[u] == INF) potential[u] = 0;
+    }
+  }
+
+  // Shortest reduced distances from s; folds them into the potentials. False once t can't be reached any more
+  private boolean dijkstra(int s, int t, int n) {
+    Arrays.fill(dist, INF);
+    dist[s] = 0;
+    heap.clear();
+    heap.push(0, s);
+    while (!heap.isEmpty()) {
+      long d = heap.topKey();
+      int u = heap.pop();
+      if (d > dist[u]) continue;
+      // everything still in the heap is at least as far as t, and is treated as exactly that far below
+      if (u == t) break;
+      for (MinCostMaxFlow.Edge e : adj[u]) {
+        if (residual(e) <= 0) continue;
+        long nd = d + reducedCost(e);
+        if (nd < dist[e.v2]) {
+          dist[e.v2] = nd;
+          heap.push(nd, e.v2);
+        }
+      }
+    }
+    if (dist[t] == INF)
+      return false;
+    // nodes Dijkstra didn't settle get t's distance, which keeps every residual reduced cost non-negative
+    for (int u = 0; u < n; u++) {
+      potential[u] += Math.min(dist[u], dist[t]);
+    }
+    return true;
+  }
+
+  private boolean admissible(MinCostMaxFlow.Edge e) {
+    return residual(e) > 0 && reducedCost(e) == 0;
+  }
+
+  // BFS levels over the admissible (zero reduced cost) residual edges, so the blocking flow can't run in circles
+  private boolean levels(int s, int t, int n) {
+    Arrays.fill(level, -1);
+    int head = 0, tail = 0;
+    level[s] = 0;
+    queue[tail++] = s;
+    while (head < tail) {
+      int u = queue[head++];
+      // nothing beyond t's level can be on a shortest path to it
+      if (level[t] != -1 && level[u] >= level[t])
+        break;
+      for (MinCostMaxFlow.Edge e : adj[u]) {
+        if (level[e.v2] == -1 && admissible(e)) {
+          level[e.v2] = level[u] + 1;
+          queue[tail++] = e.v2;
+        }
+      }
+    }
+    return level[t] != -1;
+  }
+
+  private long push(int u, int t, long limit) {
+    if (u == t)
+      return limit;
+    for (; iter[u] < adj[u].length; iter[u]++) {
+      MinCostMaxFlow.Edge e = adj[u][iter[u]];
+      if (level[e.v2] != level[u] + 1 || !admissible(e))
+        continue;
+      long pushed = push(e.v2, t, Math.min(limit, residual(e)));
+      if (pushed > 0) {
+        e.flow += pushed;
+        e.rev.flow -= pushed;
+        return pushed;
+      }
+    }
+    return 0;
+  }
+
+  // Binary min-heap of (key, node) pairs in two primitive arrays, to keep Dijkstra free of boxing
+  private static final class LongHeap {
+    private long[] keys;
+    private int[] nodes;
+    private int size;
+
+    LongHeap(int capacity) {
+      keys = new long[Math.max(capacity, 16)];
+      nodes = new int[keys.length];
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    long topKey() {
+      return keys[0];
+    }
+
+    void push(long key, int node) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        nodes = Arrays.copyOf(nodes, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (keys[parent] <= key) break;
+        keys[i] = keys[parent];
+        nodes[i] = nodes[parent];
+        i = parent;
+      }
+      keys[i] = key;
+      nodes[i] = node;
+    }
+
+    int pop() {
+      int top = nodes[0];
+      long key = keys[--size];
+      int node = nodes[size];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) break;
+        if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+        if (keys[child] >= key) break;
+        keys[i] = keys[child];
+        nodes[i] = nodes[child];
+        i = child;
+      }
+      keys[i] = key;
+      nodes[i] = node;
+      return top;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package bot;
+
+import lux.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tracks how fast every resource cell is being drained, by either team, from one turn's observation to the next,
+ * and projects its amount a few turns ahead including wood regrowth.
+ *
+ * The drain rate is an exponential moving average, so nothing but the previous amount is ever kept. A turn's update
+ * touches each observed resource cell once and only does real work for cells whose amount moved differently than
+ * regrowth alone would explain (or that still have a drain rate to decay).
+ */
+public class ResourceForecast {
+
+  // How many turns ahead Surveyor looks when scoring city sites
+  public final static int FORECAST_TURNS = 10;
+  // Weight of the newest observation in the drain rate
+  private final static float ALPHA = 0.3f;
+
+  private final int width;
+
+  private final int[] lastAmount;
+  private final float[] drainRate;
+  private final int[] projected;
+  private final int[] lastSeen;
+
+  // cells observed last turn, to notice the ones that were mined out
+  private int[] tracked = new int[0];
+  private int trackedCount = 0;
+
+  private int turn = 0;
+
+  public ResourceForecast(int width, int height) {
+    this.width = width;
+    int cellCount = width * height;
+    this.lastAmount = new int[cellCount];
+    this.drainRate = new float[cellCount];
+    this.projected = new int[cellCount];
+    this.lastSeen = new int[cellCount];
+    Arrays.fill(lastAmount, -1);
+  }
+
+  public void update(int turn, ArrayList<Cell> resourceTiles) {
+    this.turn = turn;
+    int[] seen = new int[resourceTiles.size()];
+    int seenCount = 0;
+
+    for (Cell cell : resourceTiles) {
+      int cellId = cell.pos.y * width + cell.pos.x;
+      int amount = cell.resource.amount;
+      boolean wood = cell.resource.type.equals(GameConstants.RESOURCE_TYPES.WOOD);
+      seen[seenCount++] = cellId;
+      lastSeen[cellId] = turn;
+
+      if (lastAmount[cellId] == -1) {
+        lastAmount[cellId] = amount;
+        projected[cellId] = project(amount, 0, wood, FORECAST_TURNS);
+        continue;
+      }
+
+      int drained = Math.max(regrow(lastAmount[cellId], wood) - amount, 0);
+      if (drained == 0 && drainRate[cellId] == 0 && amount == lastAmount[cellId])
+        continue;
+
+      drainRate[cellId] = (1 - ALPHA) * drainRate[cellId] + ALPHA * drained;
+      if (drainRate[cellId] < 0.01f)
+        drainRate[cellId] = 0;
+      lastAmount[cellId] = amount;
+      projected[cellId] = project(amount, drainRate[cellId], wood, FORECAST_TURNS);
+    }
+
+    // whatever we tracked but didn't see this turn has been mined out
+    for (int i = 0; i < trackedCount; i++) {
+      int cellId = tracked[i];
+      if (lastSeen[cellId] != turn) {
+        lastAmount[cellId] = -1;
+        drainRate[cellId] = 0;
+        projected[cellId] = 0;
+      }
+    }
+    tracked = seen;
+    trackedCount = seenCount;
+  }
+
+  /**
+   * Amount the cell is expected to hold FORECAST_TURNS from now, or its current amount if it was never observed.
+   */
+  public int projectedAmount(Cell cell) {
+    int cellId = cell.pos.y * width + cell.pos.x;
+    if (lastSeen[cellId] != turn || lastAmount[cellId] == -1)
+      return cell.hasResource() ? cell.resource.amount : 0;
+    return projected[cellId];
+  }
+
+  public float drainRate(Cell cell) {
+    return drainRate[cell.pos.y * width + cell.pos.x];
+  }
+
+  private static int regrow(int amount, boolean wood) {
+    if (!wood)
+      return amount;
+    return (int) Math.min(Math.ceil(amount * GameConstants.PARAMETERS.WOOD_GROWTH_RATE),
+        GameConstants.PARAMETERS.MAX_WOOD_AMOUNT);
+  }
+
+  private static int project(int amount, float drainRate, boolean wood, int turns) {
+    double a = amount;
+    for (int i = 0; i < turns && a > 0; i++) {
+      if (wood)
+        a = Math.min(a * GameConstants.PARAMETERS.WOOD_GROWTH_RATE, GameConstants.PARAMETERS.MAX_WOOD_AMOUNT);
+      a -= drainRate;
+    }
+    return (int) Math.max(a, 0);
+  }
+}
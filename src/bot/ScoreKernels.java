@@ -0,0 +1,86 @@
+package bot;
+
+/**
+ * Element-wise passes over flat score grids, cells y * width + x as everywhere else.
+ *
+ * Every loop is a plain counted loop over arrays without calls, which is what C2's superword pass turns into SIMD
+ * code by itself, so no vector API is needed (the bot targets Java 11, which doesn't have one). Masked zeroing is a
+ * select rather than a multiply by 0, so it also clears a NaN score; that and the decay table lookup, a gather, are
+ * the passes that may stay scalar. Columns are faded a whole row at a time so that pass vectorizes across x too.
+ */
+public final class ScoreKernels {
+
+  private ScoreKernels() {
+  }
+
+  // a[i] += b[i]
+  public static void add(double[] a, double[] b) {
+    for (int i = 0; i < a.length; i++) {
+      a[i] += b[i];
+    }
+  }
+
+  // a[i] *= table[index[i] - 1], the index clamped into the table
+  public static void multiplyLookup(double[] a, int[] index, double[] table) {
+    int last = table.length - 1;
+    for (int i = 0; i < a.length; i++) {
+      a[i] *= table[Math.max(Math.min(index[i] - 1, last), 0)];
+    }
+  }
+
+  // a[i] = 0 wherever keep[i] is false
+  public static void keep(double[] a, boolean[] keep) {
+    for (int i = 0; i < a.length; i++) {
+      a[i] = keep[i] ? a[i] : 0;
+    }
+  }
+
+  // mask[i] = index[i] > threshold
+  public static void above(int[] index, int threshold, boolean[] mask) {
+    for (int i = 0; i < mask.length; i++) {
+      mask[i] = index[i] > threshold;
+    }
+  }
+
+  /**
+   * values[i] becomes the sum over j of values[j] * factor^|i - j| along each row, rows being width cells long.
+   */
+  public static void fadeRows(double[] values, int width, int height, double factor) {
+    double[] right = new double[width];
+    for (int y = 0, offset = 0; y < height; y++, offset += width) {
+      double run = 0;
+      for (int x = width - 1; x >= 0; x--) {
+        run = run * factor + values[offset + x];
+        right[x] = run;
+      }
+      run = 0;
+      for (int x = 0; x < width; x++) {
+        double own = values[offset + x];
+        run = run * factor + own;
+        values[offset + x] = run + right[x] - own;
+      }
+    }
+  }
+
+  /**
+   * The same along each column. The running sums of all columns move down (and up) together, one row per step.
+   */
+  public static void fadeColumns(double[] values, int width, int height, double factor) {
+    double[] up = new double[values.length];
+    int last = (height - 1) * width;
+    System.arraycopy(values, last, up, last, width);
+    for (int offset = last - width; offset >= 0; offset -= width) {
+      for (int x = 0; x < width; x++) {
+        up[offset + x] = up[offset + width + x] * factor + values[offset + x];
+      }
+    }
+    double[] down = new double[width];
+    for (int offset = 0; offset <= last; offset += width) {
+      for (int x = 0; x < width; x++) {
+        double own = values[offset + x];
+        down[x] = down[x] * factor + own;
+        values[offset + x] = down[x] + up[offset + x] - own;
+      }
+    }
+  }
+}
@@ -0,0 +1,271 @@
+package bot;
+
+import java.util.*;
+
+/**
+ * Hierarchical path finding over the map for long distance moves. The map is cut into square sectors, every open
+ * stretch of a sector border gets a portal in its middle, and portals are connected by their distance inside the
+ * sector. Long range queries search that small abstract graph instead of the whole map.
+ *
+ * The map is meant to be kept between turns: update only throws away the sector data whose obstacles changed.
+ * Cells are identified the same way as in the Navigator, by y * width + x.
+ *
+ * Maps small enough for a DistanceOracle get one, and queries are answered exactly from its table instead.
+ */
+public class SectorMap {
+  public final static int UNREACHABLE = Integer.MAX_VALUE / 2;
+  private final static int DEFAULT_SECTOR_SIZE = 8;
+
+  private final static int[] dx = {-1, 0, 1, 0}, dy = {0, -1, 0, 1};
+
+  private final int width, height, sectorSize, sectorsX, sectorsY;
+  private final boolean[] blocked;
+
+  // In-sector BFS distances keyed by the cell they were started from, one cache per sector
+  private final ArrayList<HashMap<Integer, int[]>> fields = new ArrayList<>();
+
+  // Abstract graph: every portal is a node, its partner is the portal on the other side of the border
+  private int[] nodeCell = new int[0], nodePartner = new int[0];
+  private int[][] sectorNodes;
+
+  // Per target cell: distance of every node to the target
+  private final HashMap<Integer, int[]> targets = new HashMap<>();
+
+  // Null on maps too large for one
+  private final DistanceOracle oracle;
+
+  public SectorMap(int width, int height) {
+    this(width, height, DEFAULT_SECTOR_SIZE);
+  }
+
+  public SectorMap(int width, int height, int sectorSize) {
+    this.width = width;
+    this.height = height;
+    this.sectorSize = sectorSize;
+    this.sectorsX = (width + sectorSize - 1) / sectorSize;
+    this.sectorsY = (height + sectorSize - 1) / sectorSize;
+    this.blocked = new boolean[width * height];
+    for (int i = 0; i < sectorsX * sectorsY; i++) {
+      fields.add(new HashMap<>());
+    }
+    buildAbstractGraph();
+    this.oracle = DistanceOracle.fits(width, height) ? new DistanceOracle(width, height) : null;
+  }
+
+  /**
+   * The exact distance table kept along with the sectors, null if the map is too large for one.
+   */
+  public DistanceOracle oracle() {
+    return oracle;
+  }
+
+  /**
+   * Replaces the obstacle layout. Only sectors that actually contain a changed cell lose their cached distances;
+   * the portal graph itself is cheap enough to rebuild whenever anything changed.
+   */
+  public void update(boolean[] newBlocked) {
+    boolean[] dirty = new boolean[sectorsX * sectorsY];
+    boolean changed = false;
+    for (int cellId = 0; cellId < blocked.length; cellId++) {
+      if (blocked[cellId] != newBlocked[cellId]) {
+        blocked[cellId] = newBlocked[cellId];
+        dirty[sectorOf(cellId)] = true;
+        changed = true;
+      }
+    }
+    if (!changed)
+      return;
+    if (oracle != null)
+      oracle.update(newBlocked);
+
+    for (int sector = 0; sector < dirty.length; sector++) {
+      if (dirty[sector])
+        fields.get(sector).clear();
+    }
+    buildAbstractGraph();
+    targets.clear();
+  }
+
+  /**
+   * Estimated walking distance between two cells, UNREACHABLE if the sector graph has no way between them.
+   */
+  public int distance(int from, int to) {
+    if (oracle != null)
+      return oracle.distance(from, to);
+    if (from == to)
+      return 0;
+    if (blocked[from]) {
+      int best = UNREACHABLE;
+      for (int n : openNeighbors(from))
+        best = Math.min(best, distance(n, to) + 1);
+      return best;
+    }
+    int[] target = target(to);
+    int sector = sectorOf(from);
+    int[] fromField = field(from);
+
+    int best = sector == sectorOf(to) ? fromField[local(to)] : UNREACHABLE;
+    for (int node : sectorNodes[sector]) {
+      best = Math.min(best, fromField[local(nodeCell[node])] + target[node]);
+    }
+    return Math.min(best, UNREACHABLE);
+  }
+
+  private int sectorOf(int cellId) {
+    return (cellId / width) / sectorSize * sectorsX + (cellId % width) / sectorSize;
+  }
+
+  private int local(int cellId) {
+    return (cellId / width) % sectorSize * sectorSize + (cellId % width) % sectorSize;
+  }
+
+  private ArrayList<Integer> openNeighbors(int cellId) {
+    ArrayList<Integer> neighbors = new ArrayList<>(4);
+    int x = cellId % width, y = cellId / width;
+    for (int k = 0; k < 4; k++) {
+      int xx = x + dx[k], yy = y + dy[k];
+      if (xx < 0 || xx >= width || yy < 0 || yy >= height)
+        continue;
+      if (!blocked[yy * width + xx])
+        neighbors.add(yy * width + xx);
+    }
+    return neighbors;
+  }
+
+  // BFS distances from a cell to every cell of its own sector, without leaving the sector
+  private int[] field(int start) {
+    int sector = sectorOf(start);
+    int[] cached = fields.get(sector).get(start);
+    if (cached != null)
+      return cached;
+
+    int minX = sector % sectorsX * sectorSize, minY = sector / sectorsX * sectorSize;
+    int maxX = Math.min(minX + sectorSize, width), maxY = Math.min(minY + sectorSize, height);
+
+    int[] dist = new int[sectorSize * sectorSize];
+    Arrays.fill(dist, UNREACHABLE);
+    int[] q = new int[sectorSize * sectorSize];
+    int head = 0, tail = 0;
+    dist[local(start)] = 0;
+    q[tail++] = start;
+    while (head < tail) {
+      int cellId = q[head++];
+      int x = cellId % width, y = cellId / width;
+      for (int k = 0; k < 4; k++) {
+        int xx = x + dx[k], yy = y + dy[k];
+        if (xx < minX || xx >= maxX || yy < minY || yy >= maxY)
+          continue;
+        int tmpId = yy * width + xx;
+        if (blocked[tmpId] || dist[local(tmpId)] != UNREACHABLE)
+          continue;
+        dist[local(tmpId)] = dist[local(cellId)] + 1;
+        q[tail++] = tmpId;
+      }
+    }
+    fields.get(sector).put(start, dist);
+    return dist;
+  }
+
+  private void buildAbstractGraph() {
+    ArrayList<Integer> cells = new ArrayList<>(), partners = new ArrayList<>();
+
+    // vertical borders between horizontally adjacent sectors, then horizontal borders
+    for (int sx = 0; sx + 1 < sectorsX; sx++) {
+      int x = (sx + 1) * sectorSize - 1;
+      for (int sy = 0; sy < sectorsY; sy++) {
+        addEntrances(cells, partners, x, sy * sectorSize, 0, 1, Math.min(sectorSize, height - sy * sectorSize), 1);
+      }
+    }
+    for (int sy = 0; sy + 1 < sectorsY; sy++) {
+      int y = (sy + 1) * sectorSize - 1;
+      for (int sx = 0; sx < sectorsX; sx++) {
+        addEntrances(cells, partners, sx * sectorSize, y, 1, 0, Math.min(sectorSize, width - sx * sectorSize), width);
+      }
+    }
+
+    nodeCell = new int[cells.size()];
+    nodePartner = new int[cells.size()];
+    ArrayList<ArrayList<Integer>> bySector = new ArrayList<>();
+    for (int i = 0; i < sectorsX * sectorsY; i++) bySector.add(new ArrayList<>());
+    for (int i = 0; i < cells.size(); i++) {
+      nodeCell[i] = cells.get(i);
+      nodePartner[i] = partners.get(i);
+      bySector.get(sectorOf(nodeCell[i])).add(i);
+    }
+    sectorNodes = new int[bySector.size()][];
+    for (int i = 0; i < bySector.size(); i++) {
+      sectorNodes[i] = bySector.get(i).stream().mapToInt(Integer::intValue).toArray();
+    }
+  }
+
+  /**
+   * Walks one border (length cells starting at x,y in direction stepX,stepY; the other side is `across` away) and
+   * adds a pair of portal nodes in the middle of every run of cells that are open on both sides.
+   */
+  private void addEntrances(ArrayList<Integer> cells, ArrayList<Integer> partners, int x, int y, int stepX,
+                            int stepY, int length, int across) {
+    int runStart = -1;
+    for (int i = 0; i <= length; i++) {
+      int cellId = (y + i * stepY) * width + (x + i * stepX);
+      boolean open = i < length && !blocked[cellId] && !blocked[cellId + across];
+      if (open && runStart == -1) {
+        runStart = i;
+      } else if (!open && runStart != -1) {
+        int mid = (runStart + i - 1) / 2;
+        int portal = (y + mid * stepY) * width + (x + mid * stepX);
+        int node = cells.size();
+        cells.add(portal);
+        partners.add(node + 1);
+        cells.add(portal + across);
+        partners.add(node);
+        runStart = -1;
+      }
+    }
+  }
+
+  // Dijkstra over the portal graph outward from a target, cached until the obstacles change
+  private int[] target(int to) {
+    int[] cached = targets.get(to);
+    if (cached != null)
+      return cached;
+
+    int n = nodeCell.length;
+    int[] dist = new int[n];
+    Arrays.fill(dist, UNREACHABLE);
+    PriorityQueue<long[]> pq = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+
+    int[] toField = field(to);
+    for (int node : sectorNodes[sectorOf(to)]) {
+      int d = toField[local(nodeCell[node])];
+      if (d < dist[node]) {
+        dist[node] = d;
+        pq.add(new long[]{d, node});
+      }
+    }
+
+    while (!pq.isEmpty()) {
+      long[] top = pq.poll();
+      int node = (int) top[1];
+      if (top[0] > dist[node])
+        continue;
+
+      int partner = nodePartner[node];
+      if (dist[node] + 1 < dist[partner]) {
+        dist[partner] = dist[node] + 1;
+        pq.add(new long[]{dist[partner], partner});
+      }
+
+      int[] nodeField = field(nodeCell[node]);
+      for (int other : sectorNodes[sectorOf(nodeCell[node])]) {
+        int d = dist[node] + nodeField[local(nodeCell[other])];
+        if (d < dist[other]) {
+          dist[other] = d;
+          pq.add(new long[]{d, other});
+        }
+      }
+    }
+
+    targets.put(to, dist);
+    return dist;
+  }
+}
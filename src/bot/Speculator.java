@@ -0,0 +1,197 @@
+package bot;
+
+import lux.*;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Plans the next turn while the engine plays this one out. Once our actions are sent, a background thread predicts
+ * the next observation (our actions applied, resources next to every worker mined, fuel deposited and burnt) and
+ * works out from it what the next turn would otherwise start from scratch: the distance field of our city tiles and
+ * the macro search. When the real observation comes in, whatever is still running is stopped and each piece is used
+ * only if what it was computed from still holds: the same city tiles on both sides for the distances, a root within
+ * a few percent for the macro search, whose playouts then only need topping up.
+ *
+ * The routing graphs and score matrices aren't predicted, they hinge on where the opponent's units go and on the
+ * ResourceForecast, which learns from the real observation.
+ *
+ * Off by default, -Dspeculate=true turns it on.
+ */
+public class Speculator {
+  private final static String TAG = "Speculator";
+
+  public final static boolean ENABLED = Boolean.getBoolean("speculate");
+
+  // Share of the macro budget a real turn still spends when it starts from a matching speculative search
+  public final static int CONFIRM_BUDGET_SHARE = 4;
+
+  private static final class Prediction {
+    final int turn;
+    volatile boolean cancelled;
+    volatile MacroSearch search;
+    volatile MacroSearch.Decision macro;
+    volatile Surveyor.CityTileDistances cityTileDistances;
+
+    Prediction(int turn) {
+      this.turn = turn;
+    }
+  }
+
+  private final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, TAG);
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private Prediction pending, current;
+  private Future<?> task;
+  private int turns, macroHits, distanceHits;
+
+  /**
+   * Starts planning the turn after gameState, assuming our actions go through.
+   */
+  public void start(GameState gameState, List<String> actions, long macroBudgetNanos) {
+    // the snapshot is taken here, the Agent reuses gameState's objects for the next observation
+    GameSnapshot snapshot = GameSnapshot.of(gameState);
+    Prediction prediction = new Prediction(gameState.turn + 1);
+    pending = prediction;
+    task = thread.submit(() -> {
+      GameState next = predict(snapshot, actions);
+      prediction.cityTileDistances = new Surveyor.CityTileDistances(next);
+      MacroSearch search = new MacroSearch(next);
+      prediction.search = search;
+      // collect() may have come before there was a search to cancel
+      if (!prediction.cancelled)
+        prediction.macro = search.decide(macroBudgetNanos);
+    });
+  }
+
+  /**
+   * Stops whatever is still being worked out for this turn and keeps what finished. Waits for the background
+   * thread, so it doesn't compete with the turn for cores.
+   */
+  public void collect(int turn) {
+    current = null;
+    if (pending == null)
+      return;
+    pending.cancelled = true;
+    MacroSearch search = pending.search;
+    if (search != null)
+      search.cancel();
+    try {
+      task.get();
+      if (pending.turn == turn)
+        current = pending;
+    } catch (InterruptedException | ExecutionException e) {
+      Log.warn(TAG, turn, "prediction failed: " + e);
+    }
+    pending = null;
+    turns++;
+  }
+
+  public void close() {
+    if (pending != null) {
+      pending.cancelled = true;
+      if (pending.search != null)
+        pending.search.cancel();
+    }
+    thread.shutdownNow();
+  }
+
+  /**
+   * The speculative search's decision if its root is close to this one, to be topped up; null otherwise.
+   */
+  public MacroSearch.Decision macroPrior(MacroSearch search) {
+    if (current == null || current.macro == null || current.macro.playouts == 0 || !current.search.closeTo(search))
+      return null;
+    macroHits++;
+    return current.macro;
+  }
+
+  public void reuseDistances(Surveyor surveyor) {
+    if (current != null && surveyor.reuse(current.cityTileDistances))
+      distanceHits++;
+  }
+
+  public void logHits(int turn) {
+    Log.debug(TAG, turn, () -> "hits over " + turns + " turns: macro " + macroHits + ", distances " + distanceHits);
+  }
+
+  /**
+   * The observation expected after our actions: units moved and cities built as ordered, every worker then mining
+   * the cells around it (capped by its cargo space, with no sharing between workers), cargo on our city tiles turned
+   * into fuel, and at night the cities' upkeep burnt. The opponent's units are assumed to stay put and mine too.
+   */
+  static GameState predict(GameSnapshot snapshot, List<String> actions) {
+    GameSnapshot.Fork fork = snapshot.fork();
+    for (String action : actions) {
+      fork.apply(action);
+    }
+    GameSnapshot moved = fork.snapshot();
+
+    int[] amount = new int[moved.width * moved.height];
+    for (int y = 0; y < moved.height; y++) {
+      for (int x = 0; x < moved.width; x++) {
+        amount[y * moved.width + x] = moved.resourceAmount(x, y);
+      }
+    }
+    Grid grid = Grid.of(moved.width, moved.height);
+    for (int team = 0; team < 2; team++) {
+      GameSnapshot.PlayerView player = moved.player(team);
+      for (GameSnapshot.UnitView unit : player.units) {
+        if (!unit.isWorker())
+          continue;
+        int space = GameConstants.PARAMETERS.RESOURCE_CAPACITY.WORKER - unit.wood - unit.coal - unit.uranium;
+        int cellId = grid.cell(unit.x, unit.y);
+        for (int k = -1; k < 4 && space > 0; k++) {
+          int adjId = k == -1 ? cellId : grid.step(cellId, k);
+          if (adjId == -1 || amount[adjId] == 0)
+            continue;
+          int rate = collectionRate(moved.resourceType(grid.x(adjId), grid.y(adjId)), player);
+          int mined = Math.min(Math.min(rate, amount[adjId]), space);
+          amount[adjId] -= mined;
+          space -= mined;
+        }
+      }
+    }
+    for (int y = 0; y < moved.height; y++) {
+      for (int x = 0; x < moved.width; x++) {
+        if (amount[y * moved.width + x] != moved.resourceAmount(x, y))
+          fork.setResourceAmount(x, y, amount[y * moved.width + x]);
+      }
+    }
+
+    GameState next = fork.snapshot().toGameState();
+    Player player = next.players[next.id];
+    for (Unit unit : player.units) {
+      Cell cell = next.map.getCell(unit.pos.x, unit.pos.y);
+      if (cell.hasCityTile() && cell.citytile.team == player.team) {
+        player.cities.get(cell.citytile.cityid).fuel +=
+            unit.cargo.wood * GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.WOOD +
+                unit.cargo.coal * GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.COAL +
+                unit.cargo.uranium * GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.URANIUM;
+      }
+    }
+    if (snapshot.isNight()) {
+      for (City city : player.cities.values()) {
+        city.fuel = Math.max(city.fuel - city.getLightUpkeep(), 0);
+      }
+    }
+    next.turn = snapshot.turn + 1;
+    return next;
+  }
+
+  private static int collectionRate(byte type, GameSnapshot.PlayerView player) {
+    switch (type) {
+      case GameSnapshot.WOOD:
+        return GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.WOOD;
+      case GameSnapshot.COAL:
+        return player.researchedCoal() ? GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.COAL : 0;
+      case GameSnapshot.URANIUM:
+        return player.researchedUranium() ? GameConstants.PARAMETERS.WORKER_COLLECTION_RATE.URANIUM : 0;
+      default:
+        return 0;
+    }
+  }
+}
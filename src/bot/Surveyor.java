@@ -3,7 +3,6 @@ package bot;
 import lux.*;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class Surveyor {
 
@@ -12,14 +11,32 @@ public class Surveyor {
   final private Player player;
   final private GameState gameState;
   final private GameMap gameMap;
+  // May be null, in which case sites are valued by the current resource amounts
+  final private ResourceForecast forecast;
+  final private Grid grid;
+  final private Params params;
+
+  // Both only depend on the turn's state, and findPotentialCityLocations wants them for every growth/explore split
+  private double[] betterScore;
+  private CityTileDistances cityTileDistances;
+  // Cells a score is kept on: no resource or city tile, where no city can go, and for explore sites not too close
+  // to our cities
+  private boolean[] validMask, exploreMask;
 
   private static int[] dx = {-1, 0, 1, 0}, dy = {0, -1, 0, 1};
   private static int[] diagX = {-1, 1, 1, -1}, diagY = {-1, -1, 1, 1};
 
   public Surveyor(GameState gameState) {
+    this(gameState, null, new Params());
+  }
+
+  public Surveyor(GameState gameState, ResourceForecast forecast, Params params) {
     this.gameState = gameState;
+    this.forecast = forecast;
+    this.params = params;
     this.gameMap = gameState.map;
     this.player = gameState.players[gameState.id];
+    this.grid = Grid.of(gameMap.width, gameMap.height);
   }
 
   /**
@@ -50,69 +67,73 @@ public class Surveyor {
         (GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.COAL - player.researchPoints) / researchPerTurn;
     double turnsToUranium =
         (GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.URANIUM - player.researchPoints) / researchPerTurn;
-    double maxDaysAway = 50;
+    double maxDaysAway = params.researchHorizon;
     switch (resourceType) {
       case GameConstants.RESOURCE_TYPES.WOOD:
-        return 10;
+        return params.woodValue;
       case GameConstants.RESOURCE_TYPES.COAL:
-        return 6 * Math.pow(Math.max(maxDaysAway - turnsToCoal, 0) / maxDaysAway, 2);
+        return params.coalValue * Math.pow(Math.max(maxDaysAway - turnsToCoal, 0) / maxDaysAway, 2);
       case GameConstants.RESOURCE_TYPES.URANIUM:
       default:
-        return 4 * Math.pow(Math.max(maxDaysAway - turnsToUranium, 0) / maxDaysAway, 2);
+        return params.uraniumValue * Math.pow(Math.max(maxDaysAway - turnsToUranium, 0) / maxDaysAway, 2);
     }
   }
 
+  // What a resource cell is worth to a city we'd start building now: its amount by the time the city is running
+  private int expectedResourceAmount(Cell cell) {
+    if (forecast == null)
+      return cell.resource.amount;
+    return forecast.projectedAmount(cell);
+  }
+
   public void drawBetterScore() {
-    double[][] score = generateBetterScoreMatrix();
+    double[] score = generateBetterScoreMatrix();
     removeInvalidLocations(score);
     drawGrid(score);
 
-    applyDistanceDebuff(score, .7);
+    applyDistanceDebuff(score, params.growthDistanceDebuff);
     drawGrid(score);
   }
 
-  private double[][] generateBetterScoreMatrix() {
-    double[][] score = new double[gameMap.width][gameMap.height];
+  // Copies, callers debuff the matrix in place
+  private double[] generateBetterScoreMatrix() {
+    if (betterScore == null)
+      betterScore = computeBetterScoreMatrix();
+    return betterScore.clone();
+  }
+
+  private double[] computeBetterScoreMatrix() {
+    double[] score = new double[gameMap.width * gameMap.height];
 
     /*
     Go through all the resource cells in the grid and associate "clumps" into one group. A clump is a group of
     resources of the same type that can all reach each other without having to leave the set. Also calculate total
     sum score for the clump.
      */
-    int[][] clump = new int[gameMap.width][gameMap.height];
+    int[] clump = new int[gameMap.width * gameMap.height];
     HashMap<Integer, Double> clumpValue = new HashMap<>();
     int clumpIdx = 1;
-    for (int x = 0; x < gameMap.width; x++) {
-      for (int y = 0; y < gameMap.height; y++) {
-        Cell cell = gameMap.getCell(x, y);
-        if (!cell.hasResource())continue;
-        if (clump[x][y] != 0)continue;
-
-        double clumpScore = 0;
-        clump[x][y] = clumpIdx;
-        ArrayDeque<Integer> q = new ArrayDeque<>();
-        q.add(x);
-        q.add(y);
-        Resource resource = gameMap.getCell(x,y).resource;
-        while(!q.isEmpty()) {
-          int xx = q.poll();
-          int yy = q.poll();
-          clumpScore += researchLevelBasedResourceValue(resource.type) * gameMap.getCell(xx,yy).resource.amount;
-          for (int k = 0; k < 4; k++) {
-            int xxx = xx + dx[k], yyy = yy + dy[k];
-            if (xxx < 0 || xxx >= gameMap.width || yyy < 0 || yyy >= gameMap.height)
-              continue;
-            if (clump[xxx][yyy] != 0) continue;
-            if (!gameMap.getCell(xxx,yyy).hasResource()) continue;
-            if (!gameMap.getCell(xxx,yyy).resource.type.equals(resource.type)) continue;
-
-            clump[xxx][yyy] = clumpIdx;
-            q.add(xxx);
-            q.add(yyy);
-          }
+    int[] label = new int[gameMap.width * gameMap.height];
+    for (String type : new String[]{GameConstants.RESOURCE_TYPES.WOOD, GameConstants.RESOURCE_TYPES.COAL,
+        GameConstants.RESOURCE_TYPES.URANIUM}) {
+      Bitboard cells = new Bitboard(gameMap.width, gameMap.height);
+      for (int x = 0; x < gameMap.width; x++) {
+        for (int y = 0; y < gameMap.height; y++) {
+          Cell cell = gameMap.getCell(x, y);
+          if (cell.hasResource() && cell.resource.type.equals(type))
+            cells.set(x, y);
         }
-        clumpValue.put(clumpIdx, clumpScore);
-        clumpIdx++;
+      }
+
+      int count = BfsKernel.components(cells, label);
+      double[] clumpScore = new double[count + 1];
+      for (int cellId = cells.next(0); cellId != -1; cellId = cells.next(cellId + 1)) {
+        clump[cellId] = clumpIdx + label[cellId] - 1;
+        clumpScore[label[cellId]] += researchLevelBasedResourceValue(type) *
+            expectedResourceAmount(gameMap.getCell(grid.x(cellId), grid.y(cellId)));
+      }
+      for (int i = 1; i <= count; i++) {
+        clumpValue.put(clumpIdx++, clumpScore[i]);
       }
     }
 
@@ -126,22 +147,23 @@ public class Surveyor {
           int xx = x + dx[k], yy = y + dy[k];
           if (xx < 0 || xx >= gameMap.width || yy < 0 || yy >= gameMap.height)
             continue;
-          if (clump[xx][yy] == 0) continue;
-          closeClumps.add(clump[xx][yy]);
+          if (clump[grid.cell(xx, yy)] == 0) continue;
+          closeClumps.add(clump[grid.cell(xx, yy)]);
         }
         for (int i : closeClumps) {
-          score[x][y] += clumpValue.get(i);
+          score[grid.cell(x, y)] += clumpValue.get(i);
         }
       }
     }
 
-    double[][] tmp = new double[gameMap.width][gameMap.height];
+    double[] tmp = new double[gameMap.width * gameMap.height];
     for (int x = 0; x < gameMap.width; x++) {
       for (int y = 0; y < gameMap.height; y++) {
         Cell cell = gameMap.getCell(x, y);
+        int cellId = grid.cell(x, y);
         if (cell.hasResource())
           continue;
-        if (score[x][y] != 0)
+        if (score[cellId] != 0)
           continue;
 
         boolean nextToCity = false;
@@ -152,23 +174,20 @@ public class Surveyor {
             continue;
           if (gameMap.getCell(xx,yy).hasCityTile() && gameMap.getCell(xx,yy).citytile.team == player.team)
             nextToCity = true;
-          if (score[xx][yy] != 0) {
-            tmp[x][y] += score[xx][yy];
+          if (score[grid.cell(xx, yy)] != 0) {
+            tmp[cellId] += score[grid.cell(xx, yy)];
             closeCount++;
           }
         }
         if (!nextToCity)
-          tmp[x][y] *= 0;
+          tmp[cellId] *= 0;
         if (closeCount > 0)
-          tmp[x][y] /= closeCount;
-        tmp[x][y] *= .95;
+          tmp[cellId] /= closeCount;
+        tmp[cellId] *= params.neighbourScoreFactor;
       }
     }
 
-    for (int x = 0; x < gameMap.width; x++)
-      for (int y = 0; y < gameMap.height; y++)
-        score[x][y] += tmp[x][y];
-
+    ScoreKernels.add(score, tmp);
     return score;
   }
 
@@ -177,23 +196,21 @@ public class Surveyor {
   public ArrayList<Position> findPotentialCityLocations(int growth, int explore) {
     HashSet<Position> potentialLocs = new HashSet<>();
 
-    final double[][] score = generateBetterScoreMatrix();
+    final double[] score = generateBetterScoreMatrix();
     removeInvalidLocations(score);
-    applyDistanceDebuff(score, 0.7);
+    applyDistanceDebuff(score, params.growthDistanceDebuff);
+    drawGrid(score);
 
-    final double[][] scoreCopy = new double[score.length][score[0].length];
-    for(int i=0;i<score.length;i++)for(int j=0;j<score[0].length;j++)scoreCopy[i][j] = score[i][j];
-    applyDistanceDebuff(scoreCopy, .95);
-    int[][] dist = getCityTileDistanceMatrix(false);
-    for (int x = 0; x < gameMap.width; x++) {
-      for (int y = 0; y < gameMap.height; y++) {
-        if(dist[x][y] <= 5)
-          scoreCopy[x][y] = 0;
-      }
+    final double[] scoreCopy = score.clone();
+    applyDistanceDebuff(scoreCopy, params.exploreDistanceDebuff);
+    if (exploreMask == null) {
+      exploreMask = new boolean[scoreCopy.length];
+      ScoreKernels.above(getCityTileDistanceMatrix(false), params.exploreMinCityDistance, exploreMask);
     }
+    ScoreKernels.keep(scoreCopy, exploreMask);
 
     TreeSet<Position> best = new TreeSet<>((a, b) -> {
-      return -Double.compare(scoreCopy[a.x][a.y], scoreCopy[b.x][b.y]);
+      return -Double.compare(scoreCopy[grid.cell(a)], scoreCopy[grid.cell(b)]);
     });
 
     for (int x = 0; x < gameMap.width; x++) {
@@ -209,9 +226,9 @@ public class Surveyor {
     potentialLocs.addAll(best);
     best.clear();
     best = new TreeSet<>((a, b) -> {
-      int comp = -Double.compare(score[a.x][a.y], score[b.x][b.y]);
+      int comp = -Double.compare(score[grid.cell(a)], score[grid.cell(b)]);
       if (comp == 0) return a.compareTo(b);
-      return -Double.compare(score[a.x][a.y], score[b.x][b.y]);
+      return comp;
     });
 
     for (int x = 0; x < gameMap.width; x++) {
@@ -229,11 +246,14 @@ public class Surveyor {
     return new ArrayList<>(potentialLocs);
   }
 
-  // TODO: This is currently BoardSize^2, but could be optimized to BoardSize * ResourceTileCount
-  private double[][] generateRawScoreMatrix(double diminishingFactor) {
-    double[][] score = new double[gameMap.width][gameMap.height];
+  /**
+   * A resource's value fades by diminishingFactor per step away from it. Nothing blocks the way, so a step count is
+   * |dx| + |dy| and the fade splits into an x part and a y part: a running sum left and right along every row and
+   * then up and down along every column adds up all resources at once, in time linear in the map's area.
+   */
+  private double[] generateRawScoreMatrix(double diminishingFactor) {
+    double[] score = new double[gameMap.width * gameMap.height];
 
-    ArrayDeque<Integer> q = new ArrayDeque<>();
     for (int x = 0; x < gameMap.width; x++) {
       for (int y = 0; y < gameMap.height; y++) {
         Cell cell = gameMap.getCell(x, y);
@@ -245,78 +265,54 @@ public class Surveyor {
         if (cell.resource.type.equals(GameConstants.RESOURCE_TYPES.URANIUM) && !player.researchedUranium())
           continue;
 
-        double[][] tmpScore = new double[gameMap.width][gameMap.height];
-        boolean[][] seen = new boolean[gameMap.width][gameMap.height];
-        seen[x][y] = true;
-        tmpScore[x][y] = cell.resource.amount * resourceTypeValue(cell.resource.type);
-
-        q.add(x);
-        q.add(y);
-
-        while (!q.isEmpty()) {
-          int xx = q.poll();
-          int yy = q.poll();
-
-          for (int k = 0; k < 4; k++) {
-            int xxx = xx + dx[k], yyy = yy + dy[k];
-            if (xxx < 0 || xxx >= gameMap.width || yyy < 0 || yyy >= gameMap.height)
-              continue;
-            if (seen[xxx][yyy])
-              continue;
-
-            seen[xxx][yyy] = true;
-            tmpScore[xxx][yyy] += diminishingFactor * tmpScore[xx][yy];
-
-            q.add(xxx);
-            q.add(yyy);
-          }
-        }
-
-        for (int i = 0; i < gameMap.width; i++) {
-          for (int j = 0; j < gameMap.height; j++) {
-            score[i][j] += tmpScore[i][j];
-          }
-        }
+        score[grid.cell(x, y)] = cell.resource.amount * resourceTypeValue(cell.resource.type);
       }
     }
 
+    ScoreKernels.fadeRows(score, gameMap.width, gameMap.height, diminishingFactor);
+    ScoreKernels.fadeColumns(score, gameMap.width, gameMap.height, diminishingFactor);
     return score;
   }
 
   public void drawRawScore() {
-    double[][] score = generateRawScoreMatrix(.75);
+    double[] score = generateRawScoreMatrix(params.rawScoreFade);
     removeInvalidLocations(score);
 
     drawGrid(score);
   }
 
-  public void drawGrid(double[][] grid) {
+  // Dumps the grid on sampled turns; it is copied here and formatted on the log's writer thread
+  public void drawGrid(double[] grid) {
+    if (!Log.sampled(gameState.turn))
+      return;
+    double[] copy = grid.clone();
+    int width = gameMap.width, height = gameMap.height;
+    Log.dump(TAG, gameState.turn, () -> formatGrid(copy, width, height));
+  }
+
+  private static String formatGrid(double[] grid, int width, int height) {
     double max = 0;
+    for (double b : grid) max = Math.max(b, max);
 
-    String top = "    ";
-    for(int i=0;i<grid.length;i++){
-      String tmp = i+"";
-      while(tmp.length() < 5)tmp = tmp+" ";
-      top += tmp;
+    StringBuilder sb = new StringBuilder("\n    ");
+    for (int x = 0; x < width; x++) {
+      sb.append(String.format("%-5d", x));
     }
-    System.err.println(top);
-    for(double[] a : grid)for(double b : a)max = Math.max(b, max);
-    for (int x = 0; x < grid[0].length; x++) {
-      String line = x+"";
-      while(line.length() < 4)
-        line = line +" ";
-      for (int y = 0; y < grid.length; y++) {
-        line += String.format("%.2f", grid[y][x]/max)+" ";
+    sb.append('\n');
+    for (int y = 0; y < height; y++) {
+      sb.append(String.format("%-4d", y));
+      for (int x = 0; x < width; x++) {
+        sb.append(String.format("%.2f ", grid[y * width + x] / max));
       }
-      System.err.println(line);
+      sb.append('\n');
     }
-
-    System.err.println("====================================================================");
+    sb.append("====================================================================");
+    return sb.toString();
   }
 
-  private void applyAntiCityDebuff(double[][] score) {
+  private void applyAntiCityDebuff(double[] score) {
     // Debuff squares that aren't connected to other city tiles but are very close.
-    double antiCityDebuffRatio = 0.4;
+    double antiCityDebuffRatio = params.antiCityDebuffRatio;
     player.cities.values().forEach(city -> {
       city.citytiles.forEach(cityTile -> {
         for (int j = 0; j < 4; j++) {
@@ -335,16 +331,16 @@ public class Surveyor {
             }
           }
           if (badTile) {
-            score[xx][yy] *= antiCityDebuffRatio;
+            score[grid.cell(xx, yy)] *= antiCityDebuffRatio;
           }
         }
       });
     });
   }
 
-  private void applySmallCityIncentive(double[][] score) {
+  private void applySmallCityIncentive(double[] score) {
     // TODO: Analyze this ratio and find a more appropriate value
-    double smallCityBuffRatio = 1.5;
+    double smallCityBuffRatio = params.smallCityBuffRatio;
     player.cities.values().forEach(city -> {
       if (city.citytiles.size() == 1) {
         city.citytiles.forEach(cityTile -> {
@@ -353,130 +349,120 @@ public class Surveyor {
             if (xx < 0 || xx >= gameMap.width || yy < 0 || yy >= gameMap.height)
               continue;
 
-            score[xx][yy] *= smallCityBuffRatio;
+            score[grid.cell(xx, yy)] *= smallCityBuffRatio;
           }
         });
       }
     });
   }
 
-  private int[][] getCityTileDistanceMatrix(boolean useWorkerDistance) {
-    int[][] dist = new int[gameMap.width][gameMap.height];
-    for (int i = 0; i < dist.length; i++) Arrays.fill(dist[i], Integer.MAX_VALUE / 3);
+  private int[] getCityTileDistanceMatrix(boolean useWorkerDistance) {
+    if (!useWorkerDistance) {
+      if (cityTileDistances == null)
+        cityTileDistances = new CityTileDistances(gameState);
+      return cityTileDistances.dist;
+    }
+    Bitboard starts = new Bitboard(gameMap.width, gameMap.height);
+    player.units.forEach(unit -> {
+      if (unit.getCargoSpaceLeft() == 0) {
+        starts.set(unit.pos.x, unit.pos.y);
+      }
+    });
+    return distanceMatrix(gameMap, starts, enemyCityTiles(gameState));
+  }
 
-    ArrayDeque<Integer> q = new ArrayDeque<>();
+  /**
+   * Distance from every cell to the nearest of our city tiles, going around enemy ones. Keeps the tiles it was
+   * computed from, so one computed ahead of time on a predicted state can be checked against the real one.
+   */
+  public static final class CityTileDistances {
+    final Bitboard starts, blocked;
+    final int[] dist;
+
+    public CityTileDistances(GameState gameState) {
+      starts = ownCityTiles(gameState);
+      blocked = enemyCityTiles(gameState);
+      dist = distanceMatrix(gameState.map, starts, blocked);
+    }
 
-    if (useWorkerDistance) {
-      player.units.forEach(unit -> {
-        if (unit.getCargoSpaceLeft() == 0) {
-          dist[unit.pos.x][unit.pos.y] = 0;
-          q.add(unit.pos.x);
-          q.add(unit.pos.y);
-        }
-      });
-    } else {
-      player.cities.values().forEach(city -> {
-        city.citytiles.forEach(cityTile -> {
-          dist[cityTile.pos.x][cityTile.pos.y] = 0;
-          q.add(cityTile.pos.x);
-          q.add(cityTile.pos.y);
-        });
-      });
+    boolean matches(GameState gameState) {
+      return starts.equals(ownCityTiles(gameState)) && blocked.equals(enemyCityTiles(gameState));
     }
+  }
 
-    while (!q.isEmpty()) {
-      int x = q.poll(), y = q.poll();
-      for (int k = 0; k < 4; k++) {
-        int xx = x + dx[k], yy = y + dy[k];
-        if (xx < 0 || xx >= gameMap.width || yy < 0 || yy >= gameMap.height)
-          continue;
-        if (dist[xx][yy] != Integer.MAX_VALUE / 3)
-          continue;
+  /**
+   * Uses distances computed ahead of time if our and the enemy's city tiles are still where they were computed for.
+   */
+  public boolean reuse(CityTileDistances distances) {
+    if (distances == null || !distances.matches(gameState))
+      return false;
+    cityTileDistances = distances;
+    return true;
+  }
 
-        // if this is an enemy tile, we can't move here
-        if (gameMap.getCell(xx, yy).hasCityTile() && gameMap.getCell(xx, yy).citytile.team != player.team)
-          continue;
+  private static Bitboard ownCityTiles(GameState gameState) {
+    Bitboard tiles = new Bitboard(gameState.map.width, gameState.map.height);
+    gameState.players[gameState.id].cities.values().forEach(city -> {
+      city.citytiles.forEach(cityTile -> {
+        tiles.set(cityTile.pos.x, cityTile.pos.y);
+      });
+    });
+    return tiles;
+  }
 
-        dist[xx][yy] = dist[x][y] + 1;
-        q.add(xx);
-        q.add(yy);
+  // enemy tiles can't be walked through
+  private static Bitboard enemyCityTiles(GameState gameState) {
+    GameMap gameMap = gameState.map;
+    Bitboard blocked = new Bitboard(gameMap.width, gameMap.height);
+    for (int x = 0; x < gameMap.width; x++) {
+      for (int y = 0; y < gameMap.height; y++) {
+        Cell cell = gameMap.getCell(x, y);
+        if (cell.hasCityTile() && cell.citytile.team != gameState.id)
+          blocked.set(x, y);
       }
     }
+    return blocked;
+  }
 
+  // BfsKernel.UNREACHABLE for cells cut off from every start
+  private static int[] distanceMatrix(GameMap gameMap, Bitboard starts, Bitboard blocked) {
+    int[] dist = new int[gameMap.width * gameMap.height];
+    BfsKernel.distances(starts, blocked, dist, null);
     return dist;
   }
 
-
-
-  private void applyDistanceDebuff(double[][] score, double diminishingFactor) {
+  private void applyDistanceDebuff(double[] score, double diminishingFactor) {
     // Using worker distance instead of city distance seems remarkably worse, based on simple testing
-    int[][] dist = getCityTileDistanceMatrix(false);
+    int[] dist = getCityTileDistanceMatrix(false);
 
-    double[] dimPow = new double[2 * gameMap.width + 1];
+    // a path around enemy city tiles can be longer than width + height, but not than the cell count. The last entry
+    // is for cells cut off from every city tile
+    double[] dimPow = new double[grid.cellCount + 1];
     dimPow[0] = 1;
     for (int i = 1; i < dimPow.length; i++)
       dimPow[i] = dimPow[i - 1] * diminishingFactor;
     dimPow[dimPow.length - 1] = 0;
 
-    for (int x = 0; x < gameMap.width; x++) {
-      for (int y = 0; y < gameMap.height; y++) {
-        int d = Math.max(Math.min(dist[x][y] - 1, gameMap.width * 2), 0);
-        score[x][y] *= dimPow[d];
-      }
-    }
+    ScoreKernels.multiplyLookup(score, dist, dimPow);
   }
 
-  private void removeInvalidLocations(double[][] score) {
-    for (int x = 0; x < gameMap.width; x++) {
-      for (int y = 0; y < gameMap.height; y++) {
-        if (gameMap.getCell(x, y).hasResource())
-          score[x][y] = 0;
-        if (gameMap.getCell(x, y).hasCityTile())
-          score[x][y] = 0;
+  private void removeInvalidLocations(double[] score) {
+    if (validMask == null) {
+      validMask = new boolean[score.length];
+      for (int x = 0; x < gameMap.width; x++) {
+        for (int y = 0; y < gameMap.height; y++) {
+          Cell cell = gameMap.getCell(x, y);
+          validMask[grid.cell(x, y)] = !cell.hasResource() && !cell.hasCityTile();
+        }
       }
     }
+    ScoreKernels.keep(score, validMask);
   }
   // TODO: apply better calculation for grid tile score
   // Idea: add bonus to locations close to existing city - probably need to cap it to smaller city sizes to promote
 
   // growth
 
-  public Position findPotentialCityLocation() {
-    return findKPotentialCityLocations(1).get(0);
-  }
-
-  public ArrayList<Position> findKPotentialCityLocations(int K) {
-    final double[][] score = generateRawScoreMatrix(0.75);
-    applyDistanceDebuff(score, 0.9);
-    applySmallCityIncentive(score);
-    applyAntiCityDebuff(score);
-    removeInvalidLocations(score);
-
-    TreeSet<Position> best = new TreeSet<>((a, b) -> {
-      return -Double.compare(score[a.x][a.y], score[b.x][b.y]);
-    });
-
-    for (int x = 0; x < gameMap.width; x++) {
-      for (int y = 0; y < gameMap.height; y++) {
-        if (best.size() < K) best.add(new Position(x, y));
-        else {
-          best.add(new Position(x, y));
-          best.remove(best.last());
-        }
-      }
-    }
-
-    return (ArrayList<Position>) best.stream().collect(Collectors.toList());
-  }
-
-  private int convertCoordinateToInt(int x, int y) {
-    return y * gameMap.width + x;
-  }
-
-  private Position convertIntToCoordinate(int pos) {
-    return new Position(pos % gameMap.width, pos / gameMap.width);
-  }
-
   // Calculates the cost of supply for the next 20 night turns
   private int estimatedNecessaryFuel(City city) {
     // Forces player to expand to two tiles quickly
@@ -508,107 +494,57 @@ public class Surveyor {
     }
   }
 
-  private void followFlowAndRecordFuelAssignment(int idx, int fuel, MinCostMaxFlow flow,
-                                                 HashMap<String, Integer> assignedFuel) {
-    for (MinCostMaxFlow.Edge e : flow.adj[idx]) {
-      if (e.flow <= 0) continue;
-      if (e.v2 >= gameMap.width * gameMap.height) {
-        Position p = convertIntToCoordinate(e.v1);
-        Cell cell = gameMap.getCell(p.x, p.y);
-        if (!cell.hasCityTile()) {
-          System.err.println(TAG + ": SHIIIIIIIIIIIIIIIIIIIIIIT " + (gameMap.width * gameMap.height) + " edge=" + e.toString());
-          continue;
-        }
-
-        int amountFuelAssigned = Math.min(fuel, e.flow);
-        e.flow -= amountFuelAssigned;
-
-        String cityId = cell.citytile.cityid;
-        if (assignedFuel.containsKey(cityId)) {
-          assignedFuel.put(cityId, assignedFuel.get(cityId) + amountFuelAssigned);
-        } else {
-          assignedFuel.put(cityId, amountFuelAssigned);
-        }
-      } else {
-        int newFlow = Math.min(fuel, e.flow);
-        e.flow -= newFlow;
-        followFlowAndRecordFuelAssignment(e.v2, newFlow, flow, assignedFuel);
+  /**
+   * Walking distance from every cell to each of our cities, by the index in cities. A path ends on the first city
+   * tile it enters, so every city tile blocks the way except as a destination.
+   */
+  private int[][] cityDistances(ArrayList<City> cities) {
+    Bitboard cityTiles = new Bitboard(gameMap.width, gameMap.height);
+    for (int x = 0; x < gameMap.width; x++) {
+      for (int y = 0; y < gameMap.height; y++) {
+        if (gameMap.getCell(x, y).hasCityTile())
+          cityTiles.set(x, y);
       }
     }
-  }
-
-  private UnitCityAssignment readGraphAndFindBestAssignment(MinCostMaxFlow flow, ArrayList<Unit> units,
-                                                            Set<Unit> alreadyAssignedUnits) {
-    ArrayList<UnitCityAssignment> list = new ArrayList<>();
-
-    // TODO: I think we should go in order of highest fuel cargo amount
-    for (Unit unit : units) {
-      if (alreadyAssignedUnits.contains(unit)) continue;
-
-      HashMap<String, Integer> assignedFuel = new HashMap<>();
-      followFlowAndRecordFuelAssignment(convertCoordinateToInt(unit.pos.x, unit.pos.y), unit.cargo.getFuelValue(),
-          flow, assignedFuel);
-
-      for (String s : assignedFuel.keySet()) {
-        list.add(new UnitCityAssignment(unit, s, assignedFuel.get(s)));
+    int[][] dist = new int[cities.size()][grid.cellCount];
+    for (int j = 0; j < cities.size(); j++) {
+      Bitboard tiles = new Bitboard(gameMap.width, gameMap.height);
+      for (CityTile tile : cities.get(j).citytiles) {
+        tiles.set(tile.pos.x, tile.pos.y);
       }
+      BfsKernel.distances(tiles, cityTiles, dist[j], null);
     }
-    if (list.isEmpty()) {
-      return null;
-    }
-    Collections.sort(list);
-
-    return list.get(list.size() - 1);
+    return dist;
   }
 
-  private boolean getSingleAssignment(HashMap<Unit, String> assignments, ArrayList<Unit> units) {
-    int cellCount = gameMap.width * gameMap.height;
-    int cityCount = player.cities.size();
-
-    int idx = 0;
-    HashMap<String, Integer> cityIndex = new HashMap<>();
-    for (City c : player.cities.values()) {
-      cityIndex.put(c.cityid, idx++);
-    }
-
-    MinCostMaxFlow flow = new MinCostMaxFlow(cellCount + cityCount);
-
-    // Add source edges
-    for (Unit unit : units) {
+  /**
+   * Routes the fuel of the units not assigned yet to the cities that still need it and assigns the unit that moves
+   * the most fuel to a single city. Moving between cells costs a step and nothing is capped on the way, so the
+   * graph only needs a node per unit and per city, with edges as long as the walk from cityDist: far smaller than
+   * a graph over every cell, which solves to the same cost.
+   */
+  private boolean getSingleAssignment(HashMap<Unit, String> assignments, ArrayList<Unit> units,
+                                      ArrayList<City> cities, int[][] cityDist) {
+    MinCostMaxFlow flow = new MinCostMaxFlow(units.size() + cities.size());
+    flow.setName("surveyor");
+
+    // Add source edges, and an edge to every city a unit can walk to
+    MinCostMaxFlow.Edge[][] toCity = new MinCostMaxFlow.Edge[units.size()][cities.size()];
+    for (int i = 0; i < units.size(); i++) {
+      Unit unit = units.get(i);
       if (assignments.containsKey(unit))
         continue;
-      flow.add(flow.s, convertCoordinateToInt(unit.pos.x, unit.pos.y), unit.cargo.getFuelValue(), 0);
-    }
-
-    // Add intermediate edges
-    for (int x = 0; x < gameMap.width; x++) {
-      for (int y = 0; y < gameMap.height; y++) {
-        Cell cell = gameMap.getCell(x, y);
-        int cellId = convertCoordinateToInt(x, y);
-
-        // Don't route through enemy controlled squares
-        if (cell.hasCityTile() && cell.citytile.team != player.team)
-          continue;
-
-        // only route directly to the City node
-        if (cell.hasCityTile()) {
-          flow.add(cellId, cellCount + cityIndex.get(cell.citytile.cityid), Integer.MAX_VALUE / 2, 0);
-          continue;
-        }
-
-        for (int k = 0; k < 4; k++) {
-          int xx = x + dx[k], yy = y + dy[k];
-          if (xx < 0 || xx >= gameMap.width || yy < 0 || yy >= gameMap.height)
-            continue;
-
-          int tmpId = convertCoordinateToInt(xx, yy);
-          flow.add(cellId, tmpId, Integer.MAX_VALUE / 2, 1);
-        }
+      flow.add(flow.s, i, unit.cargo.getFuelValue(), 0);
+      int cellId = grid.cell(unit.pos);
+      for (int j = 0; j < cities.size(); j++) {
+        if (cityDist[j][cellId] != BfsKernel.UNREACHABLE)
+          toCity[i][j] = flow.add(i, units.size() + j, Integer.MAX_VALUE / 2, cityDist[j][cellId]);
       }
     }
 
     // Add sink edges
-    for (City city : player.cities.values()) {
+    for (int j = 0; j < cities.size(); j++) {
+      City city = cities.get(j);
       int estimate = estimatedNecessaryFuel(city);
       int existingFuel = (int) city.fuel;
       for (Unit u : assignments.keySet()) {
@@ -617,14 +553,24 @@ public class Surveyor {
         }
       }
 
-      flow.add(cellCount + cityIndex.get(city.cityid), flow.t, (int) Math.max(estimate - existingFuel, 0), 0);
+      flow.add(units.size() + j, flow.t, (int) Math.max(estimate - existingFuel, 0), 0);
     }
 
     long[] results = flow.flow();
 
-    UnitCityAssignment assignment = readGraphAndFindBestAssignment(flow, units, assignments.keySet());
-    if (assignment != null) {
-      assignments.put(assignment.unit, assignment.cityId);
+    UnitCityAssignment best = null;
+    for (int i = 0; i < units.size(); i++) {
+      for (int j = 0; j < cities.size(); j++) {
+        MinCostMaxFlow.Edge e = toCity[i][j];
+        if (e == null || e.flow <= 0)
+          continue;
+        UnitCityAssignment assignment = new UnitCityAssignment(units.get(i), cities.get(j).cityid, e.flow);
+        if (best == null || assignment.compareTo(best) >= 0)
+          best = assignment;
+      }
+    }
+    if (best != null) {
+      assignments.put(best.unit, best.cityId);
       return true;
     }
 
@@ -632,24 +578,34 @@ public class Surveyor {
   }
 
   public HashMap<Unit, String> calculateResourceToCityAssignment(ArrayList<Unit> fullUnits) {
+    return calculateResourceToCityAssignment(fullUnits, new HashMap<>());
+  }
 
-    HashMap<Unit, String> assignments = new HashMap<>();
+  /**
+   * Same as above, but the units in `committed` keep the city they were already heading to; their cargo is counted
+   * toward that city's needs and only the remaining units are assigned.
+   */
+  public HashMap<Unit, String> calculateResourceToCityAssignment(ArrayList<Unit> fullUnits,
+                                                                 HashMap<Unit, String> committed) {
+
+    HashMap<Unit, String> assignments = new HashMap<>(committed);
     if (fullUnits.isEmpty()) {
       return assignments;
     }
 
+    ArrayList<City> cities = new ArrayList<>(player.cities.values());
+    int[][] cityDist = cityDistances(cities);
     for (Unit u : fullUnits) {
-      if (!getSingleAssignment(assignments, fullUnits))
+      if (!getSingleAssignment(assignments, fullUnits, cities, cityDist))
         break;
     }
 
-    String ass = "";
-    for (Unit u : assignments.keySet())
-      ass += "(" + u + "," + assignments.get(u) + ")";
-
-    if (ass.length() != 0) {
-      System.err.println(TAG + " " + gameState.turn + ": ASSIGNMENTS=" + ass);
-    }
+    Log.info(TAG, gameState.turn, () -> {
+      StringBuilder ass = new StringBuilder("ASSIGNMENTS=");
+      for (Unit u : assignments.keySet())
+        ass.append("(").append(u).append(",").append(assignments.get(u)).append(")");
+      return ass.toString();
+    });
 
     return assignments;
   }
@@ -0,0 +1,153 @@
+package bot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Searches Params for a configuration that beats the defaults, playing headless LocalMatch games in parallel.
+ *
+ * Successive halving: random perturbations of the defaults (the defaults themselves included, as a control) each
+ * play a few matches against the default bot; the better half goes on to play twice as many more, and so on until
+ * one is left. Every candidate plays the same seeds with alternating sides, so they are compared on the same maps.
+ * Matches run with small search budgets, on half as many threads as there are cores since each runs two bots.
+ *
+ * Run with: java -cp out bot.Tuner [-configs 16] [-matches 2] [-size 16] [-turns 360] [-threads n] [-seed 1]
+ * [-host true]
+ * and start the bot with the -Dparam.* arguments it prints at the end.
+ */
+public class Tuner {
+  // search budgets of both sides during tuning, to get through more matches
+  private final static int TUNING_BUDGET_MS = 10;
+
+  private int configs = 16, matches = 2, size = 16, turns = 360;
+  private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  private long seed = 1;
+  // plays the matches inside this JVM rather than starting two bot processes for each, see MatchHost
+  private MatchHost host;
+
+  private static final class Candidate {
+    final Params params;
+    double score;
+    int played;
+
+    Candidate(Params params) {
+      this.params = params;
+    }
+
+    double mean() {
+      return played == 0 ? 0 : score / played;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Tuner tuner = new Tuner();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "-configs": tuner.configs = Integer.parseInt(value); break;
+        case "-matches": tuner.matches = Integer.parseInt(value); break;
+        case "-size": tuner.size = Integer.parseInt(value); break;
+        case "-turns": tuner.turns = Integer.parseInt(value); break;
+        case "-threads": tuner.threads = Integer.parseInt(value); break;
+        case "-seed": tuner.seed = Long.parseLong(value); break;
+        case "-host": tuner.host = Boolean.parseBoolean(value) ? new MatchHost() : null; break;
+        default:
+          System.err.println("unknown option " + args[i]);
+          System.exit(2);
+      }
+    }
+    tuner.run();
+  }
+
+  private void run() throws InterruptedException, ExecutionException {
+    Params baseline = new Params();
+    baseline.planBudgetMs = baseline.macroBudgetMs = TUNING_BUDGET_MS;
+    Random random = new Random(seed);
+    ArrayList<Candidate> candidates = new ArrayList<>();
+    candidates.add(new Candidate(baseline));
+    while (candidates.size() < configs) {
+      candidates.add(new Candidate(baseline.perturb(random, 0.15)));
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    int played = 0, nextSeed = 0, round = 0;
+    try {
+      int perRound = matches;
+      while (true) {
+        // every candidate plays the same new seeds
+        int firstSeed = nextSeed;
+        nextSeed += perRound;
+        ArrayList<Future<Double>> results = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+          for (int m = 0; m < perRound; m++) {
+            long matchSeed = seed * 1_000_003L + firstSeed + m;
+            boolean candidateFirst = (firstSeed + m) % 2 == 0;
+            results.add(pool.submit(() -> play(candidate.params, baseline, matchSeed, candidateFirst)));
+          }
+        }
+        int r = 0;
+        for (Candidate candidate : candidates) {
+          for (int m = 0; m < perRound; m++) {
+            candidate.score += results.get(r++).get();
+            candidate.played++;
+          }
+        }
+        played += results.size();
+
+        candidates.sort((a, b) -> Double.compare(b.mean(), a.mean()));
+        double hours = (System.nanoTime() - start) / 3.6e12;
+        System.out.printf("round %d: %d candidates, %d matches each, best %.3f (%s)%n", round++, candidates.size(),
+            candidates.get(0).played, candidates.get(0).mean(), candidates.get(0).params);
+        System.out.printf("  %d matches so far, %.0f matches/hour%n", played, played / hours);
+        if (candidates.size() == 1)
+          break;
+        candidates = new ArrayList<>(candidates.subList(0, (candidates.size() + 1) / 2));
+        perRound *= 2;
+      }
+    } finally {
+      pool.shutdownNow();
+      if (host != null)
+        host.shutdown();
+    }
+
+    double hours = (System.nanoTime() - start) / 3.6e12;
+    System.out.printf("%d configurations ranked with %d matches in %.1f min: %.0f configurations/hour%n", configs,
+        played, hours * 60, configs / hours);
+    Params best = new Params(candidates.get(0).params);
+    best.planBudgetMs = new Params().planBudgetMs;
+    best.macroBudgetMs = new Params().macroBudgetMs;
+    System.out.println(String.join(" ", best.toJvmArgs()));
+  }
+
+  /**
+   * One match of the candidate against the baseline: 1 for a win, 0.5 for a draw, 0 for a loss, plus a hundredth
+   * per city tile of difference to break ties between candidates.
+   */
+  private double play(Params candidate, Params baseline, long matchSeed, boolean candidateFirst) throws IOException {
+    LocalMatch match = new LocalMatch(size, size, matchSeed);
+    LocalMatch.Result result;
+    if (host != null) {
+      result = host.play(match, candidateFirst ? candidate : baseline, candidateFirst ? baseline : candidate, turns);
+    } else {
+      List<String> us = command(candidate), them = command(baseline);
+      result = match.play(candidateFirst ? us : them, candidateFirst ? them : us, turns);
+    }
+    int side = candidateFirst ? 0 : 1;
+    double score = result.winner == -1 ? 0.5 : result.winner == side ? 1 : 0;
+    return score + (result.cityTiles[side] - result.cityTiles[1 - side]) / 100.0;
+  }
+
+  private static List<String> command(Params params) {
+    ArrayList<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("-Dlog.level=OFF");
+    command.addAll(params.toJvmArgs());
+    command.add("Bot");
+    return command;
+  }
+}
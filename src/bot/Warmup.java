@@ -0,0 +1,162 @@
+package bot;
+
+import lux.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Plays the planners through made-up turns of the real map size before the first one, so the JIT has compiled the
+ * flow solvers, the navigator, the surveyor and the searches by the time the opening turns are played instead of
+ * running them in the interpreter.
+ *
+ * The states are random but shaped like real ones: resource clusters mirrored between the two halves, a few cities
+ * and units per team with random cargo, and turns spread over days and nights. A fresh Coordinator is started every
+ * now and then so what only happens on a match's first turn gets warmed up too. Nothing is logged while it runs.
+ *
+ * Off by default, -Dwarmup.ms=N spends up to N ms on it (plus however long the last turn started takes). Also runs
+ * standalone, which is how the class list for a CDS archive gets recorded: java -cp bot.jar bot.Warmup W H ms
+ */
+public class Warmup {
+  private final static String TAG = "Warmup";
+
+  public final static long BUDGET_MS = Long.getLong("warmup.ms", 0);
+
+  // made-up turns of one Coordinator before starting a new one
+  private final static int TURNS_PER_MATCH = 40;
+  // search budgets during warm-up, so more turns fit in and everything around the searches gets called often too
+  private final static int SEARCH_BUDGET_MS = 20;
+
+  public static void main(String[] args) {
+    int width = Integer.parseInt(args[0]), height = Integer.parseInt(args[1]);
+    int turns = run(width, height, Long.parseLong(args[2]));
+    System.out.println(turns + " turns");
+  }
+
+  /**
+   * Returns how many made-up turns were played.
+   */
+  public static int run(int width, int height, long budgetMs) {
+    long start = System.nanoTime(), deadline = start + budgetMs * 1_000_000;
+    Params params = Params.fromSystemProperties();
+    params.planBudgetMs = Math.min(params.planBudgetMs, SEARCH_BUDGET_MS);
+    params.macroBudgetMs = Math.min(params.macroBudgetMs, SEARCH_BUDGET_MS);
+    Random random = new Random(width * 31L + height);
+
+    int turns = 0;
+    Log.mute(true);
+    try {
+      Coordinator coordinator = null;
+      while (System.nanoTime() < deadline) {
+        if (turns % TURNS_PER_MATCH == 0)
+          coordinator = new Coordinator(params);
+        int turn = turns % TURNS_PER_MATCH * (GameConstants.PARAMETERS.MAX_DAYS / TURNS_PER_MATCH);
+        coordinator.generateTurnActions(syntheticState(width, height, turn, random));
+        turns++;
+      }
+    } catch (RuntimeException e) {
+      // a made-up state the planners choke on must not cost us the match, the warm-up just ends early
+      Log.mute(false);
+      Log.warn(TAG, -1, "stopped after " + turns + " turns: " + e);
+    } finally {
+      Log.mute(false);
+    }
+    int played = turns;
+    Log.info(TAG, -1, () -> played + " turns of " + width + "x" + height + " in " +
+        (System.nanoTime() - start) / 1_000_000 + "ms");
+    return turns;
+  }
+
+  static GameState syntheticState(int width, int height, int turn, Random random) {
+    GameState state = new GameState();
+    state.turn = turn;
+    state.id = random.nextInt(2);
+    GameMap map = state.map = new GameMap(width, height);
+
+    // resource clusters in the left half, mirrored into the right one
+    String[] types = {GameConstants.RESOURCE_TYPES.WOOD, GameConstants.RESOURCE_TYPES.WOOD,
+        GameConstants.RESOURCE_TYPES.COAL, GameConstants.RESOURCE_TYPES.URANIUM};
+    int half = (width + 1) / 2;
+    for (int c = 0; c < Math.max(2, width * height / 48); c++) {
+      String type = types[random.nextInt(types.length)];
+      int x = random.nextInt(half), y = random.nextInt(height);
+      for (int k = 3 + random.nextInt(5); k > 0; k--) {
+        int amount = 100 + random.nextInt(400);
+        map._setResource(type, x, y, amount);
+        map._setResource(type, width - 1 - x, y, amount);
+        Direction dir = Grid.DIRECTIONS[random.nextInt(4)];
+        x = Math.max(0, Math.min(half - 1, x + dir.dx));
+        y = Math.max(0, Math.min(height - 1, y + dir.dy));
+      }
+    }
+
+    int nextId = 1;
+    for (int team = 0; team < 2; team++) {
+      Player player = state.players[team];
+      player.researchPoints = random.nextInt(250);
+
+      for (int c = 1 + random.nextInt(3); c > 0; c--) {
+        int tiles = 1 + random.nextInt(4);
+        City city = new City(team, "c_" + nextId++, random.nextInt(1000),
+            tiles * GameConstants.PARAMETERS.LIGHT_UPKEEP.CITY);
+        int x = random.nextInt(half), y = random.nextInt(height);
+        for (int i = 0; i < tiles; i++, x = Math.min(half - 1, x + 1)) {
+          int tileX = team == 0 ? x : width - 1 - x;
+          Cell cell = map.getCell(tileX, y);
+          if (cell.hasResource() || cell.hasCityTile())
+            continue;
+          cell.citytile = city._add_city_tile(tileX, y, random.nextInt(2) * 10);
+          player.cityTileCount++;
+        }
+        if (!city.citytiles.isEmpty())
+          player.cities.put(city.cityid, city);
+      }
+
+      for (int u = 2 + random.nextInt(7); u > 0; u--) {
+        int x = random.nextInt(half), y = random.nextInt(height);
+        int cargo = random.nextInt(GameConstants.PARAMETERS.RESOURCE_CAPACITY.WORKER + 1);
+        int coal = random.nextInt(4) == 0 ? cargo / 2 : 0;
+        player.units.add(new Unit(team, GameConstants.UNIT_TYPES.WORKER, "u_" + nextId++,
+            team == 0 ? x : width - 1 - x, y, random.nextInt(3) == 0 ? 2 : 0, cargo - coal, coal, 0));
+      }
+    }
+    return state;
+  }
+
+  /**
+   * What the planners take per turn: the first turn, the worst of the few after it, and the median once the JIT has
+   * long settled. Logged once REPORT_TURN has been recorded, so the effect of the warm-up can be seen.
+   */
+  public static class LatencyReport {
+    private final static int REPORT_TURN = 30;
+    private final static int STEADY_FROM = 11;
+
+    private final long[] nanos = new long[REPORT_TURN + 1];
+    private final long warmupMs;
+
+    public LatencyReport(long warmupMs) {
+      this.warmupMs = warmupMs;
+    }
+
+    public void record(int turn, long elapsed) {
+      if (turn < 1 || turn > REPORT_TURN)
+        return;
+      nanos[turn] = elapsed;
+      if (turn != REPORT_TURN)
+        return;
+      long early = 0;
+      for (int t = 2; t < STEADY_FROM; t++) {
+        early = Math.max(early, nanos[t]);
+      }
+      ArrayList<Long> steady = new ArrayList<>();
+      for (int t = STEADY_FROM; t <= REPORT_TURN; t++) {
+        steady.add(nanos[t]);
+      }
+      steady.sort(null);
+      long first = nanos[1], worstEarly = early, median = steady.get(steady.size() / 2);
+      Log.info(TAG, turn, () -> String.format("warm-up %dms: turn 1 took %.1fms, turns 2-%d at most %.1fms, " +
+              "turns %d-%d %.1fms median", warmupMs, first / 1e6, STEADY_FROM - 1, worstEarly / 1e6, STEADY_FROM,
+          REPORT_TURN, median / 1e6));
+    }
+  }
+}
@@ -1,9 +1,12 @@
 package lux;
 
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.Scanner;
 
 public class Agent {
     private final Scanner scanner;
+    private final PrintStream out;
 
     public GameState gameState = new GameState();
 
@@ -11,7 +14,15 @@ public class Agent {
      * Constructor for a new agent User should edit this according to their `Design`
      */
     public Agent() {
-      scanner = new Scanner(System.in);
+      this(System.in, System.out);
+    }
+
+    /**
+     * An agent talking to the engine over other streams than stdin/stdout, so several can share a JVM
+     */
+    public Agent(InputStream in, PrintStream out) {
+      scanner = new Scanner(in);
+      this.out = out;
     }
 
     /**
@@ -104,7 +115,7 @@ public class Agent {
      * End a turn
      */
     public void endTurn() {
-        System.out.println("D_FINISH");
-        System.out.flush();
+        out.println("D_FINISH");
+        out.flush();
     }
 }
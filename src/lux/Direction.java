@@ -1,23 +1,31 @@
 package lux;
 
 public enum Direction {
-    NORTH("n"), EAST("e"), SOUTH("s"), WEST("w"), CENTER("c");
+    NORTH("n", 0, -1), EAST("e", 1, 0), SOUTH("s", 0, 1), WEST("w", -1, 0), CENTER("c", 0, 0);
 
     public String str;
+    // one step in this direction, y growing southward
+    public final int dx, dy;
 
-    Direction(final String s) {
+    Direction(final String s, int dx, int dy) {
         this.str = s;
+        this.dx = dx;
+        this.dy = dy;
     }
 
     public static Direction getDir(String s) {
-        switch(s) {
-            case "n":
+        return s.length() == 1 ? getDir(s.charAt(0)) : CENTER;
+    }
+
+    public static Direction getDir(char c) {
+        switch(c) {
+            case 'n':
                 return NORTH;
-            case "e":
+            case 'e':
                 return EAST;
-            case "s":
+            case 's':
                 return SOUTH;
-            case "w":
+            case 'w':
                 return WEST;
             default:
                 return CENTER;
@@ -27,4 +35,4 @@ public enum Direction {
     public String toString() {
         return this.str;
     }
-}
\ No newline at end of file
+}
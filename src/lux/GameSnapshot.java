@@ -0,0 +1,534 @@
+package lux;
+
+import java.util.*;
+
+/**
+ * Immutable view of one turn's state that can be shared freely between threads.
+ *
+ * Cell data is kept one map row per object, and players, units and cities are immutable values, so a fork only copies
+ * the rows and players it actually writes to and shares everything else with the snapshot it came from. Forks are
+ * used to apply hypothetical actions (see {@link Fork#apply(String)}) without touching the original.
+ */
+public final class GameSnapshot {
+
+  public final static byte NO_RESOURCE = 0, WOOD = 1, COAL = 2, URANIUM = 3;
+
+  public final int width, height, turn, id;
+
+  private final Row[] rows;
+  private final PlayerView[] players;
+  // ids handed out to units and cities built in forks
+  private final int nextUnitId, nextCityId;
+
+  private GameSnapshot(int width, int height, int turn, int id, Row[] rows, PlayerView[] players, int nextUnitId,
+                       int nextCityId) {
+    this.width = width;
+    this.height = height;
+    this.turn = turn;
+    this.id = id;
+    this.rows = rows;
+    this.players = players;
+    this.nextUnitId = nextUnitId;
+    this.nextCityId = nextCityId;
+  }
+
+  public static GameSnapshot of(GameState gameState) {
+    GameMap gameMap = gameState.map;
+    Row[] rows = new Row[gameMap.height];
+    for (int y = 0; y < gameMap.height; y++) {
+      Row row = new Row(gameMap.width);
+      for (int x = 0; x < gameMap.width; x++) {
+        Cell cell = gameMap.getCell(x, y);
+        if (cell.resource != null) {
+          row.resourceType[x] = resourceType(cell.resource.type);
+          row.resourceAmount[x] = cell.resource.amount;
+        }
+        row.road[x] = cell.road;
+        if (cell.hasCityTile()) {
+          row.cityId[x] = cell.citytile.cityid;
+          row.cityTeam[x] = (byte) cell.citytile.team;
+          row.cityCooldown[x] = cell.citytile.cooldown;
+        }
+      }
+      rows[y] = row;
+    }
+
+    int maxUnitId = -1, maxCityId = -1;
+    PlayerView[] players = new PlayerView[gameState.players.length];
+    for (int i = 0; i < players.length; i++) {
+      Player p = gameState.players[i];
+      ArrayList<UnitView> units = new ArrayList<>();
+      for (Unit u : p.units) {
+        units.add(new UnitView(u.id, u.team, u.type, u.pos.x, u.pos.y, u.cooldown, u.cargo.wood, u.cargo.coal,
+            u.cargo.uranium));
+        maxUnitId = Math.max(maxUnitId, number(u.id));
+      }
+      HashMap<String, CityView> cities = new HashMap<>();
+      for (City c : p.cities.values()) {
+        cities.put(c.cityid, new CityView(c.cityid, c.team, c.fuel, c.getLightUpkeep(), c.citytiles.size()));
+        maxCityId = Math.max(maxCityId, number(c.cityid));
+      }
+      players[i] = new PlayerView(p.team, p.researchPoints, units, cities, p.cityTileCount);
+    }
+    return new GameSnapshot(gameMap.width, gameMap.height, gameState.turn, gameState.id, rows, players,
+        maxUnitId + 1, maxCityId + 1);
+  }
+
+  public PlayerView player(int team) {
+    return players[team];
+  }
+
+  public PlayerView me() {
+    return players[id];
+  }
+
+  public PlayerView opponent() {
+    return players[(id + 1) % 2];
+  }
+
+  public byte resourceType(int x, int y) {
+    return rows[y].resourceAmount[x] > 0 ? rows[y].resourceType[x] : NO_RESOURCE;
+  }
+
+  public int resourceAmount(int x, int y) {
+    return rows[y].resourceAmount[x];
+  }
+
+  public double road(int x, int y) {
+    return rows[y].road[x];
+  }
+
+  public boolean hasCityTile(int x, int y) {
+    return rows[y].cityId[x] != null;
+  }
+
+  // City id of the tile at x,y, or null
+  public String cityId(int x, int y) {
+    return rows[y].cityId[x];
+  }
+
+  // Team owning the city tile at x,y, or -1
+  public int cityTeam(int x, int y) {
+    return rows[y].cityId[x] == null ? -1 : rows[y].cityTeam[x];
+  }
+
+  public double cityTileCooldown(int x, int y) {
+    return rows[y].cityCooldown[x];
+  }
+
+  public boolean isNight() {
+    return (turn - 1) % 40 >= GameConstants.PARAMETERS.DAY_LENGTH;
+  }
+
+  public Fork fork() {
+    return new Fork(this);
+  }
+
+  /**
+   * Rebuilds a mutable GameState from the snapshot, for planners that still want one. Every call returns a fresh
+   * object graph, so each thread can have its own.
+   */
+  public GameState toGameState() {
+    GameState gameState = new GameState();
+    gameState.turn = turn;
+    gameState.id = id;
+    gameState.map = new GameMap(width, height);
+    for (PlayerView p : players) {
+      Player player = gameState.players[p.team];
+      player.researchPoints = p.researchPoints;
+      player.cityTileCount = p.cityTileCount;
+      for (UnitView u : p.units) {
+        player.units.add(new Unit(u.team, u.type, u.id, u.x, u.y, u.cooldown, u.wood, u.coal, u.uranium));
+      }
+      for (CityView c : p.cities.values()) {
+        player.cities.put(c.id, new City(c.team, c.id, c.fuel, c.lightUpkeep));
+      }
+    }
+    for (int y = 0; y < height; y++) {
+      Row row = rows[y];
+      for (int x = 0; x < width; x++) {
+        Cell cell = gameState.map.getCell(x, y);
+        if (row.resourceType[x] != NO_RESOURCE)
+          gameState.map._setResource(resourceName(row.resourceType[x]), x, y, row.resourceAmount[x]);
+        cell.road = row.road[x];
+        if (row.cityId[x] != null) {
+          City city = gameState.players[row.cityTeam[x]].cities.get(row.cityId[x]);
+          cell.citytile = city._add_city_tile(x, y, row.cityCooldown[x]);
+        }
+      }
+    }
+    return gameState;
+  }
+
+  private static byte resourceType(String type) {
+    switch (type) {
+      case GameConstants.RESOURCE_TYPES.WOOD:
+        return WOOD;
+      case GameConstants.RESOURCE_TYPES.COAL:
+        return COAL;
+      default:
+        return URANIUM;
+    }
+  }
+
+  private static String resourceName(byte type) {
+    switch (type) {
+      case WOOD:
+        return GameConstants.RESOURCE_TYPES.WOOD;
+      case COAL:
+        return GameConstants.RESOURCE_TYPES.COAL;
+      default:
+        return GameConstants.RESOURCE_TYPES.URANIUM;
+    }
+  }
+
+  private static int number(String id) {
+    return Integer.parseInt(id.substring(id.indexOf('_') + 1));
+  }
+
+  // One map row. Never written once a snapshot refers to it
+  private static final class Row {
+    final byte[] resourceType;
+    final int[] resourceAmount;
+    final double[] road;
+    final String[] cityId;
+    final byte[] cityTeam;
+    final double[] cityCooldown;
+
+    Row(int width) {
+      resourceType = new byte[width];
+      resourceAmount = new int[width];
+      road = new double[width];
+      cityId = new String[width];
+      cityTeam = new byte[width];
+      cityCooldown = new double[width];
+    }
+
+    Row(Row other) {
+      resourceType = other.resourceType.clone();
+      resourceAmount = other.resourceAmount.clone();
+      road = other.road.clone();
+      cityId = other.cityId.clone();
+      cityTeam = other.cityTeam.clone();
+      cityCooldown = other.cityCooldown.clone();
+    }
+  }
+
+  public static final class PlayerView {
+    public final int team, researchPoints, cityTileCount;
+    public final List<UnitView> units;
+    public final Map<String, CityView> cities;
+
+    PlayerView(int team, int researchPoints, List<UnitView> units, Map<String, CityView> cities, int cityTileCount) {
+      this.team = team;
+      this.researchPoints = researchPoints;
+      this.units = Collections.unmodifiableList(units);
+      this.cities = Collections.unmodifiableMap(cities);
+      this.cityTileCount = cityTileCount;
+    }
+
+    public boolean researchedCoal() {
+      return researchPoints >= GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.COAL;
+    }
+
+    public boolean researchedUranium() {
+      return researchPoints >= GameConstants.PARAMETERS.RESEARCH_REQUIREMENTS.URANIUM;
+    }
+
+    public UnitView unit(String unitId) {
+      for (UnitView u : units) {
+        if (u.id.equals(unitId)) return u;
+      }
+      return null;
+    }
+  }
+
+  public static final class UnitView {
+    public final String id;
+    public final int team, type, x, y;
+    public final double cooldown;
+    public final int wood, coal, uranium;
+
+    UnitView(String id, int team, int type, int x, int y, double cooldown, int wood, int coal, int uranium) {
+      this.id = id;
+      this.team = team;
+      this.type = type;
+      this.x = x;
+      this.y = y;
+      this.cooldown = cooldown;
+      this.wood = wood;
+      this.coal = coal;
+      this.uranium = uranium;
+    }
+
+    public boolean isWorker() {
+      return type == GameConstants.UNIT_TYPES.WORKER;
+    }
+
+    public boolean canAct() {
+      return cooldown < 1;
+    }
+
+    public int getCargoSpaceUsed() {
+      return wood + coal + uranium;
+    }
+
+    public int getCargoSpaceLeft() {
+      return (isWorker() ? GameConstants.PARAMETERS.RESOURCE_CAPACITY.WORKER :
+          GameConstants.PARAMETERS.RESOURCE_CAPACITY.CART) - getCargoSpaceUsed();
+    }
+
+    public int getFuelValue() {
+      return wood + coal * GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.COAL +
+          uranium * GameConstants.PARAMETERS.RESOURCE_TO_FUEL_RATE.URANIUM;
+    }
+
+    UnitView at(int x, int y, double cooldown) {
+      return new UnitView(id, team, type, x, y, cooldown, wood, coal, uranium);
+    }
+
+    UnitView withCargo(int wood, int coal, int uranium, double cooldown) {
+      return new UnitView(id, team, type, x, y, cooldown, wood, coal, uranium);
+    }
+
+    @Override
+    public String toString() {
+      return id;
+    }
+  }
+
+  public static final class CityView {
+    public final String id;
+    public final int team, tileCount;
+    public final double fuel, lightUpkeep;
+
+    CityView(String id, int team, double fuel, double lightUpkeep, int tileCount) {
+      this.id = id;
+      this.team = team;
+      this.fuel = fuel;
+      this.lightUpkeep = lightUpkeep;
+      this.tileCount = tileCount;
+    }
+  }
+
+  /**
+   * Applies hypothetical actions on top of a snapshot. Only the rows and players that get written are copied; call
+   * {@link #snapshot()} to freeze the result. A Fork itself is not thread safe, but the snapshots it produces are.
+   *
+   * The effects are the immediate ones of each action (a move changes the position and cooldown, a build consumes
+   * cargo and creates the tile or unit, research adds a point); nothing of the engine's end of turn processing, like
+   * collection or upkeep, is simulated.
+   */
+  public static final class Fork {
+    private final GameSnapshot base;
+    private final Row[] rows;
+    private final boolean[] ownRow;
+    private final PlayerView[] players;
+    private final ArrayList<UnitView>[] units;
+    private final HashMap<String, CityView>[] cities;
+    private final int[] researchPoints, cityTileCount;
+    private int nextUnitId, nextCityId;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Fork(GameSnapshot base) {
+      this.base = base;
+      this.rows = base.rows.clone();
+      this.ownRow = new boolean[rows.length];
+      this.players = base.players.clone();
+      this.units = new ArrayList[players.length];
+      this.cities = new HashMap[players.length];
+      this.researchPoints = new int[players.length];
+      this.cityTileCount = new int[players.length];
+      for (int i = 0; i < players.length; i++) {
+        researchPoints[i] = players[i].researchPoints;
+        cityTileCount[i] = players[i].cityTileCount;
+      }
+      this.nextUnitId = base.nextUnitId;
+      this.nextCityId = base.nextCityId;
+    }
+
+    /**
+     * Applies an action string in the format the engine expects ("m u_1 n", "bcity u_1", "bw 3 4", "bc 3 4",
+     * "r 3 4"). Returns false if the action doesn't make sense in this state; anything else (annotations, transfers)
+     * is ignored.
+     */
+    public boolean apply(String action) {
+      String[] parts = action.trim().split(" ");
+      switch (parts[0]) {
+        case "m":
+          return move(parts[1], Direction.getDir(parts[2]));
+        case "bcity":
+          return buildCity(parts[1]);
+        case "bw":
+          return buildWorker(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        case "bc":
+          return buildCart(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        case "r":
+          return research(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        default:
+          return false;
+      }
+    }
+
+    public boolean move(String unitId, Direction dir) {
+      int team = teamOf(unitId);
+      if (team == -1)
+        return false;
+      int idx = indexOf(units(team), unitId);
+      UnitView u = units(team).get(idx);
+      if (!u.canAct())
+        return false;
+      Position to = new Position(u.x, u.y).translate(dir, 1);
+      if (to.x < 0 || to.x >= base.width || to.y < 0 || to.y >= base.height)
+        return false;
+      int cityTeam = rows[to.y].cityId[to.x] == null ? -1 : rows[to.y].cityTeam[to.x];
+      if (cityTeam != -1 && cityTeam != team)
+        return false;
+      double cooldown = dir == Direction.CENTER ? u.cooldown : u.cooldown + (u.isWorker() ?
+          GameConstants.PARAMETERS.UNIT_ACTION_COOLDOWN.WORKER : GameConstants.PARAMETERS.UNIT_ACTION_COOLDOWN.CART);
+      units(team).set(idx, u.at(to.x, to.y, cooldown));
+      return true;
+    }
+
+    public boolean buildCity(String unitId) {
+      int team = teamOf(unitId);
+      if (team == -1)
+        return false;
+      int idx = indexOf(units(team), unitId);
+      UnitView u = units(team).get(idx);
+      Row row = rows[u.y];
+      if (!u.canAct() || row.cityId[u.x] != null || row.resourceAmount[u.x] > 0 ||
+          u.getCargoSpaceUsed() < GameConstants.PARAMETERS.CITY_BUILD_COST)
+        return false;
+
+      // the engine spends wood first, then coal, then uranium
+      int cost = GameConstants.PARAMETERS.CITY_BUILD_COST;
+      int wood = Math.min(u.wood, cost);
+      cost -= wood;
+      int coal = Math.min(u.coal, cost);
+      cost -= coal;
+      int uranium = Math.min(u.uranium, cost);
+      units(team).set(idx, u.withCargo(u.wood - wood, u.coal - coal, u.uranium - uranium,
+          u.cooldown + GameConstants.PARAMETERS.UNIT_ACTION_COOLDOWN.WORKER));
+
+      // join an adjacent city of ours, or found a new one
+      String cityId = null;
+      for (Direction dir : new Direction[]{Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST}) {
+        Position p = new Position(u.x, u.y).translate(dir, 1);
+        if (p.x < 0 || p.x >= base.width || p.y < 0 || p.y >= base.height)
+          continue;
+        if (rows[p.y].cityId[p.x] != null && rows[p.y].cityTeam[p.x] == team) {
+          cityId = rows[p.y].cityId[p.x];
+          break;
+        }
+      }
+      HashMap<String, CityView> teamCities = cities(team);
+      if (cityId == null) {
+        cityId = "c_" + nextCityId++;
+        teamCities.put(cityId, new CityView(cityId, team, 0, GameConstants.PARAMETERS.LIGHT_UPKEEP.CITY, 1));
+      } else {
+        CityView c = teamCities.get(cityId);
+        teamCities.put(cityId, new CityView(cityId, team, c.fuel,
+            c.lightUpkeep + GameConstants.PARAMETERS.LIGHT_UPKEEP.CITY, c.tileCount + 1));
+      }
+      row = writableRow(u.y);
+      row.cityId[u.x] = cityId;
+      row.cityTeam[u.x] = (byte) team;
+      row.cityCooldown[u.x] = 0;
+      cityTileCount[team]++;
+      return true;
+    }
+
+    public boolean buildWorker(int x, int y) {
+      return buildUnit(GameConstants.UNIT_TYPES.WORKER, x, y);
+    }
+
+    public boolean buildCart(int x, int y) {
+      return buildUnit(GameConstants.UNIT_TYPES.CART, x, y);
+    }
+
+    private boolean buildUnit(int type, int x, int y) {
+      int team = readyCityTile(x, y);
+      if (team == -1)
+        return false;
+      String unitId = "u_" + nextUnitId++;
+      units(team).add(new UnitView(unitId, team, type, x, y, 0, 0, 0, 0));
+      writableRow(y).cityCooldown[x] = GameConstants.PARAMETERS.CITY_ACTION_COOLDOWN;
+      return true;
+    }
+
+    public boolean research(int x, int y) {
+      int team = readyCityTile(x, y);
+      if (team == -1)
+        return false;
+      researchPoints[team]++;
+      writableRow(y).cityCooldown[x] = GameConstants.PARAMETERS.CITY_ACTION_COOLDOWN;
+      return true;
+    }
+
+    public void setResourceAmount(int x, int y, int amount) {
+      writableRow(y).resourceAmount[x] = amount;
+    }
+
+    public GameSnapshot snapshot() {
+      Row[] frozenRows = rows.clone();
+      // rows handed out are shared from now on, the next write has to copy again
+      Arrays.fill(ownRow, false);
+      PlayerView[] frozenPlayers = new PlayerView[players.length];
+      for (int i = 0; i < players.length; i++) {
+        if (units[i] == null && cities[i] == null && researchPoints[i] == players[i].researchPoints &&
+            cityTileCount[i] == players[i].cityTileCount) {
+          frozenPlayers[i] = players[i];
+        } else {
+          frozenPlayers[i] = new PlayerView(i, researchPoints[i],
+              units[i] == null ? players[i].units : new ArrayList<>(units[i]),
+              cities[i] == null ? players[i].cities : new HashMap<>(cities[i]), cityTileCount[i]);
+        }
+      }
+      return new GameSnapshot(base.width, base.height, base.turn, base.id, frozenRows, frozenPlayers, nextUnitId,
+          nextCityId);
+    }
+
+    private int readyCityTile(int x, int y) {
+      Row row = rows[y];
+      if (row.cityId[x] == null || row.cityCooldown[x] >= 1)
+        return -1;
+      return row.cityTeam[x];
+    }
+
+    private Row writableRow(int y) {
+      if (!ownRow[y]) {
+        rows[y] = new Row(rows[y]);
+        ownRow[y] = true;
+      }
+      return rows[y];
+    }
+
+    private ArrayList<UnitView> units(int team) {
+      if (units[team] == null)
+        units[team] = new ArrayList<>(players[team].units);
+      return units[team];
+    }
+
+    private HashMap<String, CityView> cities(int team) {
+      if (cities[team] == null)
+        cities[team] = new HashMap<>(players[team].cities);
+      return cities[team];
+    }
+
+    private int teamOf(String unitId) {
+      for (int team = 0; team < players.length; team++) {
+        if (indexOf(units[team] != null ? units[team] : players[team].units, unitId) != -1)
+          return team;
+      }
+      return -1;
+    }
+
+    private static int indexOf(List<UnitView> units, String unitId) {
+      for (int i = 0; i < units.size(); i++) {
+        if (units.get(i).id.equals(unitId)) return i;
+      }
+      return -1;
+    }
+  }
+}
@@ -18,39 +18,26 @@ public class Position {
   }
 
   public Position translate(Direction direction, int units) {
-    switch (direction) {
-      case NORTH:
-        return new Position(this.x, this.y - units);
-      case EAST:
-        return new Position(this.x + units, this.y);
-      case SOUTH:
-        return new Position(this.x, this.y + units);
-      case WEST:
-        return new Position(this.x - units, this.y);
-      case CENTER:
-        return new Position(this.x, this.y);
-    }
-    throw new Error("Did not supply valid direction");
+    return new Position(this.x + direction.dx * units, this.y + direction.dy * units);
   }
 
-  public double distanceTo(Position pos) {
+  public int distanceTo(Position pos) {
     return Math.abs(pos.x - this.x) + Math.abs(pos.y - this.y);
   }
 
-
   public Direction directionTo(Position targetPos) {
-    Direction[] checkDirections = { Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST, };
-    Direction closestDirection = Direction.CENTER;
-    double closestDist = this.distanceTo(targetPos);
-    for (Direction dir : checkDirections) {
-      Position newpos = this.translate(dir, 1);
-      double dist = targetPos.distanceTo(newpos);
-      if (dist < closestDist) {
-        closestDist = dist;
-        closestDirection = dir;
-      }
-    }
-    return closestDirection;
+    return directionTo(x, y, targetPos.x, targetPos.y);
+  }
+
+  /**
+   * The first of north, east, south, west that gets closer to the target, CENTER when already there.
+   */
+  public static Direction directionTo(int x, int y, int targetX, int targetY) {
+    if (targetY < y) return Direction.NORTH;
+    if (targetX > x) return Direction.EAST;
+    if (targetY > y) return Direction.SOUTH;
+    if (targetX < x) return Direction.WEST;
+    return Direction.CENTER;
   }
 
   @Override
@@ -4,10 +4,38 @@ from queue import Queue, Empty
 
 import atexit
 import os
+import subprocess
 import sys
+import zipfile
 agent_processes = [None, None]
 t = None
 q = None
+# How long the bot plays made-up turns to warm up the JIT before the first real one (see bot/Warmup.java), 0 to skip
+WARMUP_MS = 1000
+# Written by build_cds_archive() and used when both are there, so the JVM starts with the bot's classes already parsed
+CDS_JAR = "bot.jar"
+CDS_ARCHIVE = "bot.jsa"
+def java_command(cwd):
+    command = ["java", f"-Dwarmup.ms={WARMUP_MS}"]
+    if os.path.exists(os.path.join(cwd, CDS_JAR)) and os.path.exists(os.path.join(cwd, CDS_ARCHIVE)):
+        # auto rather than on: a JVM that can't map the archive just starts without it
+        command += [f"-XX:SharedArchiveFile={CDS_ARCHIVE}", "-Xshare:auto", "-cp", CDS_JAR]
+    return command + ["Bot"]
+def build_cds_archive(cwd=os.path.dirname(os.path.abspath(__file__)), width=32, height=32, warmup_ms=3000):
+    """
+    Packs the compiled classes next to this file into bot.jar (class data sharing only archives classes from jars)
+    and dumps an archive of every class a warm-up run loads. Run once after compiling: python main.py --build-cds
+    """
+    with zipfile.ZipFile(os.path.join(cwd, CDS_JAR), "w") as jar:
+        for root, _, files in os.walk(cwd):
+            for name in files:
+                if name.endswith(".class"):
+                    path = os.path.join(root, name)
+                    jar.write(path, os.path.relpath(path, cwd))
+    subprocess.check_call(["java", "-Xshare:off", "-XX:DumpLoadedClassList=bot.classlist", "-cp", CDS_JAR,
+                           "bot.Warmup", str(width), str(height), str(warmup_ms)], cwd=cwd)
+    subprocess.check_call(["java", "-Xshare:dump", "-XX:SharedClassListFile=bot.classlist",
+                           f"-XX:SharedArchiveFile={CDS_ARCHIVE}", "-cp", CDS_JAR], cwd=cwd)
 def cleanup_process():
     global agent_processes
     for proc in agent_processes:
@@ -30,7 +58,7 @@ def java_agent(observation, configuration):
             cwd = os.path.dirname(configuration["__raw_path__"])
         else:
             cwd = os.path.dirname(__file__)
-        agent_process = Popen(["java", "Bot"], stdin=PIPE, stdout=PIPE, stderr=PIPE, cwd=cwd)
+        agent_process = Popen(java_command(cwd), stdin=PIPE, stdout=PIPE, stderr=PIPE, cwd=cwd)
         agent_processes[observation.player] = agent_process
         atexit.register(cleanup_process)
 
@@ -65,4 +93,7 @@ def java_agent(observation, configuration):
     for cmd in outputs:
         if cmd != "":
             actions.append(cmd)
-    return actions
\ No newline at end of file
+    return actions
+
+if __name__ == "__main__" and "--build-cds" in sys.argv:
+    build_cds_archive()